@@ -30,9 +30,7 @@ package ninja.mcknight.bukkit.mobmanager;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import ninja.mcknight.bukkit.mobmanager.common.listeners.PlayerTrackerListener;
 import ninja.mcknight.bukkit.mobmanager.commands.MMCommandListener;
@@ -40,9 +38,9 @@ import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
 import ninja.mcknight.bukkit.mobmanager.common.integration.PluginIntegration;
 import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
 import ninja.mcknight.bukkit.mobmanager.common.util.FileUtil;
+import ninja.mcknight.bukkit.mobmanager.common.util.PlayerSlots;
 import ninja.mcknight.bukkit.mobmanager.common.util.Updater;
 import ninja.mcknight.bukkit.mobmanager.metrics.Metrics;
-import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent.Component;
@@ -66,10 +64,12 @@ public class P extends JavaPlugin
 		return p;
 	}
 
-	public static Map<String, Player> getOnlinePlayers() {
-		return p().playerTracker != null ?
-				p().playerTracker.getOnlinePlayerPlayers() :
-				Collections.<String, Player>emptyMap();
+	/** Returned while no player tracker is registered, it never has any players */
+	private static final PlayerSlots NO_SLOTS = new PlayerSlots();
+	
+	public static PlayerSlots getPlayerSlots()
+	{
+		return p().playerTracker != null ? p().playerTracker.getPlayerSlots() : NO_SLOTS;
 	}
 	
 	private PluginIntegration integration = new PluginIntegration();
@@ -151,6 +151,8 @@ public enum AbilityType
 		
 		}
 		
+		abilityChances.compile();
+		
 		return abilityChances.getNumChances() > 0;
 	}
 	
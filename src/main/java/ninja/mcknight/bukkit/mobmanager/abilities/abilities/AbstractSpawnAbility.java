@@ -36,7 +36,6 @@ import ninja.mcknight.bukkit.mobmanager.P;
 import ninja.mcknight.bukkit.mobmanager.abilities.config.AbilityConfig;
 import ninja.mcknight.bukkit.mobmanager.abilities.util.ValueChance;
 import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
 import ninja.mcknight.bukkit.mobmanager.common.util.RandomLocationGen;
 import org.bukkit.Location;
 import org.bukkit.entity.LivingEntity;
@@ -85,8 +84,8 @@ public abstract class AbstractSpawnAbility extends Ability
 			if (type == null)
 				return;
 			
-			// Copy the entities location into the cache
-			Location loc = entity.getLocation(LocationCache.getCachedLocation());
+			// Copy the entities location, spawning mobs fires events which may use the scratch locations
+			Location loc = entity.getLocation();
 			
 			// Spawn each mob
 			for (int i = 0; i < count; ++i)
@@ -65,7 +65,7 @@ public class ChargedCreeperAbility extends Ability
 		if (ma.chargedRate <= 1.0 && ma.chargedRate != 0.0)
 		{
 			// If the random number is lower than the angry chance we make shit angry
-			if (ma.chargedRate == 1.0F || RandomUtil.i.nextFloat() < ma.chargedRate)
+			if (ma.chargedRate == 1.0F || RandomUtil.get().nextFloat() < ma.chargedRate)
 			{
 				ability.addAbility(entity);
 			}
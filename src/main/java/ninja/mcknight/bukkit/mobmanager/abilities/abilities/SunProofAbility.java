@@ -63,7 +63,7 @@ public class SunProofAbility extends Ability
 		if (ma.sunProofRate <= 1.0 && ma.sunProofRate != 0.0)
 		{
 			// If the random number is lower than the sunproof rate we make the entity sun proof :D
-			if (ma.sunProofRate == 1.0F || RandomUtil.i.nextFloat() < ma.sunProofRate)
+			if (ma.sunProofRate == 1.0F || RandomUtil.get().nextFloat() < ma.sunProofRate)
 			{
 				ability.addAbility(entity);
 			}
@@ -88,7 +88,7 @@ public class AbilitiesMobListener implements Listener
 				return;
 			}
 			// If the random number is higher than the spawn chance we disallow the spawn
-			if (RandomUtil.i.nextFloat() >= ma.spawnRate)
+			if (RandomUtil.get().nextFloat() >= ma.spawnRate)
 			{
 				event.setCancelled(true);
 				return;
@@ -29,54 +29,82 @@
 package ninja.mcknight.bukkit.mobmanager.abilities.util;
 
 import java.util.ArrayList;
+import java.util.Random;
 
+import ninja.mcknight.bukkit.mobmanager.common.util.AliasTable;
 import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
 
+/**
+ * A set of values which are picked by their relative chances</br>
+ * Chances are compiled into an alias table, so picking a value takes</br>
+ * the same time no matter how many values there are
+ */
 public class ValueChance<T extends Object>
 {
-	private class Chance
+	private class Compiled
 	{
-		final int min;
-		final int max;
-		
-		final T value;
+		final Object[] values;
+		final AliasTable table;
 		
-		private Chance(int min, int max, T value)
+		private Compiled(Object[] values, AliasTable table)
 		{
-			this.min = min;
-			this.max = max;
-			this.value = value;
+			this.values = values;
+			this.table = table;
 		}
 	}
 	
 	private int totalChance = 0;
-	private ArrayList<Chance> chances = new ArrayList<Chance>();
+	private ArrayList<Integer> chances = new ArrayList<Integer>();
+	private ArrayList<T> values = new ArrayList<T>();
+	
+	private volatile Compiled compiled;
 	
 	public void addChance(int chance, T value)
 	{
-		int min = totalChance;
-		
 		totalChance += chance;
 		
-		int max = totalChance;
+		chances.add(chance);
+		values.add(value);
 		
-		chances.add(new Chance(min, max, value));
+		compiled = null;
+	}
+	
+	/**
+	 * Compiles the chances into an alias table</br>
+	 * Should be called once all chances have been added
+	 */
+	public void compile()
+	{
+		if (totalChance <= 0)
+			return;
+		
+		int[] weights = new int[chances.size()];
+		for (int i = 0; i < weights.length; ++i)
+			weights[i] = chances.get(i);
+		
+		compiled = new Compiled(values.toArray(), new AliasTable(weights));
 	}
 	
 	public T getBonus()
+	{
+		return getBonus(RandomUtil.get());
+	}
+	
+	@SuppressWarnings("unchecked")
+	public T getBonus(Random random)
 	{
 		if (chances.size() == 0)
 			return null;
 		
-		int chance = RandomUtil.i.nextInt(totalChance);
-		
-		for (Chance c : chances)
+		Compiled c = compiled;
+		if (c == null)
 		{
-			if (c.min <= chance && c.max > chance)
-				return c.value;
+			compile();
+			if ((c = compiled) == null)
+				return null;
 		}
 		
-		return null;
+		return (T) c.values[c.table.pick(random)];
 	}
 	
 	public int getNumChances()
@@ -53,7 +53,8 @@ import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.abilities.abilities.AbilitySet;
 import ninja.mcknight.bukkit.mobmanager.bounty.config.multipliers.PermissionMultiplier;
 import ninja.mcknight.bukkit.mobmanager.bounty.config.util.ExploitsPlayerData;
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
+import ninja.mcknight.bukkit.mobmanager.common.util.Scratch;
+import ninja.mcknight.bukkit.mobmanager.common.util.PlayerSlotArray;
 
 public class BountyConfig extends AbstractConfig
 {
@@ -81,8 +82,8 @@ public class BountyConfig extends AbstractConfig
 	public final boolean useCooldown, useLoginTimer, useSpawnerProtection, useNearbyMobCap, useDepreciativeReturn;
 	private final double depreciativeReturnMulti, nearbyCappedMulti, spawnerCappedMulti;
 	private final int cooldownTimeout, loginTimeout, nearbyRangeSquared, nearbyMobCap, spawnerCap;
-	private final HashMap<String, ExploitsPlayerData> exploitsPlayerData;
-	private final HashMap<String, Long> loginTimer;
+	private final PlayerSlotArray<ExploitsPlayerData> exploitsPlayerData;
+	private final PlayerSlotArray<Long> loginTimer;
 	
 	public final String rewardPlayerMessage;
 	public final String finePlayerMessage;
@@ -317,7 +318,7 @@ public class BountyConfig extends AbstractConfig
 			// Setup Exploits data storage
 			if (useCooldown || useNearbyMobCap || useSpawnerProtection || useDepreciativeReturn)
 			{
-				exploitsPlayerData = new HashMap<String, ExploitsPlayerData>();
+				exploitsPlayerData = new PlayerSlotArray<ExploitsPlayerData>();
 			}
 			else
 			{
@@ -326,7 +327,7 @@ public class BountyConfig extends AbstractConfig
 			
 			if (useLoginTimer)
 			{
-				loginTimer = new HashMap<String, Long>();
+				loginTimer = new PlayerSlotArray<Long>();
 			}
 			else
 			{
@@ -399,12 +400,12 @@ public class BountyConfig extends AbstractConfig
 	
 	public ExploitsPlayerData getPlayerData(Player player)
 	{
-		ExploitsPlayerData playerData = exploitsPlayerData.get(player.getName());
+		ExploitsPlayerData playerData = exploitsPlayerData.get(player);
 		
 		if (playerData == null)
 		{
 			playerData = new ExploitsPlayerData();
-			exploitsPlayerData.put(player.getName(), playerData);
+			exploitsPlayerData.set(player, playerData);
 		}
 		
 		return playerData;
@@ -412,7 +413,8 @@ public class BountyConfig extends AbstractConfig
 	
 	public void playedLoggedIn(Player player)
 	{
-		loginTimer.put(player.getName(), System.currentTimeMillis());
+		if (loginTimer != null)
+			loginTimer.set(player, System.currentTimeMillis());
 	}
 	
 	public double applyMultipliers(double reward, Player player, LivingEntity entity, ExtendedEntityType type)
@@ -437,7 +439,7 @@ public class BountyConfig extends AbstractConfig
 				// If the players login cooldown has not expired we return 0.0
 				if (useLoginTimer)
 				{
-					Long loginTime = loginTimer.get(player.getName());
+					Long loginTime = loginTimer.get(player);
 					
 					if (loginTime != null)
 					{
@@ -447,7 +449,7 @@ public class BountyConfig extends AbstractConfig
 						}
 						else
 						{
-							loginTimer.remove(player.getName());
+							loginTimer.remove(player);
 						}
 					}
 				}
@@ -505,7 +507,7 @@ public class BountyConfig extends AbstractConfig
 		// Apply Biome multiplier
 		if (usingBiomeMulti)
 		{
-			Location loc = entity.getLocation(LocationCache.getCachedLocation());
+			Location loc = entity.getLocation(Scratch.get().entityLoc);
 			Biome biome = entity.getWorld().getBiome(loc.getBlockX(), loc.getBlockZ());
 			
 			reward *= biomeMultipliers[biome.ordinal()];
@@ -29,6 +29,7 @@
 package ninja.mcknight.bukkit.mobmanager.bounty.config;
 
 import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
 import org.bukkit.configuration.ConfigurationSection;
 
 public class BountyMobConfig extends AbstractConfig
@@ -58,7 +59,7 @@ public class BountyMobConfig extends AbstractConfig
 	
 	public double getReward()
 	{
-		return Math.random() * extra + minReward;
+		return RandomUtil.get().nextDouble() * extra + minReward;
 	}
 	
 	public double getMinReward()
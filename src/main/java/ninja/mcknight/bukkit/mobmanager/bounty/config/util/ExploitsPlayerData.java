@@ -30,7 +30,7 @@ package ninja.mcknight.bukkit.mobmanager.bounty.config.util;
 
 import ninja.mcknight.bukkit.mobmanager.bounty.listeners.BountySpawnListener;
 import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
+import ninja.mcknight.bukkit.mobmanager.common.util.Scratch;
 import org.bukkit.Location;
 import org.bukkit.entity.LivingEntity;
 
@@ -66,7 +66,7 @@ public class ExploitsPlayerData
 	
 	public int getNewNearbyKillCount(LivingEntity entity, int rangeSquared)
 	{
-		Location cacheLoc = entity.getLocation(LocationCache.getCachedLocation());
+		Location cacheLoc = entity.getLocation(Scratch.get().entityLoc);
 		
 		if (loc == null)
 		{
@@ -51,6 +51,7 @@ import ninja.mcknight.bukkit.mobmanager.bounty.config.BountyConfig;
 import ninja.mcknight.bukkit.mobmanager.bounty.config.BountyType;
 import ninja.mcknight.bukkit.mobmanager.bounty.config.BountyWorldConfig;
 import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
 
 public class BountyDeathListener implements Listener
 {
@@ -232,7 +233,7 @@ public class BountyDeathListener implements Listener
 		int count = (int) reward;
 		reward -= count;
 
-		if (Math.random() <= reward)
+		if (RandomUtil.get().nextDouble() <= reward)
 		{
 			++count;
 		}
@@ -270,7 +271,7 @@ public class BountyDeathListener implements Listener
 
 		int exp = (int) reward;
 
-		if (Math.random() <= reward - exp)
+		if (RandomUtil.get().nextDouble() <= reward - exp)
 		{
 			++exp;
 		}
@@ -28,6 +28,8 @@
 
 package ninja.mcknight.bukkit.mobmanager.bounty.listeners;
 
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 
@@ -35,6 +37,7 @@ import ninja.mcknight.bukkit.mobmanager.MMComponent;
 
 public class BountyLoginListener implements Listener
 {
+	@EventHandler(priority = EventPriority.MONITOR)
 	public void onPlayerJoin(PlayerJoinEvent event)
 	{
 		MMComponent.getBounties().getConfig().playedLoggedIn(event.getPlayer());
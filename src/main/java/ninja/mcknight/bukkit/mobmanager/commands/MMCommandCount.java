@@ -130,6 +130,28 @@ class MMCommandCount extends MMCommand
 					world.getMobCount(MobType.AMBIENT), world.maxMobs(MobType.AMBIENT),
 					world.getMobCount(MobType.VILLAGER), world.maxMobs(MobType.VILLAGER)));
 			
+			// Show layer counts when looking at a single world
+			if (args.length > 1)
+			{
+				for (int layer = 0; layer < world.worldConf.layerNames.length; ++layer)
+				{
+					StringBuilder layerCounts = new StringBuilder();
+					for (MobType mob : MobType.values())
+					{
+						short max = world.worldConf.layerMaximums[layer][mob.ordinal()];
+						if (max == -1)
+							continue;
+						
+						layerCounts.append(String.format("%1$s%4$s:%2$s%5$d%3$s/%2$s%6$d ",
+								ChatColor.GREEN, ChatColor.AQUA, ChatColor.YELLOW,
+								mob.shortName, world.getLayerMobCount(layer, mob), max));
+					}
+					
+					sender.sendMessage(String.format("%1$sLayer %2$s%3$s%1$s: %4$s",
+							ChatColor.DARK_GREEN, ChatColor.AQUA, world.worldConf.layerNames[layer], layerCounts.toString().trim()));
+				}
+			}
+			
 			if (args.length == 1)
 			{
 				totalMonsters += world.getMobCount(MobType.MONSTER);
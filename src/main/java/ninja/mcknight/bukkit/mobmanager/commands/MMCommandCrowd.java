@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.commands;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import ninja.mcknight.bukkit.mobmanager.MMComponent;
+import ninja.mcknight.bukkit.mobmanager.limiter.util.CrowdRelief;
+import ninja.mcknight.bukkit.mobmanager.limiter.world.ChunkPopulation;
+import ninja.mcknight.bukkit.mobmanager.limiter.world.MMWorld;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+class MMCommandCrowd extends MMCommand
+{
+	/** Maximum number of chunks listed per world */
+	private static final int MAX_LISTED_CHUNKS = 10;
+
+	MMCommandCrowd()
+	{
+		super(Pattern.compile("crowd", Pattern.CASE_INSENSITIVE),
+				Pattern.compile("^.*$", Pattern.CASE_INSENSITIVE),
+				0, 1);
+	}
+
+	@Override
+	public void run(CommandSender sender, String maincmd, String[] args)
+	{
+		if (sender instanceof Player && !sender.hasPermission("mobmanager.crowd"))
+		{
+			sender.sendMessage(ChatColor.DARK_RED + "You do not have permission to use /mm crowd");
+			return;
+		}
+		
+		if (!MMComponent.getLimiter().isEnabled())
+		{
+			sender.sendMessage(ChatColor.RED + "This command requires EnableLimiter in main config to be true");
+			return;
+		}
+		
+		if (!super.validArgs(sender, maincmd, args))
+			return;
+		
+		Collection<MMWorld> worldList = new ArrayList<MMWorld>();
+		
+		if (args.length > 1)
+		{
+			MMWorld world = MMComponent.getLimiter().getWorld(args[1]);
+			
+			if (world == null)
+			{
+				sender.sendMessage("The world '" + args[1] + "' does not exist or is inactive");
+				return;
+			}
+			
+			worldList.add(world);
+		}
+		else
+		{
+			for (MMWorld world : MMComponent.getLimiter().getWorlds())
+			{
+				worldList.add(world);
+			}
+		}
+		
+		boolean found = false;
+		
+		for (MMWorld world : worldList)
+		{
+			CrowdRelief relief = world.getCrowdRelief();
+			
+			if (relief == null)
+				continue;
+			
+			found = true;
+			
+			List<Long> chunks = relief.getRelievedChunks();
+			
+			sender.sendMessage(String.format("%1$sWorld:%2$s%3$s, %1$sCrowded Chunks:%2$s%4$d, %1$sMobs without collisions:%2$s%5$d",
+					ChatColor.DARK_GREEN, ChatColor.AQUA, world.getWorld().getName(), chunks.size(), relief.getNumRelievedEntities()));
+			
+			for (int i = 0; i < chunks.size() && i < MAX_LISTED_CHUNKS; ++i)
+			{
+				long key = chunks.get(i);
+				
+				sender.sendMessage(String.format("%1$s- Chunk:%2$s%3$d,%4$d %1$sBlocks:%2$s%5$d,%6$d %1$sMobs:%2$s%7$d",
+						ChatColor.GREEN, ChatColor.AQUA,
+						ChunkPopulation.getChunkX(key), ChunkPopulation.getChunkZ(key),
+						ChunkPopulation.getChunkX(key) << 4, ChunkPopulation.getChunkZ(key) << 4,
+						world.getChunkPopulation().getLivingCount(key)));
+			}
+			
+			if (chunks.size() > MAX_LISTED_CHUNKS)
+				sender.sendMessage(String.format("%s- and %d more", ChatColor.GREEN, chunks.size() - MAX_LISTED_CHUNKS));
+		}
+		
+		if (!found)
+			sender.sendMessage(ChatColor.YELLOW + "CrowdReliefThreshold is disabled in " + (args.length > 1 ? "this world" : "all worlds"));
+	}
+
+	@Override
+	public String getUsage()
+	{
+		return "%s/%s %s %s[World]";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Lists chunks which have mob collisions turned off due to crowding";
+	}
+
+	@Override
+	public String getAliases()
+	{
+		return "crowd";
+	}
+
+}
@@ -60,6 +60,8 @@ public class MMCommandHelp extends MMCommand
 					&& !sender.hasPermission("mobmanager.abilitysetlist")
 					&& !sender.hasPermission("mobmanager.mobtypes")
 					&& !sender.hasPermission("mobmanager.version")
+					&& !sender.hasPermission("mobmanager.crowd")
+					&& !sender.hasPermission("mobmanager.stuck")
 					&& !sender.hasPermission("mobmanager.debug"))
 			{
 				sender.sendMessage(ChatColor.DARK_RED + "You do not have permission to use /mm help");
@@ -61,6 +61,11 @@ public class MMCommandListener implements CommandExecutor
 		new MMCommandSpawnCheck();
 		new MMCommandVersion();
 		new MMCommandDebug();
+		new MMCommandCrowd();
+		new MMCommandStuck();
+		new MMCommandSpawnerStats();
+		new MMCommandSpawnTrace();
+		new MMCommandSpawnerProfile();
 	}
 	
 	@Override
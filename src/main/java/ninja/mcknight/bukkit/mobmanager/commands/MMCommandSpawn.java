@@ -45,7 +45,6 @@ import ninja.mcknight.bukkit.mobmanager.P;
 import ninja.mcknight.bukkit.mobmanager.abilities.abilities.AbilitySet;
 import ninja.mcknight.bukkit.mobmanager.abilities.listeners.AbilitiesMobListener;
 import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
 
 public class MMCommandSpawn extends MMCommand
 {
@@ -105,7 +104,7 @@ public class MMCommandSpawn extends MMCommand
 				return null;
 			}
 			
-			return LocationCache.getCachedLocation(world, Integer.valueOf(args[4]), Integer.valueOf(args[5]), Integer.valueOf(args[6]));
+			return new Location(world, Integer.valueOf(args[4]), Integer.valueOf(args[5]), Integer.valueOf(args[6]));
 		}
 		else if (args.length == 3)
 		{
@@ -11,7 +11,6 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Mob;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Region;
 
@@ -45,7 +44,7 @@ public class MMCommandSpawnCheck extends MMCommand
 		}
 		
 		Player player = (Player) sender;
-		Location playerLoc = LocationCache.getCachedLocation(player);
+		Location playerLoc = player.getLocation();
 		
 		List<Region> regionList = MMComponent.getSpawner().getConfig().getSpawnableRegions(playerLoc);
 		
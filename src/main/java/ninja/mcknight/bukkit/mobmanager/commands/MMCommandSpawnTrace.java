@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import ninja.mcknight.bukkit.mobmanager.MMComponent;
+import ninja.mcknight.bukkit.mobmanager.P;
+import ninja.mcknight.bukkit.mobmanager.spawner.config.SpawnerConfig;
+import ninja.mcknight.bukkit.mobmanager.spawner.trace.SpawnTrace;
+import ninja.mcknight.bukkit.mobmanager.spawner.trace.SpawnTraceReplay;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+class MMCommandSpawnTrace extends MMCommand
+{
+	/** Folder in the plugin folder where traces are kept */
+	private static final String TRACE_FOLDER = "traces";
+	private static final String TRACE_EXTENSION = ".mmtrace";
+
+	MMCommandSpawnTrace()
+	{
+		super(Pattern.compile("spawntrace", Pattern.CASE_INSENSITIVE),
+				Pattern.compile("^(start|stop|replay [^ /\\\\]+( [^ ]+)?)$", Pattern.CASE_INSENSITIVE),
+				1, 3);
+	}
+
+	@Override
+	public void run(final CommandSender sender, String maincmd, String[] args)
+	{
+		if (sender instanceof Player && !sender.hasPermission("mobmanager.spawntrace"))
+		{
+			sender.sendMessage(ChatColor.DARK_RED + "You do not have permission to use /mm spawntrace");
+			return;
+		}
+		
+		if (!MMComponent.getSpawner().isEnabled())
+		{
+			sender.sendMessage(ChatColor.DARK_RED + "The spawner component must be enabled");
+			return;
+		}
+		
+		if (!super.validArgs(sender, maincmd, args))
+			return;
+		
+		File folder = new File(P.p().getDataFolder(), TRACE_FOLDER);
+		
+		if (args[1].equalsIgnoreCase("start"))
+		{
+			folder.mkdirs();
+			File file = new File(folder, "trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + TRACE_EXTENSION);
+			
+			try
+			{
+				MMComponent.getSpawner().startTrace(file);
+			}
+			catch (IOException e)
+			{
+				sender.sendMessage(ChatColor.RED + "Failed to create " + file.getName() + ": " + e.getMessage());
+				return;
+			}
+			
+			sender.sendMessage(ChatColor.GREEN + "Recording spawn trace to " + ChatColor.AQUA + file.getName());
+		}
+		else if (args[1].equalsIgnoreCase("stop"))
+		{
+			SpawnTrace trace = MMComponent.getSpawner().stopTrace();
+			
+			if (trace == null)
+				sender.sendMessage(ChatColor.YELLOW + "No spawn trace is being recorded");
+			else
+				sender.sendMessage(String.format("%sStopped spawn trace %s%s%s, Records:%s%d",
+						ChatColor.GREEN, ChatColor.AQUA, trace.getFile().getName(), ChatColor.GREEN, ChatColor.AQUA, trace.getRecords()));
+		}
+		else
+		{
+			String name = args[2].endsWith(TRACE_EXTENSION) ? args[2] : args[2] + TRACE_EXTENSION;
+			final File file = new File(folder, name);
+			
+			if (!file.isFile())
+			{
+				sender.sendMessage(ChatColor.RED + "No spawn trace named " + name);
+				return;
+			}
+			
+			final String world = args.length > 3 ? args[3] : null;
+			final SpawnerConfig cfg = MMComponent.getSpawner().getConfig();
+			
+			sender.sendMessage(ChatColor.GREEN + "Replaying " + name + "...");
+			
+			// Selection normally runs on worker threads, so the replay does too
+			Bukkit.getScheduler().runTaskAsynchronously(P.p(), new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					List<String> lines;
+					try
+					{
+						lines = new SpawnTraceReplay(world).replay(file, cfg);
+					}
+					catch (IOException e)
+					{
+						MMComponent.getSpawner().severe("Failed to replay spawn trace " + file.getName(), e);
+						lines = Collections.singletonList(ChatColor.RED + "Failed to replay " + file.getName() + ": " + e.getMessage());
+					}
+					
+					final List<String> result = lines;
+					Bukkit.getScheduler().runTask(P.p(), new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							for (String line : result)
+								sender.sendMessage(line);
+						}
+					});
+				}
+			});
+		}
+	}
+
+	@Override
+	public String getUsage()
+	{
+		return "%s/%s %s %s<start|stop|replay <File> [World]>";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Records spawner activity to a trace file, or replays a trace through the current spawner config";
+	}
+
+	@Override
+	public String getAliases()
+	{
+		return "spawntrace";
+	}
+}
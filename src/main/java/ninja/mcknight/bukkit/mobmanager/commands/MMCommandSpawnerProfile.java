@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import ninja.mcknight.bukkit.mobmanager.MMComponent;
+import ninja.mcknight.bukkit.mobmanager.P;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.RegionStats;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.SpawnStats;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.SpawnStats.Failure;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+class MMCommandSpawnerProfile extends MMCommand
+{
+	/** Folder in the plugin folder where reports are saved */
+	private static final String STATS_FOLDER = "stats";
+
+	MMCommandSpawnerProfile()
+	{
+		super(Pattern.compile("spawnerprofile", Pattern.CASE_INSENSITIVE),
+				Pattern.compile("^(save|reset)?$", Pattern.CASE_INSENSITIVE),
+				0, 1);
+	}
+
+	@Override
+	public void run(CommandSender sender, String maincmd, String[] args)
+	{
+		if (sender instanceof Player && !sender.hasPermission("mobmanager.spawnerprofile"))
+		{
+			sender.sendMessage(ChatColor.DARK_RED + "You do not have permission to use /mm spawnerprofile");
+			return;
+		}
+		
+		if (!MMComponent.getSpawner().isEnabled())
+		{
+			sender.sendMessage(ChatColor.DARK_RED + "The spawner component must be enabled");
+			return;
+		}
+		
+		if (!super.validArgs(sender, maincmd, args))
+			return;
+		
+		SpawnStats stats = MMComponent.getSpawner().getStats();
+		if (stats == null)
+		{
+			sender.sendMessage(ChatColor.YELLOW + "Spawner stats are disabled, set SpawnStatsSampleRate above 0 to enable them");
+			return;
+		}
+		
+		if (args.length > 1 && args[1].equalsIgnoreCase("reset"))
+		{
+			stats.reset();
+			sender.sendMessage(ChatColor.GREEN + "Spawner stats reset");
+			return;
+		}
+		
+		if (args.length > 1 && args[1].equalsIgnoreCase("save"))
+		{
+			File folder = new File(P.p().getDataFolder(), STATS_FOLDER);
+			folder.mkdirs();
+			File file = new File(folder, "spawner-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".txt");
+			
+			try
+			{
+				stats.writeReport(file);
+			}
+			catch (IOException e)
+			{
+				MMComponent.getSpawner().severe("Failed to save spawner stats to " + file.getName(), e);
+				sender.sendMessage(ChatColor.RED + "Failed to save " + file.getName() + ": " + e.getMessage());
+				return;
+			}
+			
+			sender.sendMessage(ChatColor.GREEN + "Saved spawner stats to " + ChatColor.AQUA + file.getName());
+			return;
+		}
+		
+		List<RegionStats> all = stats.getAll();
+		sender.sendMessage(String.format("%1$sSample rate:%2$s%3$s %1$sSeconds:%2$s%4$d %1$sRegions:%2$s%5$d",
+				ChatColor.DARK_GREEN, ChatColor.AQUA, stats.getSampleRate(),
+				(System.currentTimeMillis() - stats.getSince()) / 1000L, all.size()));
+		
+		for (RegionStats region : all)
+		{
+			Failure top = SpawnStats.getTopFailure(region);
+			
+			sender.sendMessage(String.format("%1$s%3$s/%4$s %1$sAttempts:%2$s%5$d %1$sSpawned:%2$s%6$d %1$sTop failure:%2$s%7$s",
+					ChatColor.DARK_GREEN, ChatColor.AQUA, region.getWorld(), region.getRegion(),
+					region.getAttempts(), region.getSpawned(),
+					top != null ? top.name() + "(" + region.getFailures(top) + ")" : "None"));
+			sender.sendMessage(String.format("  %1$sWait p50/p99:%2$s%3$d/%4$dus %1$sSync p50/p99:%2$s%5$d/%6$dus %1$sPlayer p99:%2$s%7$dus",
+					ChatColor.DARK_GREEN, ChatColor.AQUA,
+					region.queueWait.getPercentile(0.5) / 1000L, region.queueWait.getPercentile(0.99) / 1000L,
+					region.syncStage.getPercentile(0.5) / 1000L, region.syncStage.getPercentile(0.99) / 1000L,
+					region.playerLoop.getPercentile(0.99) / 1000L));
+		}
+	}
+
+	@Override
+	public String getUsage()
+	{
+		return "%s/%s %s %s[save|reset]";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Shows sampled spawner failures and stage latencies per world and region, or saves them to a file";
+	}
+
+	@Override
+	public String getAliases()
+	{
+		return "spawnerprofile";
+	}
+}
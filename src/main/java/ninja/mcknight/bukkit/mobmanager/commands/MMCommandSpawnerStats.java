@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.commands;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import ninja.mcknight.bukkit.mobmanager.MMComponent;
+import ninja.mcknight.bukkit.mobmanager.common.util.ThreadAllocation;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder.SpawnPartition;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder.SpawnScheduler;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+class MMCommandSpawnerStats extends MMCommand
+{
+	MMCommandSpawnerStats()
+	{
+		super(Pattern.compile("spawnerstats", Pattern.CASE_INSENSITIVE),
+				Pattern.compile("^.*$", Pattern.CASE_INSENSITIVE),
+				0, 0);
+	}
+
+	@Override
+	public void run(CommandSender sender, String maincmd, String[] args)
+	{
+		if (sender instanceof Player && !sender.hasPermission("mobmanager.spawnerstats"))
+		{
+			sender.sendMessage(ChatColor.DARK_RED + "You do not have permission to use /mm spawnerstats");
+			return;
+		}
+		
+		if (!MMComponent.getSpawner().isEnabled())
+		{
+			sender.sendMessage(ChatColor.DARK_RED + "The spawner component must be enabled");
+			return;
+		}
+		
+		if (!super.validArgs(sender, maincmd, args))
+			return;
+		
+		SpawnScheduler scheduler = MMComponent.getSpawner().getSpawnFinder().getScheduler();
+		
+		sender.sendMessage(String.format("%1$sAverage Tick:%2$s%3$.2fms %1$sBudget:%2$s%4$.2fms %1$sRuns over budget:%2$s%5$d/%6$d",
+				ChatColor.DARK_GREEN, ChatColor.AQUA,
+				scheduler.getAverageTick() / 1000000.0, scheduler.getBudget() / 1000000.0,
+				scheduler.getExhaustedRuns(), scheduler.getRuns()));
+		sender.sendMessage(String.format("%1$sPending:%2$s%3$d %1$sDeferred:%2$s%4$d %1$sDropped:%2$s%5$d",
+				ChatColor.DARK_GREEN, ChatColor.AQUA,
+				scheduler.getPending(), scheduler.getDeferred(), scheduler.getDropped()));
+		
+		List<SpawnPartition> partitions = MMComponent.getSpawner().getSpawnFinder().getPartitions();
+		
+		if (ThreadAllocation.isEnabled())
+		{
+			// Worker threads count per partition, the main thread is counted once
+			long started = 0L, allocated = scheduler.getAllocatedBytes();
+			for (SpawnPartition partition : partitions)
+			{
+				started += partition.getStarted();
+				allocated += partition.getAllocatedBytes();
+			}
+			
+			sender.sendMessage(String.format("%1$sAttempts:%2$s%3$d %1$sAllocated per attempt:%2$s%4$dB",
+					ChatColor.DARK_GREEN, ChatColor.AQUA,
+					started, started > 0L ? allocated / started : 0L));
+		}
+		
+		for (SpawnPartition partition : partitions)
+			sender.sendMessage(String.format("%1$sPartition:%2$s%3$s %1$sQueued:%2$s%4$d %1$sAttempts:%2$s%5$d %1$sAttempts/s:%2$s%6$.1f",
+					ChatColor.DARK_GREEN, ChatColor.AQUA,
+					partition.getName(), partition.getQueueDepth(), partition.getStarted(), partition.getRate()));
+	}
+
+	@Override
+	public String getUsage()
+	{
+		return "%s/%s %s%s";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Shows how much main thread time and memory the spawner uses and how many attempts were deferred or dropped";
+	}
+
+	@Override
+	public String getAliases()
+	{
+		return "spawnerstats";
+	}
+}
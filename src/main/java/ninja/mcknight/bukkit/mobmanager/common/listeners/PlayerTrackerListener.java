@@ -1,6 +1,7 @@
 package ninja.mcknight.bukkit.mobmanager.common.listeners;
 
 import ninja.mcknight.bukkit.mobmanager.P;
+import ninja.mcknight.bukkit.mobmanager.common.util.PlayerSlots;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -8,39 +9,44 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
 /**
- * Tracks player online status in a thread safe Map
+ * Tracks online players in thread safe slots
  */
 public class PlayerTrackerListener implements Listener {
-    private ConcurrentHashMap<String, Player> players;
-    private Map<String, Player> safeMap;
+    private final PlayerSlots slots;
 
     public PlayerTrackerListener() {
-        players = new ConcurrentHashMap<>();
-        safeMap = Collections.unmodifiableMap(players);
+        slots = new PlayerSlots();
 
         for (Player p : P.p().getServer().getOnlinePlayers()) {
-            players.put(p.getName().toLowerCase(), p);
+            slots.assign(p);
         }
     }
 
-    public Map<String, Player> getOnlinePlayerPlayers() {
-        return safeMap;
+    public PlayerSlots getPlayerSlots() {
+        return slots;
     }
 
-    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    // Assign slots before anything else sees the player
+    @EventHandler(priority = EventPriority.LOWEST)
     public void onPlayerJoin(PlayerJoinEvent e) {
-        Player player = e.getPlayer();
-        players.put(player.getName().toLowerCase(), player);
+        slots.assign(e.getPlayer());
     }
 
-    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    // Free slots on the next tick so other quit listeners can still use them
+    @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerLeave(PlayerQuitEvent e) {
-        Player player = e.getPlayer();
-        players.remove(player.getName().toLowerCase());
+        final int slot = slots.getSlot(e.getPlayer());
+        if (slot < 0) {
+            return;
+        }
+
+        final int generation = slots.getGeneration(slot);
+        P.p().getServer().getScheduler().runTask(P.p(), new Runnable() {
+            @Override
+            public void run() {
+                slots.free(slot, generation);
+            }
+        });
     }
 }
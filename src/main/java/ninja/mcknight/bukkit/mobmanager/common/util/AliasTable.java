@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.common.util;
+
+import java.util.Random;
+
+/**
+ * Picks random indexes using Walker's alias method</br>
+ * Each index is picked with a chance proportional to its weight in O(1)</br>
+ * </br>
+ * Immutable once created, so can be shared between threads
+ */
+public class AliasTable
+{
+	private final int[] alias;
+	private final double[] probability;
+	
+	/**
+	 * Builds the table using Vose's method
+	 * 
+	 * @param weights The weight of each index, must total above 0
+	 */
+	public AliasTable(int[] weights)
+	{
+		int n = weights.length;
+		
+		alias = new int[n];
+		probability = new double[n];
+		
+		long total = 0;
+		for (int weight : weights)
+			total += weight;
+		
+		if (n == 0)
+			return;
+		if (total <= 0)
+			throw new IllegalArgumentException("Total weight must be above 0");
+		
+		// Scale the weights so the average weight is 1.0
+		double[] scaled = new double[n];
+		int[] small = new int[n], large = new int[n];
+		int numSmall = 0, numLarge = 0;
+		
+		for (int i = 0; i < n; ++i)
+		{
+			scaled[i] = (double) weights[i] * n / total;
+			
+			if (scaled[i] < 1.0)
+				small[numSmall++] = i;
+			else
+				large[numLarge++] = i;
+		}
+		
+		// Fill each small slot with part of a large one
+		while (numSmall > 0 && numLarge > 0)
+		{
+			int s = small[--numSmall], l = large[--numLarge];
+			
+			probability[s] = scaled[s];
+			alias[s] = l;
+			
+			scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+			
+			if (scaled[l] < 1.0)
+				small[numSmall++] = l;
+			else
+				large[numLarge++] = l;
+		}
+		
+		// Whatever is left over is only off by rounding errors
+		while (numLarge > 0)
+			probability[large[--numLarge]] = 1.0;
+		while (numSmall > 0)
+			probability[small[--numSmall]] = 1.0;
+	}
+	
+	/**
+	 * Picks a random index
+	 * 
+	 * @return The index, or -1 if the table is empty
+	 */
+	public int pick(Random random)
+	{
+		if (alias.length == 0)
+			return -1;
+		
+		int i = random.nextInt(alias.length);
+		return random.nextDouble() < probability[i] ? i : alias[i];
+	}
+	
+	public int size()
+	{
+		return alias.length;
+	}
+}
@@ -410,7 +410,7 @@ public class ExtendedEntityType
                         if (p != Villager.Profession.NORMAL && p != Villager.Profession.HUSK)
                                 professions.add( p);
                 }
-                Random i = new Random();
+                Random i = RandomUtil.get(entity.getWorld());
                 if (eType == EntityType.VILLAGER)
                 {
                         Villager villager = (Villager) entity;
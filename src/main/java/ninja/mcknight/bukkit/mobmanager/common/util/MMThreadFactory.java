@@ -28,11 +28,13 @@
 
 package ninja.mcknight.bukkit.mobmanager.common.util;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.ThreadFactory;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
 
-public class MMThreadFactory implements ThreadFactory
+public class MMThreadFactory implements ThreadFactory, ForkJoinPool.ForkJoinWorkerThreadFactory
 {
 	private volatile int nextId = 1;
 	private final String groupName;
@@ -45,7 +47,15 @@ public class MMThreadFactory implements ThreadFactory
 	@Override
 	public Thread newThread(Runnable task)
 	{
-		Thread thread = new Thread(task);
+		Thread thread = new Scratch.WorkerThread(task);
+		thread.setName(groupName + nextId++);
+		return thread;
+	}
+	
+	@Override
+	public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+	{
+		ForkJoinWorkerThread thread = new Scratch.ForkJoinWorker(pool);
 		thread.setName(groupName + nextId++);
 		return thread;
 	}
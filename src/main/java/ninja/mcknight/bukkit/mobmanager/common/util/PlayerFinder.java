@@ -109,12 +109,17 @@ public class PlayerFinder
 	 */
 	public static <T extends Collection<Player>> T findNearbyPlayers(Location loc, FinderMode mode, int radiusSquared, int height, T players)
 	{
-		// Fetch a location object for ploc
-		Location pLoc = LocationCache.getCachedLocation();
+		// Fetch this threads location object for ploc
+		Location pLoc = Scratch.get().searchLoc;
 		
 		// Iterate through each player to check if there is a player nearby
-		for (Player player : P.p().getOnlinePlayers().values())
+		PlayerSlots slots = P.getPlayerSlots();
+		for (int slot = 0, n = slots.capacity(); slot < n; ++slot)
 		{
+			Player player = slots.getPlayer(slot);
+			if (player == null)
+				continue;
+			
 			// Skip the player if they are in creative mode (And we should be skipping them)
 			if (LimiterConfig.ignoreCreativePlayers && player.getGameMode() == GameMode.CREATIVE)
 				continue;
@@ -196,7 +201,7 @@ public class PlayerFinder
 	public static boolean playerNear(MMWorld world, LivingEntity entity, boolean flying)
 	{		
 		// Fetch the entities location and a location object for ploc
-		Location eLoc = entity.getLocation(LocationCache.getCachedLocation());
+		Location eLoc = entity.getLocation(Scratch.get().entityLoc);
 		
 		// Fetch the worlds search distance at the given entities height
 		int searchDist = world.getSearchDistanceSquared((short) eLoc.getBlockY());
@@ -220,11 +225,16 @@ public class PlayerFinder
 	public static boolean playerNear(Location location, int searchDist, int searchY)
 	{		
 		// Fetch the entities location and a location object for ploc
-		Location pLoc = LocationCache.getCachedLocation();
+		Location pLoc = Scratch.get().searchLoc;
 
 		// Iterate through each player to check if there is a player nearby
-		for (Player player : P.p().getOnlinePlayers().values())
+		PlayerSlots slots = P.getPlayerSlots();
+		for (int slot = 0, n = slots.capacity(); slot < n; ++slot)
 		{
+			Player player = slots.getPlayer(slot);
+			if (player == null)
+				continue;
+			
 			// Skip the player if they are in creative mode (And we should be skipping them)
 			if (LimiterConfig.ignoreCreativePlayers && player.getGameMode() == GameMode.CREATIVE)
 				continue;
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.common.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.bukkit.entity.Player;
+
+import ninja.mcknight.bukkit.mobmanager.P;
+
+/**
+ * Stores a value for each player, indexed by their {@link PlayerSlots} slot</br>
+ * Values are dropped automatically when the player quits</br>
+ * </br>
+ * Thread safe
+ */
+public class PlayerSlotArray<T>
+{
+	private static class Entry<T>
+	{
+		final int generation;
+		final T value;
+		
+		Entry(int generation, T value)
+		{
+			this.generation = generation;
+			this.value = value;
+		}
+	}
+	
+	private final PlayerSlots slots;
+	private volatile AtomicReferenceArray<Entry<T>> entries = new AtomicReferenceArray<Entry<T>>(16);
+	
+	public PlayerSlotArray()
+	{
+		this(P.getPlayerSlots());
+	}
+	
+	public PlayerSlotArray(PlayerSlots slots)
+	{
+		this.slots = slots;
+	}
+	
+	public T get(Player player)
+	{
+		return get(slots.getSlot(player));
+	}
+	
+	/**
+	 * Fetches the value stored for the slot
+	 * 
+	 * @return The value, or null if there is none for the current player in the slot
+	 */
+	public T get(int slot)
+	{
+		AtomicReferenceArray<Entry<T>> entries = this.entries;
+		if (slot < 0 || slot >= entries.length())
+			return null;
+		
+		Entry<T> entry = entries.get(slot);
+		return entry != null && entry.generation == slots.getGeneration(slot) ? entry.value : null;
+	}
+	
+	/**
+	 * Stores a value for the player
+	 * 
+	 * @return False if the player does not have a slot
+	 */
+	public synchronized boolean set(Player player, T value)
+	{
+		int slot = slots.getSlot(player);
+		if (slot < 0)
+			return false;
+		
+		ensureCapacity(slot).set(slot, value != null ? new Entry<T>(slots.getGeneration(slot), value) : null);
+		return true;
+	}
+	
+	/**
+	 * Removes and returns the value stored for the player
+	 */
+	public synchronized T remove(Player player)
+	{
+		int slot = slots.getSlot(player);
+		T value = get(slot);
+		
+		if (value != null)
+			entries.set(slot, null);
+		
+		return value;
+	}
+	
+	private AtomicReferenceArray<Entry<T>> ensureCapacity(int slot)
+	{
+		AtomicReferenceArray<Entry<T>> entries = this.entries;
+		if (slot < entries.length())
+			return entries;
+		
+		int capacity = entries.length();
+		while (capacity <= slot)
+			capacity <<= 1;
+		
+		AtomicReferenceArray<Entry<T>> grown = new AtomicReferenceArray<Entry<T>>(capacity);
+		for (int i = 0; i < entries.length(); ++i)
+			grown.set(i, entries.get(i));
+		
+		this.entries = grown;
+		return grown;
+	}
+}
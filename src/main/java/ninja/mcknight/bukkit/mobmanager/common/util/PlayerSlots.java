@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.common.util;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Gives each online player a small int slot which is freed when they quit</br>
+ * Per-player state can then be kept in arrays (See {@link PlayerSlotArray})</br>
+ * </br>
+ * Each time a slot is freed its generation is increased, so data left in</br>
+ * a {@link PlayerSlotArray} by the previous player is ignored</br>
+ * </br>
+ * Reads are thread safe, assigning and freeing slots is main thread only
+ */
+public class PlayerSlots
+{
+	private static class State
+	{
+		final Player[] players;
+		final UUID[] ids;
+		final AtomicIntegerArray generations;
+		
+		State(int capacity)
+		{
+			players = new Player[capacity];
+			ids = new UUID[capacity];
+			generations = new AtomicIntegerArray(capacity);
+		}
+	}
+	
+	private final ConcurrentHashMap<UUID, Integer> slots = new ConcurrentHashMap<UUID, Integer>();
+	private final ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+	private int nextSlot = 0;
+	
+	private volatile State state = new State(16);
+	
+	/**
+	 * Assigns a slot to the player if they don't have one already</br>
+	 * <b>Note: Main thread only</b>
+	 * 
+	 * @return The players slot
+	 */
+	public synchronized int assign(Player player)
+	{
+		Integer slot = slots.get(player.getUniqueId());
+		if (slot != null)
+		{
+			// The player rejoined before their slot was freed, keep it but use the new Player
+			state.players[slot] = player;
+			return slot;
+		}
+		
+		slot = freeSlots.poll();
+		if (slot == null)
+			slot = nextSlot++;
+		
+		State s = state;
+		if (slot >= s.players.length)
+			state = s = grow(s, s.players.length << 1);
+		
+		s.ids[slot] = player.getUniqueId();
+		s.players[slot] = player;
+		slots.put(player.getUniqueId(), slot);
+		
+		return slot;
+	}
+	
+	/**
+	 * Frees the slot if it still belongs to the same player</br>
+	 * Slots of players who rejoined since the free was scheduled are kept</br>
+	 * <b>Note: Main thread only</b>
+	 * 
+	 * @param slot The slot to free
+	 * @param generation The generation of the slot when the player quit
+	 */
+	public synchronized void free(int slot, int generation)
+	{
+		State s = state;
+		if (slot < 0 || slot >= s.players.length || s.generations.get(slot) != generation || s.ids[slot] == null)
+			return;
+		
+		if (s.players[slot] != null && s.players[slot].isOnline())
+			return;
+		
+		slots.remove(s.ids[slot]);
+		s.ids[slot] = null;
+		s.players[slot] = null;
+		s.generations.incrementAndGet(slot);
+		
+		freeSlots.add(slot);
+	}
+	
+	private State grow(State old, int capacity)
+	{
+		State s = new State(capacity);
+		
+		System.arraycopy(old.players, 0, s.players, 0, old.players.length);
+		System.arraycopy(old.ids, 0, s.ids, 0, old.ids.length);
+		for (int i = 0; i < old.players.length; ++i)
+			s.generations.set(i, old.generations.get(i));
+		
+		return s;
+	}
+	
+	/**
+	 * Fetches the players slot
+	 * 
+	 * @return The slot, or -1 if the player does not have one
+	 */
+	public int getSlot(Player player)
+	{
+		Integer slot = slots.get(player.getUniqueId());
+		return slot != null ? slot : -1;
+	}
+	
+	/**
+	 * Fetches the player in the slot
+	 * 
+	 * @return The player, or null if the slot is free
+	 */
+	public Player getPlayer(int slot)
+	{
+		State s = state;
+		return slot >= 0 && slot < s.players.length ? s.players[slot] : null;
+	}
+	
+	/**
+	 * Fetches the UUID of the player in the slot
+	 * 
+	 * @return The UUID, or null if the slot is free
+	 */
+	public UUID getUniqueId(int slot)
+	{
+		State s = state;
+		return slot >= 0 && slot < s.ids.length ? s.ids[slot] : null;
+	}
+	
+	/**
+	 * Fetches the number of times the slot has been freed
+	 */
+	public int getGeneration(int slot)
+	{
+		State s = state;
+		return slot >= 0 && slot < s.players.length ? s.generations.get(slot) : 0;
+	}
+	
+	/**
+	 * Fetches the number of slots, some of which may be free</br>
+	 * Iterate from 0 to this value with {@link #getPlayer(int)} to visit every online player
+	 */
+	public int capacity()
+	{
+		return state.players.length;
+	}
+}
@@ -28,10 +28,9 @@
 
 package ninja.mcknight.bukkit.mobmanager.common.util;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
-import org.bukkit.Bukkit;
 import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -40,22 +39,34 @@ import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 
 import ninja.mcknight.bukkit.mobmanager.P;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.FailedColumnCache;
 
 public class RandomLocationGen
 {
-	private static List<Integer> cacheList;
-	
 	/**
 	 * Stop instances of the class from being created
 	 */
 	private RandomLocationGen() {}
+	
+	/**
+	 * The outcome of {@link RandomLocationGen#findLocation}
+	 */
+	public enum LocationResult
+	{
+		/** A safe location was found */
+		FOUND,
+		/** At least one column was searched for a safe Y, none had one */
+		NO_SAFE_Y,
+		/** Every column was skipped before its blocks were searched */
+		NOT_SEARCHED;
+	}
 
 	/**
 	 * Generates a random location around the center location
 	 */
 	public static Location getLocation(boolean circle, Location center, int range, int minRange, int heightRange)
 	{
-		return getLocation(circle, center, range, minRange, heightRange, LocationCache.getCachedLocation());
+		return getLocation(circle, center, range, minRange, heightRange, new Location(center.getWorld(), 0.0, 0.0, 0.0));
 	}
 	
 	/**
@@ -78,12 +89,25 @@ public class RandomLocationGen
 	 * Generates a random location around the center location
 	 */
 	public static Location getLocation(boolean circle, boolean checkPlayers, int spawnAttempts, Location center, int range, int minRange, int heightRange, Location cacheLoc)
+	{
+		return findLocation(circle, checkPlayers, spawnAttempts, center, range, minRange, heightRange, cacheLoc, null) == LocationResult.FOUND ? cacheLoc : center;
+	}
+	
+	/**
+	 * Generates a random location around the center location into cacheLoc</br>
+	 * Columns in the failed column cache are skipped, columns without a safe Y are added to it
+	 * 
+	 * @param failedColumns The failed column cache (Can be null)
+	 * 
+	 * @return FOUND if cacheLoc was set to a safe location, otherwise why none was found
+	 */
+	public static LocationResult findLocation(boolean circle, boolean checkPlayers, int spawnAttempts, Location center, int range, int minRange, int heightRange, Location cacheLoc, FailedColumnCache failedColumns)
 	{
 		// Make sure the centers world is valid
 		if (center.getWorld() == null)
 		{
 			P.p().getLogger().warning("Null world passed to location generator");
-			return center;
+			return LocationResult.NOT_SEARCHED;
 		}
 		
 		// Make sure range is larger than minRange
@@ -104,9 +128,11 @@ public class RandomLocationGen
 
 		// Calculate the total (up/down) range of heightRange
 		int heightRange2 = heightRange << 1;
+		Random random = RandomUtil.get(center.getWorld());
 		
 		// Copy the world
 		cacheLoc.setWorld(center.getWorld());
+		boolean searched = false;
 		
 		// Make X attempts to find a safe spawning location
 		for (int i = 0; i < spawnAttempts; ++i)
@@ -114,28 +140,44 @@ public class RandomLocationGen
 			// Generate the appropriate type of location
 			if (circle)
 			{
-				getCircularLocation(center, range, minRange, cacheLoc);
+				getCircularLocation(center.getBlockX(), center.getBlockZ(), range, minRange, cacheLoc, random);
 			}
 			else
 			{
-				getSquareLocation(center, range, minRange, cacheLoc);
+				getSquareLocation(center.getBlockX(), center.getBlockZ(), range, minRange, cacheLoc, random);
 			}
 			
+			// Skip columns which recently failed, this still uses up the attempt
+			if (failedColumns != null && failedColumns.isFailed(center.getWorld(), cacheLoc.getBlockX(), cacheLoc.getBlockZ(), center.getBlockY(), heightRange))
+				continue;
+			
 			// Generate coordinates for Y
-			cacheLoc.setY(RandomUtil.i.nextInt(heightRange2) - heightRange + center.getBlockY() + 0.5);
+			cacheLoc.setY(random.nextInt(heightRange2) - heightRange + center.getBlockY() + 0.5);
+			
+			if (checkPlayers && PlayerFinder.playerNear(cacheLoc, minRange, heightRange))
+				continue;
+			
+			// Unloaded chunks fail without being checked, so they are not searched or remembered
+			if (!center.getWorld().isChunkLoaded(cacheLoc.getBlockX() >> 4, cacheLoc.getBlockZ() >> 4))
+				continue;
+			
+			searched = true;
 				
 			// If the location is safe we can return the location
-			if ((!checkPlayers || !PlayerFinder.playerNear(cacheLoc, minRange, heightRange)) && findSafeY(cacheLoc, center.getBlockY(), heightRange, true))
+			if (findSafeY(cacheLoc, center.getBlockY(), heightRange, true))
 			{
 				// Generate a random Yaw/Pitch
-				cacheLoc.setYaw(RandomUtil.i.nextFloat() * 360.0F);
+				cacheLoc.setYaw(random.nextFloat() * 360.0F);
 				cacheLoc.setPitch(0.0F);
-				return cacheLoc;
+				return LocationResult.FOUND;
 			}
+			
+			if (failedColumns != null)
+				failedColumns.addFailure(center.getWorld(), cacheLoc.getBlockX(), cacheLoc.getBlockZ(), center.getBlockY(), heightRange);
 		}
 		
-		// If no safe location was found in a reasonable time frame just return the center
-		return center;
+		// No safe location was found in a reasonable time frame
+		return searched ? LocationResult.NO_SAFE_Y : LocationResult.NOT_SEARCHED;
 	}
 	
 	/**
@@ -144,10 +186,7 @@ public class RandomLocationGen
 	 */
 	public static boolean findSafeY(Location location, int centerY, int heightRange, boolean requireOpaqueBlock)
 	{
-		List<Integer> list = Bukkit.isPrimaryThread() ? cacheList : new ArrayList<Integer>();
-		if (list == null)
-			cacheList = list = new ArrayList<Integer>();
-		return findSafeY(location, centerY, heightRange, requireOpaqueBlock, list);
+		return findSafeY(location, centerY, heightRange, requireOpaqueBlock, Scratch.get().ints);
 	}
 	
 	/**
@@ -207,7 +246,7 @@ public class RandomLocationGen
 			return false;
 		
 		// Fetch a random location
-		location.setY(cacheList.get(RandomUtil.i.nextInt(cacheList.size())));		
+		location.setY(cacheList.get(RandomUtil.get(location.getWorld()).nextInt(cacheList.size())));		
 		cacheList.clear();
 		
 		return true;	
@@ -227,17 +266,13 @@ public class RandomLocationGen
 		int startY = centerY + heightRange;
 		int endY = centerY - heightRange;
 		
-		// Validate max and min Y locations
-		if (startY > 256)
-			startY = 256;
+		// Validate max and min Y locations (Snapshots only go up to 255)
+		if (startY > 255)
+			startY = 255;
 		if (endY < 0)
 			endY = 0;
 		
-		int x = location.getBlockX() % 16, z = location.getBlockZ() % 16;
-		if (x < 0)
-			x += 16;
-		if (z < 0)
-			z += 16;
+		int x = location.getBlockX() & 15, z = location.getBlockZ() & 15;
 		
 		// Find sets of Y's which are safe
 		for (; startY > endY; --startY)
@@ -259,7 +294,7 @@ public class RandomLocationGen
 			return false;
 		
 		// Fetch a random location
-		location.setY(cacheList.get(RandomUtil.i.nextInt(cacheList.size())));		
+		location.setY(cacheList.get(RandomUtil.get(location.getWorld()).nextInt(cacheList.size())));		
 		cacheList.clear();
 		
 		return true;	
@@ -287,18 +322,23 @@ public class RandomLocationGen
 	 */
 	public static Location getCircularLocation(Location center, int range, int minRange, Location cacheLoc)
 	{
-		return getCircularLocation(center.getBlockX(), center.getBlockZ(), range, minRange, cacheLoc);
+		return getCircularLocation(center.getBlockX(), center.getBlockZ(), range, minRange, cacheLoc, RandomUtil.get(center.getWorld()));
 	}
 	
 	public static Location getCircularLocation(int centerX, int centerZ, double range, double minRange, Location cacheLoc)
+	{
+		return getCircularLocation(centerX, centerZ, range, minRange, cacheLoc, RandomUtil.get());
+	}
+	
+	public static Location getCircularLocation(int centerX, int centerZ, double range, double minRange, Location cacheLoc, Random random)
 	{
 		// Calculate the difference between the max and min range
 		double rangeDiff = range - minRange;
 		// Calculate a random direction for the X/Z values
-		double theta = 2 * Math.PI * RandomUtil.i.nextDouble();
+		double theta = 2 * Math.PI * random.nextDouble();
 		
 		// Generate a random radius
-		double radius = RandomUtil.i.nextDouble() * rangeDiff + minRange;
+		double radius = random.nextDouble() * rangeDiff + minRange;
 		
 		// Set the X/Z coordinates
 		double trig = Math.cos(theta);
@@ -314,15 +354,20 @@ public class RandomLocationGen
 	 */
 	public static Location getSquareLocation(Location center, int range, int minRange, Location cacheLoc)
 	{
-		return getSquareLocation(center.getBlockX(), center.getBlockZ(), range, minRange, cacheLoc);
+		return getSquareLocation(center.getBlockX(), center.getBlockZ(), range, minRange, cacheLoc, RandomUtil.get(center.getWorld()));
 	}
 	
 	public static Location getSquareLocation(int centerX, int centerZ, int range, int minRange, Location cacheLoc)
+	{
+		return getSquareLocation(centerX, centerZ, range, minRange, cacheLoc, RandomUtil.get());
+	}
+	
+	public static Location getSquareLocation(int centerX, int centerZ, int range, int minRange, Location cacheLoc, Random random)
 	{
 		// Calculate the sum of all the block deviations from the center between minRange and range
 		int totalBlockCount = (range * (++range) - minRange * (minRange + 1)) >> 1;
 		// Fetch a random number of blocks
-		int blockCount = totalBlockCount - RandomUtil.i.nextInt(totalBlockCount);
+		int blockCount = totalBlockCount - random.nextInt(totalBlockCount);
 		
 		// While the block deviation from the center for the given range is
 		// less than the number of blocks left we remove a layer of blocks
@@ -330,10 +375,10 @@ public class RandomLocationGen
 			blockCount -= --range;
 		
 		// Pick a random location on the range line
-		int lineLoc = RandomUtil.i.nextInt(range << 1);
+		int lineLoc = random.nextInt(range << 1);
 		// Choose a line (North/East/West/South lines)
 		// Then set the X/Z coordinates
-		switch (RandomUtil.i.nextInt(4))
+		switch (random.nextInt(4))
 		{
 		// East Line going North
 		case 0:
@@ -26,21 +26,159 @@
  * either expressed or implied, of anybody else.
  */
 
-
 package ninja.mcknight.bukkit.mobmanager.common.util;
 
+import java.util.HashMap;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.bukkit.World;
 
+/**
+ * Random number streams owned by each thread</br>
+ * </br>
+ * By default every thread uses its {@link ThreadLocalRandom}, so threads never contend on a shared seed.</br>
+ * Once a seed is set each thread instead uses its own {@link Random} seeded from the seed,</br>
+ * the threads name and optionally a world name. With a single spawner worker thread this</br>
+ * reproduces the same spawn sequence each time the same seed is set.
+ */
 public class RandomUtil
 {
-	public static final Random i = new Random();
+	private static volatile boolean seeded = false;
+	private static volatile long seed;
+	/** Changed each time the seed is set so threads rebuild their streams */
+	private static volatile int epoch;
+	
+	private static final ThreadLocal<Streams> streams = new ThreadLocal<Streams>()
+	{
+		@Override
+		protected Streams initialValue()
+		{
+			return new Streams();
+		}
+	};
 	
 	private RandomUtil() {}
 	
+	/**
+	 * Fetches the random stream for the current thread
+	 */
+	public static Random get()
+	{
+		if (!seeded)
+			return ThreadLocalRandom.current();
+		return streams.get().get(null);
+	}
+	
+	/**
+	 * Fetches the random stream for the current thread and the given world</br>
+	 * When seeded each world has its own stream, so spawns in one world do not</br>
+	 * change the sequence in another
+	 */
+	public static Random get(World world)
+	{
+		if (!seeded)
+			return ThreadLocalRandom.current();
+		return streams.get().get(world != null ? world.getName() : null);
+	}
+	
+	/**
+	 * Makes every thread use deterministic streams seeded with the given seed
+	 */
+	public static synchronized void setSeed(long seed)
+	{
+		RandomUtil.seed = seed;
+		++epoch;
+		seeded = true;
+	}
+	
+	/**
+	 * Returns every thread to its {@link ThreadLocalRandom}
+	 */
+	public static synchronized void clearSeed()
+	{
+		seeded = false;
+		++epoch;
+	}
+	
+	public static boolean isSeeded()
+	{
+		return seeded;
+	}
+	
 	public static <T> T getRandomElement(T[] arr)
 	{
 		if (arr.length == 0)
 			return null;
-		return arr[i.nextInt(arr.length)];
+		return arr[get().nextInt(arr.length)];
+	}
+	
+	/**
+	 * Returns the same value as {@code new Random(seed).nextInt(bound)} without creating a Random
+	 */
+	public static int nextInt(long seed, int bound)
+	{
+		long s = (seed ^ 0x5DEECE66DL) & ((1L << 48) - 1);
+		
+		int r, u;
+		do
+		{
+			s = (s * 0x5DEECE66DL + 0xBL) & ((1L << 48) - 1);
+			u = (int) (s >>> 17);
+			if ((bound & -bound) == bound)
+				return (int) ((bound * (long) u) >> 31);
+			r = u % bound;
+		}
+		while (u - r + (bound - 1) < 0);
+		
+		return r;
+	}
+	
+	/**
+	 * SplitMix64 finaliser, spreads similar seeds over the whole long range
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	/**
+	 * The seeded streams of a single thread
+	 */
+	private static class Streams
+	{
+		private int epoch = -1;
+		private Random base;
+		private final HashMap<String, Random> worlds = new HashMap<String, Random>();
+		
+		public Random get(String world)
+		{
+			if (epoch != RandomUtil.epoch)
+			{
+				epoch = RandomUtil.epoch;
+				base = null;
+				worlds.clear();
+			}
+			
+			// Worker threads are named by MMThreadFactory, so names are stable between runs
+			long threadSeed = mix(seed ^ mix(Thread.currentThread().getName().hashCode()));
+			
+			if (world == null)
+			{
+				if (base == null)
+					base = new Random(threadSeed);
+				return base;
+			}
+			
+			Random random = worlds.get(world);
+			if (random == null)
+			{
+				random = new Random(mix(threadSeed ^ mix(world.hashCode())));
+				worlds.put(world, random);
+			}
+			return random;
+		}
 	}
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+
+/**
+ * Reusable objects owned by a single thread</br>
+ * The main thread and every {@link WorkerThread} or {@link ForkJoinWorker} own exactly one instance each, so</br>
+ * no locking or reference tracking is needed. Any other thread gets a fresh instance.</br>
+ * </br>
+ * Each field is a leaf slot, code which holds a slot must not call anything that</br>
+ * writes to the same slot before it is done with it.
+ */
+public final class Scratch
+{
+	private static final Scratch mainThread = new Scratch();
+	
+	/** Used for the location of the entity being checked */
+	public final Location entityLoc = new Location(null, 0.0, 0.0, 0.0);
+	/** Used for the location of the player being checked */
+	public final Location playerLoc = new Location(null, 0.0, 0.0, 0.0);
+	/** Used by {@link PlayerFinder} while iterating players */
+	public final Location searchLoc = new Location(null, 0.0, 0.0, 0.0);
+	/** Used by the outermost loop of a task, which calls code using the other slots */
+	public final Location taskLoc = new Location(null, 0.0, 0.0, 0.0);
+	/** Used for generated locations */
+	public final Location generateLoc = new Location(null, 0.0, 0.0, 0.0);
+	/** Used while looking for places for the rest of a pack */
+	public final Location packLoc = new Location(null, 0.0, 0.0, 0.0);
+	/** Used by {@link RandomLocationGen#findSafeY(Location, int, int, boolean)} */
+	public final List<Integer> ints = new ArrayList<Integer>();
+	
+	private final ArrayList<Object> list = new ArrayList<Object>();
+	
+	/**
+	 * Fetches the scratch objects for the current thread
+	 */
+	public static Scratch get()
+	{
+		Thread thread = Thread.currentThread();
+		if (thread instanceof WorkerThread)
+			return ((WorkerThread) thread).scratch;
+		if (thread instanceof ForkJoinWorker)
+			return ((ForkJoinWorker) thread).scratch;
+		
+		return Bukkit.isPrimaryThread() ? mainThread : new Scratch();
+	}
+	
+	/**
+	 * Fetches the shared list, cleared and cast to the required type
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> ArrayList<T> getList()
+	{
+		list.clear();
+		return (ArrayList<T>) list;
+	}
+	
+	/**
+	 * A thread which owns its own scratch objects</br>
+	 * Created by {@link MMThreadFactory}
+	 */
+	public static class WorkerThread extends Thread
+	{
+		private final Scratch scratch = new Scratch();
+		
+		public WorkerThread(Runnable task)
+		{
+			super(task);
+		}
+	}
+	
+	/**
+	 * A ForkJoinPool thread which owns its own scratch objects</br>
+	 * Created by {@link MMThreadFactory}
+	 */
+	public static class ForkJoinWorker extends ForkJoinWorkerThread
+	{
+		private final Scratch scratch = new Scratch();
+		
+		public ForkJoinWorker(ForkJoinPool pool)
+		{
+			super(pool);
+		}
+	}
+}
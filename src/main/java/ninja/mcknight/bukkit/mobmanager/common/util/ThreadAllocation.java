@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.common.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the bytes allocated by the current thread</br>
+ * Only supported on JVMs which expose com.sun.management.ThreadMXBean (HotSpot/OpenJ9)</br>
+ * </br>
+ * The bean is shared by the whole server, so measuring is only switched on between</br>
+ * {@link #enable()} and {@link #disable()}, which puts back the setting it found
+ */
+public final class ThreadAllocation
+{
+	private static final com.sun.management.ThreadMXBean bean;
+	
+	private static volatile boolean enabled = false;
+	/** If measuring was already on before {@link #enable()} */
+	private static boolean wasEnabled;
+	
+	static
+	{
+		com.sun.management.ThreadMXBean found = null;
+		try
+		{
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (threads instanceof com.sun.management.ThreadMXBean)
+			{
+				found = (com.sun.management.ThreadMXBean) threads;
+				if (!found.isThreadAllocatedMemorySupported())
+					found = null;
+			}
+		}
+		catch (Throwable e)
+		{
+			found = null;
+		}
+		bean = found;
+	}
+	
+	private ThreadAllocation()
+	{
+	}
+	
+	public static boolean isSupported()
+	{
+		return bean != null;
+	}
+	
+	/**
+	 * @return True if allocations are being measured
+	 */
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+	
+	/**
+	 * Starts measuring allocations, does nothing if unsupported or already measuring
+	 */
+	public static synchronized void enable()
+	{
+		if (bean == null || enabled)
+			return;
+		
+		try
+		{
+			wasEnabled = bean.isThreadAllocatedMemoryEnabled();
+			if (!wasEnabled)
+				bean.setThreadAllocatedMemoryEnabled(true);
+			enabled = true;
+		}
+		catch (Throwable e)
+		{
+			enabled = false;
+		}
+	}
+	
+	/**
+	 * Stops measuring allocations, restoring the setting from before {@link #enable()}
+	 */
+	public static synchronized void disable()
+	{
+		if (!enabled)
+			return;
+		
+		enabled = false;
+		try
+		{
+			if (!wasEnabled)
+				bean.setThreadAllocatedMemoryEnabled(false);
+		}
+		catch (Throwable e)
+		{
+		}
+	}
+	
+	/**
+	 * Fetches the total number of bytes the current thread has allocated
+	 * 
+	 * @return The number of bytes, or -1 if not supported or not enabled
+	 */
+	public static long getAllocatedBytes()
+	{
+		return enabled ? bean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1L;
+	}
+}
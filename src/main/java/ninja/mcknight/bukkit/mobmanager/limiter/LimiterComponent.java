@@ -147,6 +147,15 @@ public class LimiterComponent extends MMComponent
 		if (despawner != null)
 			despawner.cancel();
 		
+		// Turn collisions and AI back on for mobs we changed
+		for (MMWorld world : getWorlds())
+		{
+			if (world.getCrowdRelief() != null)
+				world.getCrowdRelief().restoreAll();
+			if (world.getStuckMobs() != null)
+				world.getStuckMobs().restoreAll();
+		}
+		
 		if (animalProtection != null)
 		{
 			animalProtection.cancel();
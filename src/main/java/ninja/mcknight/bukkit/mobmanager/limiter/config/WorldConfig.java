@@ -30,13 +30,17 @@ package ninja.mcknight.bukkit.mobmanager.limiter.config;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import ninja.mcknight.bukkit.mobmanager.limiter.util.MobType;
+import ninja.mcknight.bukkit.mobmanager.limiter.util.StuckMobs.StuckAction;
 import org.bukkit.World;
 import org.bukkit.World.Environment;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 
+import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
 import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
 
@@ -54,6 +58,12 @@ public class WorldConfig extends AbstractConfig
 	
 	public final short breedingLimit;
 	public final short numAnimalsForFarm;
+	public final short farmClusterChunkMinimum, farmClusterMaximum;
+	
+	public final short crowdReliefThreshold, crowdReliefRestoreThreshold;
+	
+	public final short stuckMobDistance, stuckMobScans, stuckMobDensity;
+	public final StuckAction stuckMobAction;
 	
 	public final short despawnSearchDistance, despawnSearchDistanceSquared;
 	public final short undergroundSearchDistance, undergroundSearchDistanceSquared;
@@ -61,6 +71,25 @@ public class WorldConfig extends AbstractConfig
 	
 	public final int groundHeight;
 	
+	/**
+	 * Maximums for each MobType around each player (-1 for no limit)
+	 */
+	public final short[] playerLocalMaximums;
+	public final short playerLocalRadius;
+	
+	/**
+	 * Maximums for each MobType in each layer [layer][MobType] (-1 for no limit)
+	 */
+	public final short[][] layerMaximums;
+	/**
+	 * The 'minY/maxY' names of each layer
+	 */
+	public final String[] layerNames;
+	/**
+	 * The layer each Y coordinate belongs to (-1 for none)
+	 */
+	public final byte[] layerLookup;
+	
 	public WorldConfig(World world)
 	{
 		this(world, getConfig(WORLDS_FOLDER + File.separator + world.getName(), LIMITER_CONFIG_NAME));
@@ -101,6 +130,52 @@ public class WorldConfig extends AbstractConfig
 		numAnimalsForFarm = (short) cfg.getInt("NumAnimalsForFarm", 3);
 		set(cfg, "NumAnimalsForFarm", numAnimalsForFarm);
 		
+		/* ################ FarmClusterChunkMinimum ################ */
+		farmClusterChunkMinimum = (short) cfg.getInt("FarmClusterChunkMinimum", 2);
+		set(cfg, "FarmClusterChunkMinimum", farmClusterChunkMinimum);
+		
+		/* ################ FarmClusterMaximum ################ */
+		farmClusterMaximum = (short) cfg.getInt("FarmClusterMaximum", -1);
+		set(cfg, "FarmClusterMaximum", farmClusterMaximum);
+		
+		/* ################ CrowdReliefThreshold ################ */
+		crowdReliefThreshold = (short) cfg.getInt("CrowdReliefThreshold", -1);
+		set(cfg, "CrowdReliefThreshold", crowdReliefThreshold);
+		
+		/* ################ CrowdReliefRestoreThreshold ################ */
+		short crowdReliefRestoreThreshold = (short) cfg.getInt("CrowdReliefRestoreThreshold", -1);
+		set(cfg, "CrowdReliefRestoreThreshold", crowdReliefRestoreThreshold);
+		// Restore collisions at 3/4 of the threshold unless a valid value is given
+		if (crowdReliefRestoreThreshold < 0 || crowdReliefRestoreThreshold > crowdReliefThreshold)
+			crowdReliefRestoreThreshold = (short) (crowdReliefThreshold * 3 / 4);
+		this.crowdReliefRestoreThreshold = crowdReliefRestoreThreshold;
+		
+		/* ################ StuckMobDistance ################ */
+		stuckMobDistance = (short) cfg.getInt("StuckMobDistance", -1);
+		set(cfg, "StuckMobDistance", stuckMobDistance);
+		
+		/* ################ StuckMobScans ################ */
+		stuckMobScans = (short) Math.max(1, cfg.getInt("StuckMobScans", 6));
+		set(cfg, "StuckMobScans", stuckMobScans);
+		
+		/* ################ StuckMobDensity ################ */
+		stuckMobDensity = (short) Math.max(0, cfg.getInt("StuckMobDensity", 8));
+		set(cfg, "StuckMobDensity", stuckMobDensity);
+		
+		/* ################ StuckMobAction ################ */
+		String stuckMobAction = cfg.getString("StuckMobAction", StuckAction.REPORT.toString());
+		StuckAction action = StuckAction.REPORT;
+		try
+		{
+			action = StuckAction.valueOf(stuckMobAction.toUpperCase());
+		}
+		catch (IllegalArgumentException e)
+		{
+			MMComponent.getLimiter().warning(String.format("Invalid StuckMobAction '%s' for %s, defaulting to REPORT", stuckMobAction, worldName));
+		}
+		this.stuckMobAction = action;
+		set(cfg, "StuckMobAction", action.toString());
+		
 		/* ################ DespawnSearchDistance ################ */
 		short despawnSearchDistance = (short) cfg.getInt("DespawnSearchDistance", -1);
 		this.despawnSearchDistance = despawnSearchDistance <= 0 ? -1 : despawnSearchDistance;
@@ -123,6 +198,71 @@ public class WorldConfig extends AbstractConfig
 		groundHeight = cfg.getInt("GroundHeight", defaultHeight);
 		set(cfg, "GroundHeight", groundHeight);
 		
+		/* ################ LayerLimits ################ */
+		List<short[]> layerMaximums = new ArrayList<short[]>();
+		List<String> layerNames = new ArrayList<String>();
+		layerLookup = new byte[256];
+		Arrays.fill(layerLookup, (byte) -1);
+		
+		ConfigurationSection layers = cfg.getConfigurationSection("LayerLimits");
+		if (layers != null)
+		{
+			for (String layer : layers.getKeys(false))
+			{
+				if (!LimiterConfig.layerPattern.matcher(layer).matches())
+				{
+					MMComponent.getLimiter().warning(String.format("Invalid layer '%s' in LayerLimits for %s, expected 'minY/maxY'", layer, worldName));
+					continue;
+				}
+				
+				if (layerMaximums.size() == Byte.MAX_VALUE)
+				{
+					MMComponent.getLimiter().warning(String.format("Too many layers in LayerLimits for %s", worldName));
+					break;
+				}
+				
+				String[] range = LimiterConfig.layerSplitPattern.split(layer);
+				int minY = Math.min(Integer.parseInt(range[0]), layerLookup.length - 1);
+				int maxY = Math.min(Integer.parseInt(range[1]), layerLookup.length - 1);
+				
+				short[] layerMaximum = new short[mobs.length];
+				for (MobType mob : mobs)
+				{
+					String path = "LayerLimits." + layer + "." + mob.cPath;
+					layerMaximum[mob.ordinal()] = (short) Math.max(-1, cfg.getInt(path, -1));
+					set(cfg, path, layerMaximum[mob.ordinal()]);
+				}
+				
+				// Heights which are already in a layer stay in the first layer
+				byte index = (byte) layerMaximums.size();
+				for (int y = Math.min(minY, maxY); y <= Math.max(minY, maxY); ++y)
+				{
+					if (layerLookup[y] == -1)
+						layerLookup[y] = index;
+				}
+				
+				layerMaximums.add(layerMaximum);
+				layerNames.add(layer);
+			}
+			
+			set(cfg, "LayerLimits", layers);
+		}
+		this.layerMaximums = layerMaximums.toArray(new short[layerMaximums.size()][]);
+		this.layerNames = layerNames.toArray(new String[layerNames.size()]);
+		
+		/* ################ PlayerLocalMaximum ################ */
+		playerLocalMaximums = new short[mobs.length];
+		for (MobType mob : mobs)
+		{
+			playerLocalMaximums[mob.ordinal()] = (short) Math.max(-1, cfg.getInt("PlayerLocalMaximum." + mob.cPath, -1));
+			set(cfg, "PlayerLocalMaximum." + mob.cPath, playerLocalMaximums[mob.ordinal()]);
+		}
+		set(cfg, "PlayerLocalMaximum", cfg.getConfigurationSection("PlayerLocalMaximum"));
+		
+		/* ################ PlayerLocalRadius ################ */
+		playerLocalRadius = (short) Math.max(0, cfg.getInt("PlayerLocalRadius", 8));
+		set(cfg, "PlayerLocalRadius", playerLocalRadius);
+		
 		/* ################ MobsLimits ################ */
 		int size = ExtendedEntityType.values().length;
 		mobMaximums = new short[size];
@@ -191,6 +331,19 @@ public class WorldConfig extends AbstractConfig
 		return dynCount < max ? dynCount : max;
 	}
 	
+	/**
+	 * Checks if any MobType has a PlayerLocalMaximum
+	 */
+	public boolean hasPlayerLocalMaximums()
+	{
+		for (short max : playerLocalMaximums)
+		{
+			if (max != -1)
+				return true;
+		}
+		return false;
+	}
+	
 	public List<ExtendedEntityType> getIndividualMobs()
 	{
 		List<ExtendedEntityType> types = new ArrayList<ExtendedEntityType>();
@@ -60,5 +60,11 @@ public class ChunkListener implements Listener
 			return;
 		
 		world.decrementChunkCount();
+		
+		if (world.getCrowdRelief() != null)
+			world.getCrowdRelief().chunkUnloaded(event.getChunk());
+		
+		if (world.getStuckMobs() != null)
+			world.getStuckMobs().chunkUnloaded(event.getChunk());
 	}
 }
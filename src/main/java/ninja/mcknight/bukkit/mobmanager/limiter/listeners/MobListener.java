@@ -28,7 +28,6 @@
 
 package ninja.mcknight.bukkit.mobmanager.limiter.listeners;
 
-import org.bukkit.entity.Entity;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
@@ -39,7 +38,6 @@ import org.bukkit.event.entity.EntityDeathEvent;
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.P;
 import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
 import ninja.mcknight.bukkit.mobmanager.common.util.PlayerFinder;
 import ninja.mcknight.bukkit.mobmanager.limiter.config.LimiterConfig;
 import ninja.mcknight.bukkit.mobmanager.limiter.util.MobType;
@@ -90,7 +88,7 @@ public class MobListener implements Listener
 			return;
 		}
 
-		final MMWorld world = MMComponent.getLimiter().getWorld(event.getLocation().getWorld());
+		final MMWorld world = MMComponent.getLimiter().getWorld(event.getEntity().getWorld());
 		// If the world is not found we ignore the spawn
 		if (world == null)
 		{
@@ -103,24 +101,10 @@ public class MobListener implements Listener
 		{
 			if (event.getSpawnReason() == SpawnReason.BREEDING || event.getSpawnReason() == SpawnReason.EGG)
 			{
-				// If breeding limit is invalid (-ve) it is disabled
-				if (world.worldConf.breedingLimit >= 0)
+				// Cancels the event if the chunk or farm is not within breeding limits
+				if (!world.withinBreedingLimits(event.getEntity()))
 				{
-					int animalCount = 0;
-					// If the limit is 0 there is no point counting the mobs
-					if (world.worldConf.breedingLimit != 0)
-					{
-						for (Entity entity : LocationCache.getCachedLocation(event.getEntity()).getChunk().getEntities())
-						{
-							if (MobType.ANIMAL.belongs(entity))
-								++animalCount;
-						}
-					}
-					// Cancels the event if the chunk is not within breeding limits
-					if (animalCount >= world.worldConf.breedingLimit)
-					{
-						event.setCancelled(true);
-					}
+					event.setCancelled(true);
 				}
 				
 				// There is probably going to be a player there? So don't bother checking for one?
@@ -151,13 +135,16 @@ public class MobListener implements Listener
 	public void countCreatureSpawns(CreatureSpawnEvent event)
 	{
 		// Fetch the world the creature spawned in
-		MMWorld world = MMComponent.getLimiter().getWorld(event.getLocation().getWorld());
+		MMWorld world = MMComponent.getLimiter().getWorld(event.getEntity().getWorld());
 		// Do nothing if the world is inactive
 		if (world == null)
 		{
 			return;
 		}
 		
+		// Ignored mobs still take up space in their chunk
+		world.addToChunkPopulation(event.getEntity());
+		
 		// Fetch the entitys type
 		ExtendedEntityType eType = ExtendedEntityType.valueOf(event.getEntity());
 		
@@ -185,6 +172,8 @@ public class MobListener implements Listener
 			return;
 		}
 		
+		world.removeFromChunkPopulation(event.getEntity());
+		
 		// Fetch the entity type
 		ExtendedEntityType eType = ExtendedEntityType.valueOf(event.getEntity());
 		// If the mob is being ignored it was not counted towards the limits
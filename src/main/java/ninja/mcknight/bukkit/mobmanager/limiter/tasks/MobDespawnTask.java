@@ -116,6 +116,9 @@ class EntityIterator
 		// Update the mob counts of the world so we know they are up to date
 		world.updateMobCounts(entities);
 		
+		// Recount chunk populations for farm clusters, crowd relief and stuck mobs
+		world.updateChunkPopulations(entities);
+		
 		// Increment the index and return false if we are finished
 		if (++currentIndex >= worlds.size())
 		{
@@ -261,6 +264,7 @@ class DespawnTask extends BukkitRunnable
 					}
 
 					it.getWorld().decrementMobCount(ExtendedEntityType.valueOf(entity), entity);
+					it.getWorld().removeFromChunkPopulation(entity);
 				}
 			}
 
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.limiter.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+
+import ninja.mcknight.bukkit.mobmanager.limiter.world.ChunkPopulation;
+import ninja.mcknight.bukkit.mobmanager.limiter.world.MMWorld;
+
+/**
+ * Turns off entity collisions inside of overcrowded chunks</br>
+ * Collisions are turned back on once the chunk population drops below the restore threshold
+ * 
+ * @author Michael McKnight (ShadowDog007)
+ *
+ */
+public class CrowdRelief
+{
+	private final MMWorld world;
+	
+	/**
+	 * Chunks which currently have collisions turned off
+	 */
+	private final HashSet<Long> relievedChunks = new HashSet<Long>();
+	
+	/**
+	 * Entities which have had their collisions turned off by us
+	 */
+	private HashSet<UUID> relievedEntities = new HashSet<UUID>();
+	
+	private final Location cacheLoc = new Location(null, 0.0, 0.0, 0.0);
+	
+	public CrowdRelief(MMWorld world)
+	{
+		this.world = world;
+	}
+	
+	/**
+	 * Updates which chunks are relieved and toggles collisions for the entities within them
+	 * 
+	 * @param entities List of living entities in the world
+	 * @param population Chunk populations counted from the same list
+	 */
+	public void update(List<LivingEntity> entities, ChunkPopulation population)
+	{
+		int threshold = world.worldConf.crowdReliefThreshold;
+		int restoreThreshold = world.worldConf.crowdReliefRestoreThreshold;
+		
+		// Chunks which have become too crowded
+		for (long key : population.getChunkKeys())
+		{
+			if (population.getLivingCount(key) >= threshold)
+				relievedChunks.add(key);
+		}
+		
+		// Chunks which have dropped far enough below the threshold
+		Iterator<Long> it = relievedChunks.iterator();
+		while (it.hasNext())
+		{
+			if (population.getLivingCount(it.next()) < restoreThreshold)
+				it.remove();
+		}
+		
+		HashSet<UUID> stillRelieved = new HashSet<UUID>(relievedEntities.size());
+		
+		for (LivingEntity entity : entities)
+		{
+			if (entity.getType() == EntityType.PLAYER)
+				continue;
+			
+			entity.getLocation(cacheLoc);
+			boolean relieve = relievedChunks.contains(ChunkPopulation.getKey(cacheLoc.getBlockX() >> 4, cacheLoc.getBlockZ() >> 4));
+			
+			UUID uuid = entity.getUniqueId();
+			
+			if (relieve)
+			{
+				// Leave entities alone which had collisions turned off by something else
+				if (relievedEntities.contains(uuid) || entity.isCollidable())
+				{
+					entity.setCollidable(false);
+					stillRelieved.add(uuid);
+				}
+			}
+			// The entity is no longer in a crowded chunk
+			else if (relievedEntities.contains(uuid))
+			{
+				entity.setCollidable(true);
+			}
+		}
+		
+		// Entities which have died or been unloaded are dropped here
+		relievedEntities = stillRelieved;
+	}
+	
+	/**
+	 * Forgets about a chunk and its entities when it is unloaded</br>
+	 * Entities reload with collisions turned on
+	 * 
+	 * @param chunk The chunk being unloaded
+	 */
+	public void chunkUnloaded(Chunk chunk)
+	{
+		if (!relievedChunks.remove(ChunkPopulation.getKey(chunk.getX(), chunk.getZ())))
+			return;
+		
+		for (Entity entity : chunk.getEntities())
+		{
+			if (relievedEntities.remove(entity.getUniqueId()) && entity instanceof LivingEntity)
+				((LivingEntity) entity).setCollidable(true);
+		}
+	}
+	
+	/**
+	 * Turns collisions back on for every entity which we turned them off for
+	 */
+	public void restoreAll()
+	{
+		if (!relievedEntities.isEmpty())
+		{
+			for (LivingEntity entity : world.getWorld().getLivingEntities())
+			{
+				if (relievedEntities.contains(entity.getUniqueId()))
+					entity.setCollidable(true);
+			}
+		}
+		
+		relievedEntities.clear();
+		relievedChunks.clear();
+	}
+	
+	/**
+	 * Fetches the keys of the chunks which currently have collisions turned off
+	 */
+	public List<Long> getRelievedChunks()
+	{
+		return new ArrayList<Long>(relievedChunks);
+	}
+	
+	/**
+	 * Fetches the number of entities which currently have collisions turned off
+	 */
+	public int getNumRelievedEntities()
+	{
+		return relievedEntities.size();
+	}
+}
@@ -29,7 +29,6 @@
 package ninja.mcknight.bukkit.mobmanager.limiter.util;
 
 import org.bukkit.Bukkit;
-import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Tameable;
@@ -119,6 +118,10 @@ public class MobDespawnCheck
 			if (!LimiterConfig.enableAnimalDespawning || MMComponent.getLimiter().animalProtection == null)
 				return false;
 
+			// If the chunk or farm cluster has more than 'numAnimalsForFarm' then animals are not despawned
+			if (world.isInFarm(entity))
+				return false;
+
 			// Check if the animal is tamed
 			if (!LimiterConfig.removeTamedAnimals && entity instanceof Tameable)
 			{
@@ -131,16 +134,6 @@ public class MobDespawnCheck
 			// Check if the animal is being protected
 			if (MMComponent.getLimiter().animalProtection.checkUUID(entity.getUniqueId()))
 				return false;
-
-			// If the chunk has more than 'numAnimalsForFarm' then animals are not despawned
-			int animalCount = 0;
-			for (Entity e : entity.getLocation().getChunk().getEntities())
-			{
-				if (MobType.ANIMAL.belongs(e))
-					++animalCount;
-			}
-			if (animalCount >= world.worldConf.numAnimalsForFarm)
-				return false;
 		}
 		// Only despawn villagers if they are over their limits
 		else if (mob == MobType.VILLAGER)
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.limiter.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+
+import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
+import ninja.mcknight.bukkit.mobmanager.limiter.config.LimiterConfig;
+import ninja.mcknight.bukkit.mobmanager.limiter.world.ChunkPopulation;
+import ninja.mcknight.bukkit.mobmanager.limiter.world.MMWorld;
+
+/**
+ * Finds mobs which have barely moved over several despawn scans while in crowded chunks</br>
+ * e.g. Mobs held in farm traps or stuck in holes</br>
+ * </br>
+ * Positions are sampled once per scan and stored in primitive arrays keyed by entity id</br>
+ * <b>Note: Main thread only</b>
+ * 
+ * @author Michael McKnight (ShadowDog007)
+ *
+ */
+public class StuckMobs
+{
+	/**
+	 * What to do with mobs once they are found to be stuck
+	 */
+	public enum StuckAction
+	{
+		/** Only list stuck mobs in '/mm stuck' */
+		REPORT,
+		/** Turn off the AI of stuck mobs until they are moved */
+		DORMANT,
+		/** Despawn stuck mobs if they could otherwise be despawned */
+		DESPAWN
+	}
+	
+	private static final byte STUCK = 1, DORMANT = 2;
+	
+	/**
+	 * Open addressing table of sampled entities
+	 */
+	private static class Samples
+	{
+		int[] ids;
+		boolean[] used;
+		float[] x, y, z;
+		short[] stillScans;
+		byte[] flags;
+		short[] types;
+		int size;
+		
+		Samples(int capacity)
+		{
+			ids = new int[capacity];
+			used = new boolean[capacity];
+			x = new float[capacity];
+			y = new float[capacity];
+			z = new float[capacity];
+			stillScans = new short[capacity];
+			flags = new byte[capacity];
+			types = new short[capacity];
+		}
+		
+		int find(int id)
+		{
+			int mask = ids.length - 1;
+			int i = mix(id) & mask;
+			
+			while (used[i])
+			{
+				if (ids[i] == id)
+					return i;
+				i = i + 1 & mask;
+			}
+			return -1;
+		}
+		
+		int insert(int id)
+		{
+			int mask = ids.length - 1;
+			int i = mix(id) & mask;
+			
+			while (used[i])
+				i = i + 1 & mask;
+			
+			used[i] = true;
+			ids[i] = id;
+			stillScans[i] = 0;
+			flags[i] = 0;
+			++size;
+			return i;
+		}
+		
+		void clear()
+		{
+			Arrays.fill(used, false);
+			size = 0;
+		}
+		
+		private static int mix(int id)
+		{
+			return id * 0x9E3779B9 >>> 7 ^ id;
+		}
+	}
+	
+	private final MMWorld world;
+	
+	private Samples samples = new Samples(64);
+	/** Spare table which the next scan is written into */
+	private Samples next = new Samples(64);
+	
+	private int numStuck = 0, numDormant = 0;
+	
+	private final Location cacheLoc = new Location(null, 0.0, 0.0, 0.0);
+	
+	public StuckMobs(MMWorld world)
+	{
+		this.world = world;
+	}
+	
+	/**
+	 * Samples the position of each mob and acts on any mobs which are stuck
+	 * 
+	 * @param entities List of living entities in the world
+	 * @param population Chunk populations counted from the same list
+	 */
+	public void update(List<LivingEntity> entities, ChunkPopulation population)
+	{
+		float maxDistanceSquared = world.worldConf.stuckMobDistance * world.worldConf.stuckMobDistance;
+		int scans = world.worldConf.stuckMobScans;
+		int density = world.worldConf.stuckMobDensity;
+		StuckAction action = world.worldConf.stuckMobAction;
+		
+		// Make sure the table stays at most half full
+		int capacity = Integer.highestOneBit(Math.max(32, entities.size()) * 2 - 1) << 1;
+		if (next.ids.length != capacity)
+			next = new Samples(capacity);
+		else
+			next.clear();
+		
+		numStuck = numDormant = 0;
+		
+		for (LivingEntity entity : entities)
+		{
+			if (!shouldTrack(entity))
+				continue;
+			
+			entity.getLocation(cacheLoc);
+			float x = (float) cacheLoc.getX(), y = (float) cacheLoc.getY(), z = (float) cacheLoc.getZ();
+			
+			int id = entity.getEntityId();
+			int i = next.insert(id);
+			int prev = samples.find(id);
+			
+			next.types[i] = (short) entity.getType().ordinal();
+			
+			if (prev != -1)
+			{
+				float dx = x - samples.x[prev], dy = y - samples.y[prev], dz = z - samples.z[prev];
+				
+				// The mob is still near where it was first sampled
+				if (dx * dx + dy * dy + dz * dz <= maxDistanceSquared)
+				{
+					next.x[i] = samples.x[prev];
+					next.y[i] = samples.y[prev];
+					next.z[i] = samples.z[prev];
+					next.stillScans[i] = (short) Math.min(Short.MAX_VALUE, samples.stillScans[prev] + 1);
+					next.flags[i] = samples.flags[prev];
+				}
+				// The mob has moved, start sampling again from here
+				else
+				{
+					if ((samples.flags[prev] & DORMANT) != 0)
+						entity.setAI(true);
+					next.x[i] = x;
+					next.y[i] = y;
+					next.z[i] = z;
+				}
+			}
+			else
+			{
+				next.x[i] = x;
+				next.y[i] = y;
+				next.z[i] = z;
+			}
+			
+			if (next.stillScans[i] < scans)
+				continue;
+			
+			// Only mobs in crowded chunks are counted as stuck
+			int chunkX = cacheLoc.getBlockX() >> 4, chunkZ = cacheLoc.getBlockZ() >> 4;
+			if (population.getLivingCount(ChunkPopulation.getKey(chunkX, chunkZ)) < density)
+			{
+				if ((next.flags[i] & DORMANT) != 0)
+					entity.setAI(true);
+				next.flags[i] = 0;
+				continue;
+			}
+			
+			next.flags[i] |= STUCK;
+			++numStuck;
+			
+			switch (action)
+			{
+			case DORMANT:
+				// Leave mobs alone which had their AI turned off by something else
+				if ((next.flags[i] & DORMANT) == 0 && entity.hasAI())
+				{
+					entity.setAI(false);
+					next.flags[i] |= DORMANT;
+				}
+				break;
+			case DESPAWN:
+				if (MobDespawnCheck.shouldDespawn(world, entity, false))
+				{
+					entity.remove();
+					world.decrementMobCount(ExtendedEntityType.valueOf(entity), entity);
+					world.removeFromChunkPopulation(entity);
+				}
+				break;
+			default:
+				break;
+			}
+			
+			if ((next.flags[i] & DORMANT) != 0)
+				++numDormant;
+		}
+		
+		// Mobs which were not found this scan are dropped with the old table
+		Samples swap = samples;
+		samples = next;
+		next = swap;
+	}
+	
+	private boolean shouldTrack(LivingEntity entity)
+	{
+		if (entity.getType() == EntityType.PLAYER || entity.hasMetadata("NPC"))
+			return false;
+		
+		ExtendedEntityType eType = ExtendedEntityType.valueOf(entity);
+		return eType.getMobType(entity) != null && !LimiterConfig.ignoredMobs.contains(eType);
+	}
+	
+	/**
+	 * Turns AI back on for dormant mobs in a chunk which is being unloaded</br>
+	 * Otherwise they would be saved without AI
+	 * 
+	 * @param chunk The chunk being unloaded
+	 */
+	public void chunkUnloaded(Chunk chunk)
+	{
+		if (numDormant == 0)
+			return;
+		
+		for (Entity entity : chunk.getEntities())
+		{
+			int i = samples.find(entity.getEntityId());
+			
+			if (i != -1 && (samples.flags[i] & DORMANT) != 0 && entity instanceof LivingEntity)
+			{
+				((LivingEntity) entity).setAI(true);
+				samples.flags[i] &= ~DORMANT;
+				--numDormant;
+			}
+		}
+	}
+	
+	/**
+	 * Turns AI back on for every mob which we made dormant
+	 */
+	public void restoreAll()
+	{
+		if (numDormant != 0)
+		{
+			for (LivingEntity entity : world.getWorld().getLivingEntities())
+			{
+				int i = samples.find(entity.getEntityId());
+				
+				if (i != -1 && (samples.flags[i] & DORMANT) != 0)
+					entity.setAI(true);
+			}
+		}
+		
+		samples.clear();
+		numStuck = numDormant = 0;
+	}
+	
+	/**
+	 * Fetches the number of mobs which were stuck at the last scan
+	 */
+	public int getNumStuck()
+	{
+		return numStuck;
+	}
+	
+	/**
+	 * Fetches the number of mobs which currently have their AI turned off
+	 */
+	public int getNumDormant()
+	{
+		return numDormant;
+	}
+	
+	/**
+	 * Fetches a description of each stuck mob
+	 * 
+	 * @param limit The maximum number of mobs to describe
+	 * 
+	 * @return Array of {EntityType ordinal, X, Y, Z, Scans} for each stuck mob
+	 */
+	public int[][] getStuckMobs(int limit)
+	{
+		int[][] stuck = new int[Math.min(limit, numStuck)][];
+		
+		int count = 0;
+		for (int i = 0; i < samples.ids.length && count < stuck.length; ++i)
+		{
+			if (samples.used[i] && (samples.flags[i] & STUCK) != 0)
+				stuck[count++] = new int[] {samples.types[i], (int) Math.floor(samples.x[i]), (int) Math.floor(samples.y[i]), (int) Math.floor(samples.z[i]), samples.stillScans[i]};
+		}
+		
+		return count == stuck.length ? stuck : Arrays.copyOf(stuck, count);
+	}
+}
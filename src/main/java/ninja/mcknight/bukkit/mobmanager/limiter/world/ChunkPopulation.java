@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.limiter.world;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+
+import ninja.mcknight.bukkit.mobmanager.limiter.util.MobType;
+
+/**
+ * Keeps a count of the living entities within each loaded chunk of a world</br>
+ * Counts are rebuilt from the entity list each time the despawn scan starts</br>
+ * and kept up to date by spawns and deaths in between
+ * 
+ * @author Michael McKnight (ShadowDog007)
+ *
+ */
+public class ChunkPopulation
+{
+	private static final int LIVING = 0, ANIMALS = 1;
+	
+	/**
+	 * Living entity and animal counts keyed by chunk
+	 */
+	private final HashMap<Long, int[]> counts = new HashMap<Long, int[]>();
+	
+	private final Location cacheLoc = new Location(null, 0.0, 0.0, 0.0);
+	
+	/**
+	 * Recounts the number of living entities in each chunk
+	 * 
+	 * @param entities List of living entities in the world
+	 */
+	public void recount(List<LivingEntity> entities)
+	{
+		counts.clear();
+		
+		for (LivingEntity entity : entities)
+		{
+			// Players do not count towards chunk populations
+			if (entity.getType() == EntityType.PLAYER)
+				continue;
+			
+			change(getKey(entity), MobType.ANIMAL.belongs(entity), 1);
+		}
+	}
+	
+	/**
+	 * Adds a newly spawned entity to the count of its chunk
+	 * 
+	 * @param key The key of the chunk, see {@link #getKey(Entity)}
+	 * @param animal True if the entity is an animal
+	 * 
+	 * @return The new number of animals in the chunk
+	 */
+	public int add(long key, boolean animal)
+	{
+		return change(key, animal, 1);
+	}
+	
+	/**
+	 * Removes a dead or despawned entity from the count of its chunk
+	 * 
+	 * @param key The key of the chunk, see {@link #getKey(Entity)}
+	 * @param animal True if the entity is an animal
+	 * 
+	 * @return The new number of animals in the chunk
+	 */
+	public int remove(long key, boolean animal)
+	{
+		return change(key, animal, -1);
+	}
+	
+	private int change(long key, boolean animal, int amount)
+	{
+		int[] count = counts.get(key);
+		
+		if (count == null)
+		{
+			// Nothing to remove from
+			if (amount < 0)
+				return 0;
+			counts.put(key, count = new int[2]);
+		}
+		
+		count[LIVING] = Math.max(0, count[LIVING] + amount);
+		if (animal)
+			count[ANIMALS] = Math.max(0, count[ANIMALS] + amount);
+		
+		return count[ANIMALS];
+	}
+	
+	/**
+	 * Fetches the keys of all chunks which contained living entities at the last recount
+	 */
+	public Set<Long> getChunkKeys()
+	{
+		return counts.keySet();
+	}
+	
+	/**
+	 * Fetches the number of living entities in the chunk
+	 * 
+	 * @param key The key of the chunk, see {@link #getKey(int, int)}
+	 * 
+	 * @return The number of living entities counted in the chunk
+	 */
+	public int getLivingCount(long key)
+	{
+		int[] count = counts.get(key);
+		
+		return count != null ? count[LIVING] : 0;
+	}
+	
+	/**
+	 * Fetches the number of animals in the chunk
+	 * 
+	 * @param key The key of the chunk, see {@link #getKey(int, int)}
+	 * 
+	 * @return The number of animals counted in the chunk
+	 */
+	public int getAnimalCount(long key)
+	{
+		int[] count = counts.get(key);
+		
+		return count != null ? count[ANIMALS] : 0;
+	}
+	
+	/**
+	 * Fetches the key of the chunk the entity is in</br>
+	 * <b>Note: Main thread only</b>
+	 */
+	public long getKey(Entity entity)
+	{
+		entity.getLocation(cacheLoc);
+		return getKey(cacheLoc.getBlockX() >> 4, cacheLoc.getBlockZ() >> 4);
+	}
+	
+	/**
+	 * Creates a single key from the coordinates of a chunk
+	 * 
+	 * @param chunkX X coordinate of the chunk
+	 * @param chunkZ Z coordinate of the chunk
+	 * 
+	 * @return The key for the chunk
+	 */
+	public static long getKey(int chunkX, int chunkZ)
+	{
+		return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+	}
+	
+	public static int getChunkX(long key)
+	{
+		return (int) (key >> 32);
+	}
+	
+	public static int getChunkZ(long key)
+	{
+		return (int) key;
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.limiter.world;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Groups neighbouring chunks which contain animals into farm clusters</br>
+ * Chunks with at least 'FarmClusterChunkMinimum' animals are joined with any</br>
+ * neighbouring chunk which also meets the minimum using a union-find</br>
+ * </br>
+ * Chunks are only ever joined between despawn scans, clusters are split again</br>
+ * when they are rebuilt at the start of the next scan</br>
+ * <b>Note: Main thread only</b>
+ * 
+ * @author Michael McKnight (ShadowDog007)
+ *
+ */
+public class FarmClusters
+{
+	private final int chunkMinimum;
+	
+	/**
+	 * Maps chunk keys to their node index
+	 */
+	private final HashMap<Long, Integer> nodes = new HashMap<Long, Integer>();
+	
+	private int[] parent = new int[64];
+	/** Number of chunks in the cluster, only valid for root nodes */
+	private int[] chunks = new int[64];
+	/** Number of animals in the cluster, only valid for root nodes */
+	private int[] animals = new int[64];
+	/** Number of animals in each chunk */
+	private int[] chunkAnimals = new int[64];
+	
+	private int size = 0;
+	
+	public FarmClusters(int chunkMinimum)
+	{
+		this.chunkMinimum = chunkMinimum;
+	}
+	
+	/**
+	 * Rebuilds all clusters from the given chunk populations
+	 */
+	public void rebuild(ChunkPopulation population)
+	{
+		nodes.clear();
+		size = 0;
+		
+		for (long key : population.getChunkKeys())
+			update(key, population.getAnimalCount(key));
+	}
+	
+	/**
+	 * Updates the number of animals in a chunk</br>
+	 * Adds the chunk to a cluster if it now meets the minimum
+	 * 
+	 * @param key The key of the chunk, see {@link ChunkPopulation#getKey(int, int)}
+	 * @param animalCount The number of animals now in the chunk
+	 */
+	public void update(long key, int animalCount)
+	{
+		Integer node = nodes.get(key);
+		
+		// Update the total of the cluster the chunk is already in
+		if (node != null)
+		{
+			animals[find(node)] += animalCount - chunkAnimals[node];
+			chunkAnimals[node] = animalCount;
+			return;
+		}
+		
+		if (animalCount < chunkMinimum)
+			return;
+		
+		int index = addNode(key, animalCount);
+		
+		// Join with each of the 8 neighbouring chunks
+		int chunkX = ChunkPopulation.getChunkX(key);
+		int chunkZ = ChunkPopulation.getChunkZ(key);
+		for (int x = -1; x <= 1; ++x)
+		{
+			for (int z = -1; z <= 1; ++z)
+			{
+				if (x == 0 && z == 0)
+					continue;
+				
+				Integer neighbour = nodes.get(ChunkPopulation.getKey(chunkX + x, chunkZ + z));
+				if (neighbour != null)
+					union(index, neighbour);
+			}
+		}
+	}
+	
+	/**
+	 * Fetches the total number of animals in the cluster containing the chunk
+	 * 
+	 * @return The number of animals in the cluster, 0 if the chunk is not in a cluster
+	 */
+	public int getClusterAnimals(long key)
+	{
+		Integer node = nodes.get(key);
+		
+		return node != null ? animals[find(node)] : 0;
+	}
+	
+	/**
+	 * Fetches the number of chunks in the cluster containing the chunk
+	 * 
+	 * @return The number of chunks in the cluster, 0 if the chunk is not in a cluster
+	 */
+	public int getClusterChunks(long key)
+	{
+		Integer node = nodes.get(key);
+		
+		return node != null ? chunks[find(node)] : 0;
+	}
+	
+	private int addNode(long key, int animalCount)
+	{
+		if (size == parent.length)
+		{
+			int length = size << 1;
+			parent = Arrays.copyOf(parent, length);
+			chunks = Arrays.copyOf(chunks, length);
+			animals = Arrays.copyOf(animals, length);
+			chunkAnimals = Arrays.copyOf(chunkAnimals, length);
+		}
+		
+		int index = size++;
+		parent[index] = index;
+		chunks[index] = 1;
+		animals[index] = animalCount;
+		chunkAnimals[index] = animalCount;
+		nodes.put(key, index);
+		
+		return index;
+	}
+	
+	private int find(int node)
+	{
+		// Path halving
+		while (parent[node] != node)
+		{
+			parent[node] = parent[parent[node]];
+			node = parent[node];
+		}
+		return node;
+	}
+	
+	private void union(int a, int b)
+	{
+		a = find(a);
+		b = find(b);
+		
+		if (a == b)
+			return;
+		
+		// Union by size
+		if (chunks[a] < chunks[b])
+		{
+			int t = a;
+			a = b;
+			b = t;
+		}
+		
+		parent[b] = a;
+		chunks[a] += chunks[b];
+		animals[a] += animals[b];
+	}
+}
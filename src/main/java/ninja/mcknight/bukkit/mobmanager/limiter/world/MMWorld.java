@@ -28,6 +28,7 @@
 
 package ninja.mcknight.bukkit.mobmanager.limiter.world;
 
+import java.util.Arrays;
 import java.util.List;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
@@ -35,9 +36,13 @@ import ninja.mcknight.bukkit.mobmanager.P;
 import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
 import ninja.mcknight.bukkit.mobmanager.limiter.config.LimiterConfig;
 import ninja.mcknight.bukkit.mobmanager.limiter.config.WorldConfig;
+import ninja.mcknight.bukkit.mobmanager.limiter.util.CrowdRelief;
 import ninja.mcknight.bukkit.mobmanager.limiter.util.MobType;
+import ninja.mcknight.bukkit.mobmanager.limiter.util.StuckMobs;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.entity.EntityType;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Tameable;
 
@@ -81,6 +86,38 @@ public class MMWorld
 	 */
 	private int[] individualMobCounts;
 	
+	/**
+	 * Stores mob type counts for each layer in LayerLimits (null if there are no layers)
+	 */
+	private final int[][] layerCounts;
+	
+	/**
+	 * Mob counts around each player (null if there are no PlayerLocalMaximums)
+	 */
+	private final PlayerLocalCaps localCaps;
+	
+	private final Location cacheLoc = new Location(null, 0.0, 0.0, 0.0);
+	
+	/**
+	 * Living entity counts of each chunk
+	 */
+	private final ChunkPopulation chunkPopulation = new ChunkPopulation();
+	
+	/**
+	 * Turns off collisions in crowded chunks (null if disabled)
+	 */
+	private final CrowdRelief crowdRelief;
+	
+	/**
+	 * Groups neighbouring farm chunks together (null if disabled)
+	 */
+	private final FarmClusters farmClusters;
+	
+	/**
+	 * Finds mobs which have not moved for several despawn scans (null if disabled)
+	 */
+	private final StuckMobs stuckMobs;
+	
 	public MMWorld(final World world, WorldConfig worldConf)
 	{
 		this.world = world;
@@ -104,7 +141,14 @@ public class MMWorld
 			individualMobCounts[type.ordinal()] = 0;
 		}
 		
+		layerCounts = worldConf.layerMaximums.length > 0 ? new int[worldConf.layerMaximums.length][mobCounts.length] : null;
+		localCaps = worldConf.hasPlayerLocalMaximums() ? new PlayerLocalCaps(worldConf.playerLocalMaximums, worldConf.playerLocalRadius) : null;
+		
 		updateMobCounts();
+		
+		crowdRelief = worldConf.crowdReliefThreshold > 0 ? new CrowdRelief(this) : null;
+		farmClusters = worldConf.farmClusterChunkMinimum > 0 ? new FarmClusters(worldConf.farmClusterChunkMinimum) : null;
+		stuckMobs = worldConf.stuckMobDistance >= 0 ? new StuckMobs(this) : null;
 
 		final int maxMonsters = worldConf.maximums[MobType.MONSTER.ordinal()];
 		final int maxAnimals = worldConf.maximums[MobType.ANIMAL.ordinal()];
@@ -152,6 +196,12 @@ public class MMWorld
 			if (individualMobCounts[i] != -1)
 				individualMobCounts[i] = 0;
 		}
+		
+		if (layerCounts != null)
+		{
+			for (int[] counts : layerCounts)
+				Arrays.fill(counts, 0);
+		}
 	}
 	
 	public boolean updateMobCounts()
@@ -175,6 +225,9 @@ public class MMWorld
 			if (entities == null)
 				entities = world.getLivingEntities();
 			
+			if (localCaps != null)
+				localCaps.startRecount();
+			
 			// Loop through each loaded chunk in the world
 			for (final LivingEntity entity : entities)
 			{
@@ -215,8 +268,26 @@ public class MMWorld
 
 				// Increment counter
 				++mobCounts[mob.ordinal()];
+				
+				if (layerCounts != null || localCaps != null)
+				{
+					entity.getLocation(cacheLoc);
+					
+					if (layerCounts != null)
+					{
+						byte layer = getLayer(cacheLoc.getBlockY());
+						if (layer != -1)
+							++layerCounts[layer][mob.ordinal()];
+					}
+					
+					if (localCaps != null)
+						localCaps.count(mob, cacheLoc.getBlockX() >> 4, cacheLoc.getBlockZ() >> 4);
+				}
 			}
 			
+			if (localCaps != null)
+				localCaps.finishRecount(world.getPlayers());
+			
 			// Reset 'updatedThisTick' so updates can be run again later
 			P.p().getServer().getScheduler().runTaskLater(P.p(),
 				new Runnable()
@@ -234,6 +305,116 @@ public class MMWorld
 		return false;
 	}
 
+	/**
+	 * Recounts chunk populations, rebuilds farm clusters, updates crowd relief and samples stuck mobs</br>
+	 * Called by the despawn task once per scan
+	 * 
+	 * @param entities - List of living entities in the world
+	 */
+	public void updateChunkPopulations(List<LivingEntity> entities)
+	{
+		chunkPopulation.recount(entities);
+		
+		if (farmClusters != null)
+			farmClusters.rebuild(chunkPopulation);
+		
+		if (crowdRelief != null)
+			crowdRelief.update(entities, chunkPopulation);
+		
+		if (stuckMobs != null)
+			stuckMobs.update(entities, chunkPopulation);
+	}
+	
+	/**
+	 * Adds a spawned entity to the population of its chunk
+	 */
+	public void addToChunkPopulation(LivingEntity entity)
+	{
+		if (entity.getType() == EntityType.PLAYER)
+			return;
+		
+		long key = chunkPopulation.getKey(entity);
+		boolean animal = MobType.ANIMAL.belongs(entity);
+		int animals = chunkPopulation.add(key, animal);
+		
+		if (animal && farmClusters != null)
+			farmClusters.update(key, animals);
+	}
+	
+	/**
+	 * Removes a dead or despawned entity from the population of its chunk
+	 */
+	public void removeFromChunkPopulation(LivingEntity entity)
+	{
+		if (entity.getType() == EntityType.PLAYER)
+			return;
+		
+		long key = chunkPopulation.getKey(entity);
+		boolean animal = MobType.ANIMAL.belongs(entity);
+		int animals = chunkPopulation.remove(key, animal);
+		
+		if (animal && farmClusters != null)
+			farmClusters.update(key, animals);
+	}
+	
+	/**
+	 * Checks if the animal is part of a farm</br>
+	 * Uses the cluster of chunks the animal is in if farm clusters are enabled
+	 * 
+	 * @return True if the animal should be protected as part of a farm
+	 */
+	public boolean isInFarm(LivingEntity entity)
+	{
+		long key = chunkPopulation.getKey(entity);
+		int animals = chunkPopulation.getAnimalCount(key);
+		
+		if (farmClusters != null)
+			animals = Math.max(animals, farmClusters.getClusterAnimals(key));
+		
+		return animals >= worldConf.numAnimalsForFarm;
+	}
+	
+	/**
+	 * Checks if animals can be bred at the entities location</br>
+	 * Checks both BreedingMaximumPerChunk and FarmClusterMaximum
+	 * 
+	 * @return True if breeding is allowed
+	 */
+	public boolean withinBreedingLimits(LivingEntity entity)
+	{
+		long key = chunkPopulation.getKey(entity);
+		
+		// If breeding limit is invalid (-ve) it is disabled
+		if (worldConf.breedingLimit >= 0 && chunkPopulation.getAnimalCount(key) >= worldConf.breedingLimit)
+			return false;
+		
+		// Cap the size of the entire farm
+		if (farmClusters != null && worldConf.farmClusterMaximum >= 0 && farmClusters.getClusterAnimals(key) >= worldConf.farmClusterMaximum)
+			return false;
+		
+		return true;
+	}
+	
+	public ChunkPopulation getChunkPopulation()
+	{
+		return chunkPopulation;
+	}
+	
+	public CrowdRelief getCrowdRelief()
+	{
+		return crowdRelief;
+	}
+	
+	public FarmClusters getFarmClusters()
+	{
+		return farmClusters;
+	}
+	
+	public StuckMobs getStuckMobs()
+	{
+		return stuckMobs;
+	}
+
 	public World getWorld()
 	{
 		return world;
@@ -278,14 +459,44 @@ public class MMWorld
 			mob = ExtendedEntityType.valueOf(entity);
 		}
 		
+		// Recount first so the recount does not overwrite cacheLoc
+		updateMobCounts();
+		
+		return withinMobLimit(mob, entity != null ? entity.getLocation(cacheLoc) : null);
+	}
+	
+	/**
+	 * Checks to see if the specific mob is within its limits at the given location
+	 * 
+	 * @param mob The mob being checked
+	 * @param loc The spawn location, or null to only check world limits
+	 */
+	public boolean withinMobLimit(ExtendedEntityType mob, Location loc)
+	{
+		if (loc == null)
+			return withinMobLimit(mob, (byte) -1, null);
+		
+		return withinMobLimit(mob, getLayer(loc.getBlockY()), loc);
+	}
+	
+	private boolean withinMobLimit(ExtendedEntityType mob, byte layer, Location loc)
+	{
 		// Check if the mobs parent is within the limits first
-		if (mob.hasParent() && !withinMobLimit(mob.getParent(), null))
+		if (mob.hasParent() && !withinMobLimit(mob.getParent(), layer, loc))
 			return false;
 		
 		// If the mob is not within its types counts return false
 		if (!withinMobLimit(mob.getMobType()))
 			return false;
 		
+		// If the mob is not within its layers counts return false
+		if (!withinLayerLimit(mob.getMobType(), layer))
+			return false;
+		
+		// If no players around the location have room for the mob return false
+		if (loc != null && localCaps != null && !localCaps.withinLimit(mob.getMobType(), loc.getBlockX() >> 4, loc.getBlockZ() >> 4))
+			return false;
+		
 		// If the count is -1 we are not counting this mob
 		if (individualMobCounts[mob.ordinal()] == -1)
 			return true;
@@ -294,6 +505,50 @@ public class MMWorld
 		return worldConf.getMaximum(mob, numChunks) > individualMobCounts[mob.ordinal()];
 	}
 
+	/**
+	 * Fetches how many more of the mob fit within its limits at the given location</br>
+	 * Checks the same limits as {@link #withinMobLimit(ExtendedEntityType, Location)}
+	 * 
+	 * @param wanted The most places needed
+	 * 
+	 * @return The number of mobs which fit, at most wanted
+	 */
+	public int getMobCapacity(ExtendedEntityType mob, Location loc, int wanted)
+	{
+		updateMobCounts();
+		
+		return getMobCapacity(mob, getLayer(loc.getBlockY()), loc, wanted);
+	}
+	
+	private int getMobCapacity(ExtendedEntityType mob, byte layer, Location loc, int wanted)
+	{
+		// The mobs parent has to have room too
+		if (mob.hasParent())
+			wanted = getMobCapacity(mob.getParent(), layer, loc, wanted);
+		
+		MobType type = mob.getMobType();
+		if (type != null)
+		{
+			wanted = Math.min(wanted, maxMobs(type) - mobCounts[type.ordinal()]);
+			
+			if (layer != -1)
+			{
+				short max = worldConf.layerMaximums[layer][type.ordinal()];
+				if (max != -1)
+					wanted = Math.min(wanted, max - layerCounts[layer][type.ordinal()]);
+			}
+			
+			if (localCaps != null)
+				wanted = localCaps.getCapacity(type, loc.getBlockX() >> 4, loc.getBlockZ() >> 4, wanted);
+		}
+		
+		// If the count is -1 we are not counting this mob
+		if (individualMobCounts != null && individualMobCounts[mob.ordinal()] != -1)
+			wanted = Math.min(wanted, worldConf.getMaximum(mob, numChunks) - individualMobCounts[mob.ordinal()]);
+		
+		return Math.max(0, wanted);
+	}
+
 	private boolean withinMobLimit(MobType mob)
 	{
 		if (mob == null)
@@ -304,6 +559,68 @@ public class MMWorld
 		return maxMobs(mob) > mobCounts[mob.ordinal()];
 	}
 	
+	private boolean withinLayerLimit(MobType mob, byte layer)
+	{
+		if (mob == null || layer == -1)
+			return true;
+		
+		updateMobCounts();
+		
+		short max = worldConf.layerMaximums[layer][mob.ordinal()];
+		return max == -1 || max > layerCounts[layer][mob.ordinal()];
+	}
+	
+	/**
+	 * Fetches the number of mobs counted within a layer
+	 * 
+	 * @param layer The index of the layer in LayerLimits
+	 */
+	public int getLayerMobCount(int layer, MobType mob)
+	{
+		if (layerCounts == null || mob == null)
+			return 0;
+		
+		updateMobCounts();
+		
+		return layerCounts[layer][mob.ordinal()];
+	}
+	
+	/**
+	 * Fetches the layer which contains the given height
+	 * 
+	 * @return The index of the layer in LayerLimits, -1 if the height is not in a layer
+	 */
+	public byte getLayer(int y)
+	{
+		if (layerCounts == null || y < 0 || y >= worldConf.layerLookup.length)
+			return -1;
+		
+		return worldConf.layerLookup[y];
+	}
+	
+	/**
+	 * Updates layer and player local counts for the mob at the entities location</br>
+	 * Mobs may have moved since they were counted, the next recount will correct this</br>
+	 * <b>Note: Main thread only</b>
+	 */
+	private void changeLocalCounts(MobType mob, LivingEntity entity, int amount)
+	{
+		if (mob == null || entity == null || layerCounts == null && localCaps == null)
+			return;
+		
+		entity.getLocation(cacheLoc);
+		
+		byte layer = getLayer(cacheLoc.getBlockY());
+		if (layer != -1)
+		{
+			int[] counts = layerCounts[layer];
+			counts[mob.ordinal()] = Math.max(0, counts[mob.ordinal()] + amount);
+		}
+		
+		if (localCaps != null)
+			localCaps.change(mob, cacheLoc.getBlockX() >> 4, cacheLoc.getBlockZ() >> 4, amount);
+	}
+	
 	/**
 	 * Increments the mob counts for this mob
 	 * @param mob The mob type which is being counted
@@ -319,6 +636,7 @@ public class MMWorld
 		
 		// Increment the MobTypes count
 		incrementMobCount(mob.getMobType(entity));
+		changeLocalCounts(mob.getMobType(entity), entity, 1);
 		
 		if (individualMobCounts == null)
 			return;
@@ -343,6 +661,7 @@ public class MMWorld
 		
 		// Decrement the MobTypes count
 		decrementMobCount(mob.getMobType(entity));
+		changeLocalCounts(mob.getMobType(entity), entity, -1);
 		
 		if (individualMobCounts == null)
 			return;
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.limiter.world;
+
+import java.util.HashMap;
+import java.util.List;
+
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import ninja.mcknight.bukkit.mobmanager.limiter.config.LimiterConfig;
+import ninja.mcknight.bukkit.mobmanager.limiter.util.MobType;
+
+/**
+ * Keeps track of the number of mobs around each player</br>
+ * Mob counts are gathered into a grid of chunks each recount, then summed</br>
+ * for the chunks within 'PlayerLocalRadius' of each player</br>
+ * </br>
+ * A mob can spawn if any player within range of it still has room for it,</br>
+ * this stops one player with a large mob farm using up the whole worlds limit
+ * 
+ * @author Michael McKnight (ShadowDog007)
+ *
+ */
+public class PlayerLocalCaps
+{
+	/**
+	 * Player neighbourhoods from the last recount</br>
+	 * Replaced as a whole so the spawner threads never see half an update
+	 */
+	private static class Neighbourhoods
+	{
+		final int[] chunkX, chunkZ;
+		final int[][] counts;
+		
+		Neighbourhoods(int size)
+		{
+			chunkX = new int[size];
+			chunkZ = new int[size];
+			counts = new int[size][MobType.values().length];
+		}
+	}
+	
+	private final short[] maximums;
+	private final int radius;
+	
+	/**
+	 * Mob counts of each chunk, only used during recounts
+	 */
+	private final HashMap<Long, int[]> chunkCounts = new HashMap<Long, int[]>();
+	
+	private volatile Neighbourhoods neighbourhoods = new Neighbourhoods(0);
+	
+	private final Location cacheLoc = new Location(null, 0.0, 0.0, 0.0);
+	
+	public PlayerLocalCaps(short[] maximums, int radius)
+	{
+		this.maximums = maximums;
+		this.radius = radius;
+	}
+	
+	/**
+	 * Clears the chunk grid before a recount
+	 */
+	public void startRecount()
+	{
+		chunkCounts.clear();
+	}
+	
+	/**
+	 * Adds a mob to the chunk grid during a recount
+	 */
+	public void count(MobType mob, int chunkX, int chunkZ)
+	{
+		if (maximums[mob.ordinal()] == -1)
+			return;
+		
+		long key = ChunkPopulation.getKey(chunkX, chunkZ);
+		int[] counts = chunkCounts.get(key);
+		
+		if (counts == null)
+			chunkCounts.put(key, counts = new int[maximums.length]);
+		
+		++counts[mob.ordinal()];
+	}
+	
+	/**
+	 * Sums up the chunk grid around each player once all mobs have been counted
+	 * 
+	 * @param players The players in the world
+	 */
+	public void finishRecount(List<Player> players)
+	{
+		// Ignored players do not get a neighbourhood
+		int size = 0;
+		for (Player player : players)
+		{
+			if (!ignore(player))
+				++size;
+		}
+		
+		Neighbourhoods next = new Neighbourhoods(size);
+		
+		int i = 0;
+		for (Player player : players)
+		{
+			if (ignore(player))
+				continue;
+			
+			player.getLocation(cacheLoc);
+			int chunkX = next.chunkX[i] = cacheLoc.getBlockX() >> 4;
+			int chunkZ = next.chunkZ[i] = cacheLoc.getBlockZ() >> 4;
+			int[] total = next.counts[i++];
+			
+			for (int x = chunkX - radius; x <= chunkX + radius; ++x)
+			{
+				for (int z = chunkZ - radius; z <= chunkZ + radius; ++z)
+				{
+					int[] counts = chunkCounts.get(ChunkPopulation.getKey(x, z));
+					if (counts == null)
+						continue;
+					
+					for (int mob = 0; mob < total.length; ++mob)
+						total[mob] += counts[mob];
+				}
+			}
+		}
+		
+		chunkCounts.clear();
+		neighbourhoods = next;
+	}
+	
+	/**
+	 * Adds or removes a mob from the neighbourhood of each player within range
+	 */
+	public void change(MobType mob, int chunkX, int chunkZ, int amount)
+	{
+		if (maximums[mob.ordinal()] == -1)
+			return;
+		
+		Neighbourhoods n = neighbourhoods;
+		for (int i = 0; i < n.chunkX.length; ++i)
+		{
+			if (inRange(n, i, chunkX, chunkZ))
+				n.counts[i][mob.ordinal()] = Math.max(0, n.counts[i][mob.ordinal()] + amount);
+		}
+	}
+	
+	/**
+	 * Checks if a mob can spawn in the given chunk
+	 * 
+	 * @return True if a player within range has room for the mob, or if there are no players within range
+	 */
+	public boolean withinLimit(MobType mob, int chunkX, int chunkZ)
+	{
+		if (mob == null)
+			return true;
+		
+		short max = maximums[mob.ordinal()];
+		if (max == -1)
+			return true;
+		
+		boolean playerInRange = false;
+		
+		Neighbourhoods n = neighbourhoods;
+		for (int i = 0; i < n.chunkX.length; ++i)
+		{
+			if (!inRange(n, i, chunkX, chunkZ))
+				continue;
+			
+			if (n.counts[i][mob.ordinal()] < max)
+				return true;
+			
+			playerInRange = true;
+		}
+		
+		// Spawns without players in range are dealt with elsewhere
+		return !playerInRange;
+	}
+	
+	/**
+	 * Fetches how many more of the mob can spawn in the given chunk
+	 * 
+	 * @param wanted The most places needed
+	 * 
+	 * @return The room left around the player in range with the most room,</br>
+	 *         wanted if there are no players within range
+	 */
+	public int getCapacity(MobType mob, int chunkX, int chunkZ, int wanted)
+	{
+		if (mob == null)
+			return wanted;
+		
+		short max = maximums[mob.ordinal()];
+		if (max == -1)
+			return wanted;
+		
+		int room = -1;
+		
+		Neighbourhoods n = neighbourhoods;
+		for (int i = 0; i < n.chunkX.length; ++i)
+		{
+			if (inRange(n, i, chunkX, chunkZ))
+				room = Math.max(room, max - n.counts[i][mob.ordinal()]);
+		}
+		
+		// Spawns without players in range are dealt with elsewhere
+		if (room == -1)
+			return wanted;
+		
+		return Math.max(0, Math.min(wanted, room));
+	}
+	
+	private boolean inRange(Neighbourhoods n, int i, int chunkX, int chunkZ)
+	{
+		return Math.abs(n.chunkX[i] - chunkX) <= radius && Math.abs(n.chunkZ[i] - chunkZ) <= radius;
+	}
+	
+	private boolean ignore(Player player)
+	{
+		return LimiterConfig.ignoreCreativePlayers && player.getGameMode() == GameMode.CREATIVE;
+	}
+}
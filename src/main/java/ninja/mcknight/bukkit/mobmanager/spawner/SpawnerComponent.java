@@ -1,12 +1,25 @@
 package ninja.mcknight.bukkit.mobmanager.spawner;
 
+import java.io.File;
+import java.io.IOException;
+
 import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
+import ninja.mcknight.bukkit.mobmanager.common.util.ThreadAllocation;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Action;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.SpawnRequirements;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.SpawnerConfig;
+import ninja.mcknight.bukkit.mobmanager.spawner.listener.BlockChangeListener;
 import ninja.mcknight.bukkit.mobmanager.spawner.listener.PlayerListener;
+import ninja.mcknight.bukkit.mobmanager.spawner.listener.SpawnedMobListener;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.ActionDispatchTask;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.SnapshotCacheTask;
 import ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder.SpawnFinder;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.SpawnStats;
+import ninja.mcknight.bukkit.mobmanager.spawner.trace.SpawnTrace;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.FailedColumnCache;
 import org.bukkit.Bukkit;
+import org.bukkit.event.HandlerList;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.P;
@@ -20,6 +33,14 @@ public class SpawnerComponent extends MMComponent
 	
 	private SpawnFinder spawnFinder;
 	
+	private SnapshotCacheTask snapshotCache;
+	private FailedColumnCache failedColumns;
+	private ActionDispatchTask actionDispatcher;
+	private volatile SpawnTrace trace;
+	private SpawnStats stats;
+	private BlockChangeListener blockChangeListener;
+	private SpawnedMobListener spawnedMobListener;
+	
 	public SpawnerComponent(Component c)
 	{
 		super(c);
@@ -84,11 +105,42 @@ public class SpawnerComponent extends MMComponent
 		// Load the config
 		config = new SpawnerConfig();
 		
+		// Seed the random streams before anything rolls with them
+		if (config.randomSeed != 0L)
+			RandomUtil.setSeed(config.randomSeed);
+		
+		// Create the caches before the spawn finder starts using them
+		if (config.useChunkSnapshots)
+			snapshotCache = new SnapshotCacheTask();
+		if (config.failedColumnMaxAge > 0)
+			failedColumns = new FailedColumnCache(config.failedColumnMaxAge * 50000000L);
+		
+		if (snapshotCache != null || failedColumns != null)
+		{
+			blockChangeListener = new BlockChangeListener(snapshotCache, failedColumns);
+			Bukkit.getPluginManager().registerEvents(blockChangeListener, P.p());
+		}
+		
+		// Stats have to exist before the spawn finder starts sampling into them
+		// Allocations are measured on the servers shared JVM bean, so only while collecting stats
+		if (config.spawnStatsSampleRate > 0.0)
+		{
+			stats = new SpawnStats(config.spawnStatsSampleRate);
+			ThreadAllocation.enable();
+		}
+		
+		// Actions run on their own task so they don't hold up spawning
+		actionDispatcher = new ActionDispatchTask(config.actionCommandsPerTick);
+		
 		// Create the spawn finder
 		spawnFinder = new SpawnFinder();
 		
 		// Register the player listener
 		Bukkit.getPluginManager().registerEvents(new PlayerListener(), P.p());
+		
+		// Register the listener which frees mobs from limits when they die
+		spawnedMobListener = new SpawnedMobListener();
+		Bukkit.getPluginManager().registerEvents(spawnedMobListener, P.p());
 	}
 
 	@Override
@@ -100,11 +152,39 @@ public class SpawnerComponent extends MMComponent
 			throw new IllegalStateException("MobManager-Spawner was already disabled");
 		}
 		
+		if (config.randomSeed != 0L)
+			RandomUtil.clearSeed();
 		config = null;
 		
+		stopTrace();
+		
 		spawnFinder.cancel();
 		spawnFinder = null;
 		
+		actionDispatcher.cancel();
+		actionDispatcher = null;
+		
+		HandlerList.unregisterAll(spawnedMobListener);
+		spawnedMobListener = null;
+		
+		if (blockChangeListener != null)
+		{
+			HandlerList.unregisterAll(blockChangeListener);
+			blockChangeListener = null;
+		}
+		
+		if (snapshotCache != null)
+		{
+			snapshotCache.cancel();
+			snapshotCache = null;
+		}
+		failedColumns = null;
+		if (stats != null)
+		{
+			ThreadAllocation.disable();
+			stats = null;
+		}
+		
 		enabled = false;
 		info("Disabled");
 	}
@@ -124,4 +204,81 @@ public class SpawnerComponent extends MMComponent
 	{
 		return spawnFinder;
 	}
+	
+	/**
+	 * Fetches the ChunkSnapshot cache
+	 * 
+	 * @return The cache, or null if UseChunkSnapshots is disabled
+	 */
+	public SnapshotCacheTask getSnapshotCache()
+	{
+		return snapshotCache;
+	}
+	
+	/**
+	 * Fetches the cache of columns where spawn attempts recently failed
+	 * 
+	 * @return The cache, or null if FailedColumnMaxAge is 0
+	 */
+	public FailedColumnCache getFailedColumns()
+	{
+		return failedColumns;
+	}
+	
+	/**
+	 * Fetches the sampled per-stage spawner stats
+	 * 
+	 * @return The stats, or null if SpawnStatsSampleRate is 0
+	 */
+	public SpawnStats getStats()
+	{
+		return stats;
+	}
+	
+	/**
+	 * Fetches the task which runs spawn actions
+	 * 
+	 * @return The task, or null if the spawner is disabled
+	 */
+	public ActionDispatchTask getActionDispatcher()
+	{
+		return actionDispatcher;
+	}
+	
+	/**
+	 * Fetches the spawn trace being recorded
+	 * 
+	 * @return The trace, or null if no trace is being recorded
+	 */
+	public SpawnTrace getTrace()
+	{
+		return trace;
+	}
+	
+	/**
+	 * Starts recording a spawn trace, stopping the current one
+	 * 
+	 * @param file The file to write the trace to
+	 * @throws IOException If the file could not be created
+	 */
+	public void startTrace(File file) throws IOException
+	{
+		stopTrace();
+		trace = new SpawnTrace(file);
+	}
+	
+	/**
+	 * Stops recording the current spawn trace
+	 * 
+	 * @return The stopped trace, or null if none was being recorded
+	 */
+	public SpawnTrace stopTrace()
+	{
+		SpawnTrace stopped = trace;
+		trace = null;
+		
+		if (stopped != null)
+			stopped.close();
+		return stopped;
+	}
 }
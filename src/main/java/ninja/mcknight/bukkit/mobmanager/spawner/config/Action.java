@@ -32,11 +32,11 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.common.util.PlayerFinder;
-import org.bukkit.Bukkit;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.ActionDispatchTask;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.configuration.ConfigurationSection;
@@ -46,14 +46,21 @@ import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
 import ninja.mcknight.bukkit.mobmanager.common.util.MiscUtil;
 import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
 
+/**
+ * Messages and commands which are sent when a mob spawns</br>
+ * </br>
+ * Messages and commands are compiled into {@link Template}s when the config loads.</br>
+ * Executing an action only queues it with the {@link ActionDispatchTask}, which finds</br>
+ * the nearby players, sends the messages and dispatches the commands on a later tick.
+ */
 public class Action extends AbstractConfig
 {
 	private static final Pattern playerPattern = Pattern.compile("{player}", Pattern.CASE_INSENSITIVE | Pattern.LITERAL);
 	private static boolean first = false;
 	
 	private final boolean randomMessage;
-	private final ArrayList<String> messages;
-	private final ArrayList<String> commands;
+	private final Template[] messages;
+	private final Template[] commands;
 	
 	private final PlayerFinder.FinderModeConfig messageFinder;
 	private final PlayerFinder.FinderModeConfig commandFinder;
@@ -84,17 +91,10 @@ public class Action extends AbstractConfig
 		
 		List<String> tmplList = MiscUtil.getStringList(getAndSet("Messages", new ArrayList<String>()));
 		
-		if (tmplList.isEmpty())
-		{
-			messageFinder = null;
-			messages = null;
-		}
-		else if (tmp.validRange())
+		if (!tmplList.isEmpty() && tmp.validRange())
 		{
 			messageFinder = tmp;
-			messages = new ArrayList<String>(tmplList);
-			for (int i = 0; i < this.messages.size(); ++i)
-				messages.set(i, ChatColor.translateAlternateColorCodes('&', messages.get(i)));
+			messages = compile(tmplList, true);
 		}
 		else
 		{
@@ -107,17 +107,10 @@ public class Action extends AbstractConfig
 		
 		tmplList = MiscUtil.getStringList(getAndSet("Commands", new ArrayList<String>()));
 		
-		if (tmplList.isEmpty())
-		{
-			commandFinder = null;
-			commands = null;
-		}
-		else if (tmp.validRange())
+		if (!tmplList.isEmpty() && tmp.validRange())
 		{
 			commandFinder = tmp.equals(messageFinder) ? messageFinder : tmp;
-			commands = new ArrayList<String>(tmplList);
-			for (int i = 0; i < this.messages.size(); ++i)
-				messages.set(i, ChatColor.translateAlternateColorCodes('&', messages.get(i)));
+			commands = compile(tmplList, false);
 		}
 		else
 		{
@@ -137,76 +130,132 @@ public class Action extends AbstractConfig
 			first = false;
 	}
 	
+	/**
+	 * Compiles each string into a template
+	 * 
+	 * @param colour True if '&' colour codes should be translated
+	 */
+	private static Template[] compile(List<String> strings, boolean colour)
+	{
+		Template[] templates = new Template[strings.size()];
+		for (int i = 0; i < templates.length; ++i)
+		{
+			String text = strings.get(i);
+			templates[i] = new Template(colour ? ChatColor.translateAlternateColorCodes('&', text) : text);
+		}
+		return templates;
+	}
+	
 	public boolean required()
 	{
 		return messages != null || commands != null;
 	}
 	
+	/**
+	 * Queues the action to be run at the location
+	 */
 	public void execute(Location location)
 	{
 		if (messages == null && commands == null)
 			return;
 		
-		ArrayList<Player> nearbyPlayers = new ArrayList<Player>();
-		
+		ActionDispatchTask dispatcher = MMComponent.getSpawner().getActionDispatcher();
+		if (dispatcher != null)
+			dispatcher.queue(this, location);
+	}
+	
+	/**
+	 * Renders the messages and commands for the players near the location</br>
+	 * Called by the {@link ActionDispatchTask} on the main thread
+	 * 
+	 * @param players An empty list used to find nearby players
+	 */
+	public void run(Location location, ActionDispatchTask dispatcher, List<Player> players)
+	{
 		if (messages != null)
 		{
-			PlayerFinder.findNearbyPlayers(location, messageFinder, nearbyPlayers);
+			PlayerFinder.findNearbyPlayers(location, messageFinder, players);
+			
 			if (randomMessage)
-			{
-				String message = messages.get(RandomUtil.i.nextInt(messages.size()));
-				
-				Matcher matcher = playerPattern.matcher(message);
-				
-				// Check if the player replace string is in the message
-				boolean found = matcher.find();
-				
-				// Send message
-				for (Player player : nearbyPlayers)
-					player.sendMessage(found ? matcher.replaceAll(player.getName()) : message);
-			}
+				sendMessage(messages[RandomUtil.get().nextInt(messages.length)], dispatcher, players);
 			else
 			{
-				for (String message : messages)
-				{
-					Matcher matcher = playerPattern.matcher(message);
-					
-					// Check if the player replace string is in the message
-					boolean found = matcher.find();
-					
-					// Send message
-					for (Player player : nearbyPlayers)
-						player.sendMessage(found ? matcher.replaceAll(player.getName()) : message);
-				}
+				for (Template message : messages)
+					sendMessage(message, dispatcher, players);
 			}
 		}
 		
 		if (commands != null)
 		{
-			if (!commandFinder.equals(messageFinder))
-				PlayerFinder.findNearbyPlayers(location, commandFinder, nearbyPlayers);
+			if (commandFinder != messageFinder)
+			{
+				players.clear();
+				PlayerFinder.findNearbyPlayers(location, commandFinder, players);
+			}
 			
-			for (String command : commands)
+			for (Template command : commands)
 			{
-				Matcher matcher = playerPattern.matcher(command);
-				
-				// Check if the player replace string is in the message
-				if (matcher.find())
+				// Execute customised command
+				if (command.hasPlayer())
 				{
-					// Execute customised command
-					for (Player player : nearbyPlayers)
-						Bukkit.dispatchCommand(Bukkit.getConsoleSender(), matcher.replaceAll(player.getName()));
+					for (Player player : players)
+						dispatcher.command(command.render(player.getName()));
 				}
 				else
 				{
-					Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
+					dispatcher.command(command.render(null));
 				}
 			}
 		}
 	}
 	
+	private static void sendMessage(Template message, ActionDispatchTask dispatcher, List<Player> players)
+	{
+		for (Player player : players)
+			dispatcher.message(player, message.render(player.getName()));
+	}
+	
 	public static void resetConfigFlag()
 	{
 		first = true;
 	}
+	
+	/**
+	 * A message or command split around its {player} placeholders
+	 */
+	private static class Template
+	{
+		private final String[] parts;
+		private final int length;
+		
+		Template(String text)
+		{
+			parts = playerPattern.split(text, -1);
+			
+			int length = 0;
+			for (String part : parts)
+				length += part.length();
+			this.length = length;
+		}
+		
+		boolean hasPlayer()
+		{
+			return parts.length > 1;
+		}
+		
+		/**
+		 * @param player The name put in place of {player}, unused if there is no placeholder
+		 */
+		String render(String player)
+		{
+			if (parts.length == 1)
+				return parts[0];
+			
+			StringBuilder bldr = new StringBuilder(length + (parts.length - 1) * player.length());
+			bldr.append(parts[0]);
+			for (int i = 1; i < parts.length; ++i)
+				bldr.append(player).append(parts[i]);
+			return bldr.toString();
+		}
+	}
 }
@@ -29,11 +29,15 @@
 package ninja.mcknight.bukkit.mobmanager.spawner.config;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
 import ninja.mcknight.bukkit.mobmanager.common.util.ExtendedEntityType;
 import ninja.mcknight.bukkit.mobmanager.common.util.RandomLocationGen;
+import ninja.mcknight.bukkit.mobmanager.common.util.Scratch;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.SpawnStats.Failure;
 import ninja.mcknight.bukkit.mobmanager.spawner.util.MobCounter;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -46,7 +50,6 @@ import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.abilities.abilities.AbilitySet;
 import ninja.mcknight.bukkit.mobmanager.common.util.MiscUtil;
 import ninja.mcknight.bukkit.mobmanager.limiter.world.MMWorld;
-import ninja.mcknight.bukkit.mobmanager.spawner.util.MobReference;
 
 /**
  * Represents a mob which can be spawned and the chance of it being spawned</br>
@@ -70,6 +73,16 @@ public class Mob extends AbstractConfig
 	public final boolean bypassSpawnLimits;
 	public final boolean delayRequirementsCheck;
 	
+	/** The number of mobs spawned together around one location */
+	public final int packMin, packMax;
+	/** How far from the first mob of a pack the rest may spawn */
+	public final int packRadius;
+	
+	/** Tries made per extra pack mob to find a place for it */
+	private static final int PACK_TRIES = 4;
+	/** How far above or below the first mob the rest of the pack may spawn */
+	private static final int PACK_HEIGHT_RANGE = 3;
+	
 	private Mob(Map<String, Object> cfg)
 	{
 		super.setMapCfg(cfg);
@@ -89,6 +102,10 @@ public class Mob extends AbstractConfig
 		bypassSpawnLimits = getAndSet("BypassPlayerAndRegionMobLimit", false);
 		delayRequirementsCheck = getAndSet("DelayRequirementsCheck", false);
 		
+		packMin = Math.max(1, getAndSet("PackMin", 1));
+		packMax = Math.max(packMin, getAndSet("PackMax", 1));
+		packRadius = Math.max(0, getAndSet("PackRadius", 4));
+		
 		mobType = ExtendedEntityType.valueOf(getAndSet("MobType", "UNKNOWN"));
 		if (MMComponent.getAbilities().isEnabled())
 		{
@@ -146,10 +163,95 @@ public class Mob extends AbstractConfig
 		if (!RandomLocationGen.findSafeY(spawnLoc, playerHeight + heightOffset, heightRange, requirements == null || requirements.requireOpaqueBlock))
 			return false;
 		
-		Block b = spawnLoc.getBlock();
+		return fits(spawnLoc.getBlock());
+	}
+	
+	/**
+	 * Checks if the mob is small enough to fit at the block
+	 */
+	private boolean fits(Block b)
+	{
 		return (!getMobType().isTall() || RandomLocationGen.isTallLocation(b)) && (!getMobType().isWide() || RandomLocationGen.isWideLocation(b));
 	}
 	
+	/**
+	 * Picks how many mobs spawn in the next pack
+	 */
+	public int getPackSize(Random random)
+	{
+		return packMax > packMin ? packMin + random.nextInt(packMax - packMin + 1) : packMin;
+	}
+	
+	/**
+	 * Finds places for the rest of a pack around the first mob of the pack</br>
+	 * Only checks the blocks can be stood on, fit the mob and are in the region,</br>
+	 * the requirements checked for the first mob are shared by the whole pack</br>
+	 * <b>Note: Main thread only</b>
+	 * 
+	 * @param anchor The location of the first mob of the pack
+	 * @param region The region the pack is spawning in
+	 * @param pack Locations which are set to the places found, starting with the anchor
+	 * @param size The number of places wanted, at most the length of pack
+	 * @param random Used to pick the locations
+	 * 
+	 * @return The number of locations found, at least 1
+	 */
+	public int findPackLocations(Location anchor, Region region, Location[] pack, int size, Random random)
+	{
+		pack[0].setWorld(anchor.getWorld());
+		pack[0].setX(anchor.getX());
+		pack[0].setY(anchor.getY());
+		pack[0].setZ(anchor.getZ());
+		pack[0].setYaw(anchor.getYaw());
+		pack[0].setPitch(anchor.getPitch());
+		int found = 1;
+		
+		boolean requireOpaqueBlock = requirements == null || requirements.requireOpaqueBlock;
+		int width = packRadius * 2 + 1;
+		Location loc = Scratch.get().packLoc;
+		loc.setWorld(anchor.getWorld());
+		
+		for (int tries = (size - 1) * PACK_TRIES; tries > 0 && found < size; --tries)
+		{
+			loc.setX(anchor.getBlockX() + random.nextInt(width) - packRadius + 0.5);
+			loc.setY(anchor.getBlockY());
+			loc.setZ(anchor.getBlockZ() + random.nextInt(width) - packRadius + 0.5);
+			
+			if (!RandomLocationGen.findSafeY(loc, anchor.getBlockY(), PACK_HEIGHT_RANGE, requireOpaqueBlock) || isTaken(loc, pack, found))
+				continue;
+			
+			if (!region.withinRegion(loc) || !fits(loc.getBlock()))
+				continue;
+			
+			// Only places which were accepted are copied into the pack
+			Location place = pack[found++];
+			place.setWorld(loc.getWorld());
+			place.setX(loc.getX());
+			place.setY(loc.getY());
+			place.setZ(loc.getZ());
+			place.setYaw(random.nextFloat() * 360.0F);
+			place.setPitch(0.0F);
+		}
+		
+		loc.setWorld(null);
+		return found;
+	}
+	
+	/**
+	 * Checks if one of the first count places of the pack is already at the block
+	 */
+	private static boolean isTaken(Location loc, Location[] pack, int count)
+	{
+		int x = loc.getBlockX(), y = loc.getBlockY(), z = loc.getBlockZ();
+		
+		for (int i = 0; i < count; ++i)
+		{
+			if (pack[i].getBlockX() == x && pack[i].getBlockY() == y && pack[i].getBlockZ() == z)
+				return true;
+		}
+		return false;
+	}
+	
 	/**
 	 * Checks if requirements are met at the given location to spawn this entity
 	 * 
@@ -167,9 +269,58 @@ public class Mob extends AbstractConfig
 		if (!delayed && delayRequirementsCheck)
 			return true;
 		
+		if (getLimitFailure(world, sLoc) != null)
+			return false;
+		
+		// Check if we have more requirements and that they are met
+		return requirements == null
+				|| requirements.met(sLoc.getBlockX() >> 4, sLoc.getBlockZ() >> 4, sLoc.getBlockY(), time, lightLevel, biome, materialBelow, environment);
+	}
+	
+	/**
+	 * Same as {@link #requirementsMet(boolean, World, Location, int, int, Biome, Material, Environment)} without delay</br>
+	 * but skips the height, environment and biome requirements which are checked when</br>
+	 * the regions mob tables are compiled
+	 * 
+	 * @return True if all the mobs requirements are met
+	 */
+	public boolean dynamicRequirementsMet(World world, Location sLoc, int time, int lightLevel, Material materialBelow)
+	{
+		return getDynamicFailure(world, sLoc, time, lightLevel, materialBelow) == null;
+	}
+	
+	/**
+	 * Same as {@link #dynamicRequirementsMet(World, Location, int, int, Material)}</br>
+	 * but tells which check failed
+	 * 
+	 * @return Why the mob can't spawn, or null if it can
+	 */
+	public Failure getDynamicFailure(World world, Location sLoc, int time, int lightLevel, Material materialBelow)
+	{
+		if (delayRequirementsCheck)
+			return null;
+		
+		Failure limit = getLimitFailure(world, sLoc);
+		if (limit != null)
+			return limit;
+		
+		if (requirements != null
+				&& !requirements.dynamicMet(sLoc.getBlockX() >> 4, sLoc.getBlockZ() >> 4, time, lightLevel, materialBelow))
+			return Failure.REQUIREMENTS;
+		
+		return null;
+	}
+	
+	/**
+	 * Checks the mobs own alive limit and the limiters mob limits
+	 * 
+	 * @return The limit which was reached, or null if none were
+	 */
+	private Failure getLimitFailure(World world, Location sLoc)
+	{
 		// If the mobs alive limit is reached we can't spawn any more of this mob
 		if (!withinAliveLimit())
-			return false;
+			return Failure.MOB_LIMIT;
 		
 		// Do we need to check limiter spawn limits?
 		if (!bypassMobManagerLimit)
@@ -178,18 +329,20 @@ public class Mob extends AbstractConfig
 			MMWorld mmWorld = MMComponent.getLimiter().getWorld(world);
 			
 			// If the world exists and has met the mob limit for the given mob we can't spawn this mob
-			if (mmWorld != null && !mmWorld.withinMobLimit(getMobType(), null))
-				return false;
+			if (mmWorld != null && !mmWorld.withinMobLimit(getMobType(), sLoc))
+				return Failure.WORLD_LIMIT;
 		}
 		
-		// Check if we have more requirements and that they are met
-		return requirements == null
-				|| requirements.met(sLoc.getBlockX() >> 4, sLoc.getBlockZ() >> 4, sLoc.getBlockY(), time, lightLevel, biome, materialBelow, environment);
+		return null;
 	}
 	
-	public boolean addSpawnedMob(MobReference mobRef)
+	/**
+	 * Adds the counters which limit how many of this mob can be alive
+	 */
+	public void collectCounters(List<MobCounter> counters)
 	{
-		return !mobRef.isValid() || maxAliveLimiter == null || maxAliveLimiter.add(mobRef);
+		if (maxAliveLimiter != null)
+			counters.add(maxAliveLimiter);
 	}
 	
 	/**
@@ -29,19 +29,24 @@
 package ninja.mcknight.bukkit.mobmanager.spawner.config;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
+import ninja.mcknight.bukkit.mobmanager.common.util.AliasTable;
 import ninja.mcknight.bukkit.mobmanager.common.util.MiscUtil;
 import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.regions.GlobalRegion;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.regions.PointCircleRegion;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.SpawnStats.Failure;
 import ninja.mcknight.bukkit.mobmanager.spawner.util.MobCounter;
-import ninja.mcknight.bukkit.mobmanager.spawner.util.MobReference;
 import ninja.mcknight.bukkit.mobmanager.spawner.util.MobSpawner;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -75,6 +80,15 @@ public abstract class Region extends AbstractConfig
 	
 	private final List<Mob> mobs;
 	
+	private static final int NUM_ENVIRONMENTS = Environment.values().length;
+	private static final int NUM_BIOMES = Biome.values().length;
+	/** Number of table picks before falling back to checking every mob */
+	private static final int MAX_TABLE_PICKS = 3;
+	
+	/** Sorted Y values where the mobs height requirements change */
+	private final int[] yBandBounds;
+	private final ConcurrentHashMap<Integer, MobTable> mobTables = new ConcurrentHashMap<Integer, MobTable>();
+	
 	public final boolean hasRegionLimitBypass;
 	
 	public Region(ConfigurationSection cfg, RegionType type)
@@ -162,9 +176,53 @@ public abstract class Region extends AbstractConfig
 		
 		this.mobs = Collections.unmodifiableList(mobs);
 		
+		// Every Y where a mobs height requirements start or stop applying
+		TreeSet<Integer> bounds = new TreeSet<Integer>();
+		for (Mob mob : mobs)
+		{
+			SpawnRequirements r = mob.getRequirements();
+			if (r == null)
+				continue;
+			bounds.add(r.getMinY());
+			bounds.add(r.getMaxY() + 1);
+		}
+		
+		yBandBounds = new int[bounds.size()];
+		int i = 0;
+		for (int bound : bounds)
+			yBandBounds[i++] = bound;
+		
 		super.clearCfg();
 	}
 	
+	/**
+	 * Fetches the mobs which meet the height, environment and biome requirements</br>
+	 * along with an alias table to pick between them</br>
+	 * </br>
+	 * Tables are compiled once for each Y band (range of Y where the same</br>
+	 * height requirements pass), environment and biome, then reused
+	 */
+	private MobTable getMobTable(int y, Environment environment, Biome biome)
+	{
+		if (environment == null || biome == null)
+			return new MobTable(getMobs(y, environment, biome));
+		
+		int band = Arrays.binarySearch(yBandBounds, y);
+		band = band >= 0 ? band + 1 : -(band + 1);
+		
+		int key = (band * NUM_ENVIRONMENTS + environment.ordinal()) * NUM_BIOMES + biome.ordinal();
+		
+		MobTable table = mobTables.get(key);
+		if (table == null)
+		{
+			// Two threads may compile the same table, both are identical
+			table = new MobTable(getMobs(y, environment, biome));
+			mobTables.put(key, table);
+		}
+		
+		return table;
+	}
+	
 	public abstract void initialise();
 
 	public abstract boolean withinRegion(Location location);
@@ -233,31 +291,25 @@ public abstract class Region extends AbstractConfig
 	}
 
 	/**
-	 * Adds the placeholder to spawn limits to prepare for spawning a mob
+	 * Adds the region counters which the mob counts towards
 	 * 
-	 * @param mob The mob settings which were used to spawn this entity
-	 * @param mobRef The entity which was spawned
-	 * 
-	 * @return True if the mob is allowed to spawn
+	 * @param mob The mob settings which are used to spawn the entity
+	 * @param counters The list the counters are added to
 	 */
-	public boolean addSpawnedMob(Mob mob, MobReference mobRef)
+	public void collectCounters(Mob mob, List<MobCounter> counters)
 	{
-		if (!mobRef.isValid())
-			return false;
-		
-		// Add the mob to the regions limit
-		if (maxAliveLimiter != null && !maxAliveLimiter.add(mobRef))
-			return false;
+		// The regions limit
+		if (maxAliveLimiter != null)
+			counters.add(maxAliveLimiter);
 		
-		// Add the mob to its grouped limit
+		// The mobs grouped limit
 		if (groupedMaxAliveLimiters != null && mob.regionLimitGroup.length() > 0)
 		{
 			MobCounter limiter = groupedMaxAliveLimiters.get(mob.regionLimitGroup);
 			
-			if (limiter != null && !limiter.add(mobRef))
-				return false;
+			if (limiter != null)
+				counters.add(limiter);
 		}
-		return true;
 	}
 	
 	/**
@@ -277,15 +329,51 @@ public abstract class Region extends AbstractConfig
 	 */
 	public MobSpawner spawnMob(Player player, int playerY, int heightRange, Location spawnLoc, boolean wideLoc, boolean tallLoc, int time, int lightLevel, Biome biome, Material materialBelow, Environment environment, boolean outsideSpawnLimits)
 	{
-		// Fetch all the mobs which we can spawn in this location 
-		ArrayList<Mob> spawnableMobs = getSpawnableMobs(player, spawnLoc.getWorld(), spawnLoc, wideLoc, tallLoc, time, lightLevel, biome, materialBelow, environment, outsideSpawnLimits);
+		Mob mob = pickMob(player, spawnLoc, wideLoc, tallLoc, time, lightLevel, biome, materialBelow, environment, outsideSpawnLimits);
+		return mob != null ? new MobSpawner(this, player, spawnLoc, mob, playerY, heightRange) : null;
+	}
+	
+	/**
+	 * Picks the mob to spawn at the location, see {@link #spawnMob}</br>
+	 * Does not allocate, so spawn attempts can reuse their own {@link MobSpawner}
+	 * 
+	 * @return The mob which should be spawned, or null if none can spawn
+	 */
+	public Mob pickMob(Player player, Location spawnLoc, boolean wideLoc, boolean tallLoc, int time, int lightLevel, Biome biome, Material materialBelow, Environment environment, boolean outsideSpawnLimits)
+	{
+		// Fetch the mobs which can spawn at this height, environment and biome
+		MobTable table = getMobTable(spawnLoc.getBlockY(), environment, biome);
 		
-		// If no mobs can spawn here return false :'(
-		if (spawnableMobs.isEmpty())
+		// No mob can spawn here or at this light level
+		if (table.mobs.length == 0 || (table.lightMask & (1 << lightLevel)) == 0)
 			return null;
 		
-		// Fetch a random mob from the list of spawnable mobs
-		Mob mob = getMob(spawnableMobs, getTotalChance(spawnableMobs));
+		Mob mob = null;
+		Random random = RandomUtil.get(spawnLoc.getWorld());
+		
+		// Pick mobs from the table until one passes the remaining checks
+		// Rejecting picks keeps the same chances as picking from only the spawnable mobs
+		for (int i = 0; i < MAX_TABLE_PICKS && mob == null; ++i)
+		{
+			Mob picked = table.mobs[table.alias.pick(random)];
+			
+			if (canSpawn(picked, player, spawnLoc.getWorld(), spawnLoc, wideLoc, tallLoc, time, lightLevel, materialBelow, outsideSpawnLimits))
+				mob = picked;
+		}
+		
+		// Most mobs can't spawn here, find the ones which can
+		if (mob == null)
+		{
+			// Fetch all the mobs which we can spawn in this location 
+			ArrayList<Mob> spawnableMobs = getSpawnableMobs(table.mobs, player, spawnLoc.getWorld(), spawnLoc, wideLoc, tallLoc, time, lightLevel, materialBelow, outsideSpawnLimits);
+			
+			// If no mobs can spawn here return false :'(
+			if (spawnableMobs.isEmpty())
+				return null;
+			
+			// Fetch a random mob from the list of spawnable mobs
+			mob = getMob(spawnableMobs, getTotalChance(spawnableMobs), random);
+		}
 		
 		// If the mob is null, or the entity type is invalid return false :'(
 		if (mob == null || mob.getMobType().getBukkitEntityType() == null)
@@ -295,66 +383,122 @@ public abstract class Region extends AbstractConfig
 		if (mob.delayRequirementsCheck && !mob.requirementsMet(true, spawnLoc.getWorld(), spawnLoc, time, lightLevel, biome, materialBelow, environment))
 			return null;
 		
-		// Return the mob spawner
-		return new MobSpawner(this, player, spawnLoc, mob, playerY, heightRange);
+		return mob;
+	}
+	
+	/**
+	 * Finds why {@link #pickMob} returned null, by checking every mob in the table again</br>
+	 * Only used for sampled attempts, so it is fine that it is slower than picking
+	 * 
+	 * @return The reason most mobs could not spawn
+	 */
+	public Failure getFailure(Player player, Location spawnLoc, boolean wideLoc, boolean tallLoc, int time, int lightLevel, Biome biome, Material materialBelow, Environment environment, boolean outsideSpawnLimits)
+	{
+		MobTable table = getMobTable(spawnLoc.getBlockY(), environment, biome);
+		
+		if (table.mobs.length == 0 || (table.lightMask & (1 << lightLevel)) == 0)
+			return Failure.REQUIREMENTS;
+		
+		int[] counts = new int[Failure.count()];
+		
+		for (Mob mob : table.mobs)
+		{
+			Failure failure = getRejection(mob, player, spawnLoc.getWorld(), spawnLoc, wideLoc, tallLoc, time, lightLevel, materialBelow, outsideSpawnLimits);
+			
+			// A mob could spawn, so it failed the delayed requirements or has an invalid type
+			if (failure == null)
+				return Failure.REQUIREMENTS;
+			
+			++counts[failure.ordinal()];
+		}
+		
+		int top = 0;
+		for (int i = 1; i < Failure.count(); ++i)
+		{
+			if (counts[i] > counts[top])
+				top = i;
+		}
+		return Failure.get(top);
 	}
 	
 	/**
 	 * Fetches all mobs which can spawn in the given location and returns a list of them
 	 * 
+	 * @param candidates The mobs which meet the height, environment and biome requirements
 	 * @param world The world the mob is spawning in
-	 * @param y The Y coordinate at which the mob will be spawning at
 	 * @param lightLevel The light level at the spawn location
-	 * @param biome The Biome type at the spawn location
 	 * @param materialBelow The Material of the block below the spawn location
-	 * @param environment The environment in the world the spawn location is in
 	 * @param outsideSpawnLimits True if player or region limits have been met
 	 * 
 	 * @return A list of spawnable mobs
 	 */
-	private ArrayList<Mob> getSpawnableMobs(Player player, World world, Location sLoc, boolean wideLoc, boolean tallLoc, int time, int lightLevel, Biome biome, Material materialBelow, Environment environment, boolean outsideSpawnLimits)
+	private ArrayList<Mob> getSpawnableMobs(Mob[] candidates, Player player, World world, Location sLoc, boolean wideLoc, boolean tallLoc, int time, int lightLevel, Material materialBelow, boolean outsideSpawnLimits)
 	{
 		// Initialise the list
 		ArrayList<Mob> spawnableMobs = MMComponent.getSpawner().getConfig().getCachedList();
 		
-		for (Mob mob : mobs)
+		for (Mob mob : candidates)
 		{
-			// If we are operating outside spawn limits the mob must be able to bypass those limits
-			if (outsideSpawnLimits && !mob.bypassSpawnLimits)
-				continue;
-			
-			// Don't allow wide mobs to spawn in a tight location
-			if (mob.getMobType().isWide() && !wideLoc)
-				continue;
-			
-			// Don't allow tall mobs to spawn in a tight location
-			if (mob.getMobType().isTall() && !tallLoc)
-				continue;
-			
-			// Check if the requirements are met
-			if (!mob.requirementsMet(false, world, sLoc, time, lightLevel, biome, materialBelow, environment))
-				continue;
-			
-			// Check if the mob is assigned to a player spawn limit
-			if (!MMComponent.getSpawner().getSpawnFinder().withinGroupedLimit(player, this, mob))
-				continue;
-			
-			// Check if the mob is assigned to another region spawn limit
-			if (mob.regionLimitGroup.length() > 0)
-			{
-				// Fetch the limiter for the given group
-				MobCounter limiter = groupedMaxAliveLimiters.get(mob.regionLimitGroup);
-				
-				// Check if the group limit has not been reached
-				if (limiter != null && !limiter.withinLimit())
-					continue;
-			}
-			spawnableMobs.add(mob);
+			if (canSpawn(mob, player, world, sLoc, wideLoc, tallLoc, time, lightLevel, materialBelow, outsideSpawnLimits))
+				spawnableMobs.add(mob);
 		}
 		
 		return spawnableMobs;
 	}
 	
+	/**
+	 * Checks everything which is not compiled into the mob tables</br>
+	 * (Limits, light, time and the block below)
+	 * 
+	 * @return True if the mob can spawn at the location
+	 */
+	private boolean canSpawn(Mob mob, Player player, World world, Location sLoc, boolean wideLoc, boolean tallLoc, int time, int lightLevel, Material materialBelow, boolean outsideSpawnLimits)
+	{
+		return getRejection(mob, player, world, sLoc, wideLoc, tallLoc, time, lightLevel, materialBelow, outsideSpawnLimits) == null;
+	}
+	
+	/**
+	 * Same as {@link #canSpawn} but tells which check failed
+	 * 
+	 * @return Why the mob can't spawn, or null if it can
+	 */
+	private Failure getRejection(Mob mob, Player player, World world, Location sLoc, boolean wideLoc, boolean tallLoc, int time, int lightLevel, Material materialBelow, boolean outsideSpawnLimits)
+	{
+		// If we are operating outside spawn limits the mob must be able to bypass those limits
+		if (outsideSpawnLimits && !mob.bypassSpawnLimits)
+			return withinAliveLimit() ? Failure.PLAYER_LIMIT : Failure.REGION_LIMIT;
+		
+		// Don't allow wide mobs to spawn in a tight location
+		if (mob.getMobType().isWide() && !wideLoc)
+			return Failure.UNSAFE_Y;
+		
+		// Don't allow tall mobs to spawn in a tight location
+		if (mob.getMobType().isTall() && !tallLoc)
+			return Failure.UNSAFE_Y;
+		
+		// Check if the requirements are met
+		Failure failure = mob.getDynamicFailure(world, sLoc, time, lightLevel, materialBelow);
+		if (failure != null)
+			return failure;
+		
+		// Check if the mob is assigned to a player spawn limit
+		if (!MMComponent.getSpawner().getSpawnFinder().withinGroupedLimit(player, this, mob))
+			return Failure.PLAYER_LIMIT;
+		
+		// Check if the mob is assigned to another region spawn limit
+		if (mob.regionLimitGroup.length() > 0 && groupedMaxAliveLimiters != null)
+		{
+			// Fetch the limiter for the given group
+			MobCounter limiter = groupedMaxAliveLimiters.get(mob.regionLimitGroup);
+			
+			// Check if the group limit has not been reached
+			if (limiter != null && !limiter.withinLimit())
+				return Failure.REGION_LIMIT;
+		}
+		
+		return null;
+	}
+	
 	/**
 	 * Calculates the total of chances
 	 * 
@@ -377,13 +521,14 @@ public abstract class Region extends AbstractConfig
 	 * 
 	 * @param mobs List of mobs to pick from
 	 * @param totalChance Sum of all mob chances in the list
+	 * @param random The random stream to pick with
 	 * 
 	 * @return A single mob
 	 */
-	private Mob getMob(final List<Mob> mobs, int totalChance)
+	private Mob getMob(final List<Mob> mobs, int totalChance, Random random)
 	{
 		// Get a random number between 0 and the 
-		int chance = RandomUtil.i.nextInt(totalChance);
+		int chance = random.nextInt(totalChance);
 		
 		for (Mob mob : mobs)
 		{
@@ -406,6 +551,33 @@ public abstract class Region extends AbstractConfig
 		return name;
 	}
 	
+	/**
+	 * Mobs which meet the static requirements for a Y band, environment and biome
+	 */
+	private static class MobTable
+	{
+		final Mob[] mobs;
+		final AliasTable alias;
+		/** Bit 'n' is set if any mob in the table can spawn at light level 'n' */
+		final int lightMask;
+		
+		MobTable(List<Mob> mobList)
+		{
+			mobs = mobList.toArray(new Mob[mobList.size()]);
+			
+			int[] weights = new int[mobs.length];
+			int mask = 0;
+			for (int i = 0; i < mobs.length; ++i)
+			{
+				weights[i] = mobs[i].spawnChance;
+				mask |= mobs[i].getRequirements() != null ? mobs[i].getRequirements().getLightMask() : 0xFFFF;
+			}
+			
+			alias = new AliasTable(weights);
+			lightMask = mask;
+		}
+	}
+	
 	/**
 	 * Represents a type of region
 	 */
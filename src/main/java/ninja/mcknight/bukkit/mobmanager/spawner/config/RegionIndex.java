@@ -0,0 +1,182 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Location;
+
+import ninja.mcknight.bukkit.mobmanager.limiter.world.ChunkPopulation;
+import ninja.mcknight.bukkit.mobmanager.spawner.config.regions.PointRegion;
+import ninja.mcknight.bukkit.mobmanager.spawner.config.regions.PointRegion.ChunkCoverage;
+
+/**
+ * Spatial index of the point regions in a world</br>
+ * </br>
+ * Regions are placed into a grid of cells (8x8 chunks) when the config is loaded</br>
+ * Each chunk which is looked up remembers which regions fully or partially cover it</br>
+ * so only regions partially covering a chunk need their radius checked
+ */
+class RegionIndex
+{
+	/** Cells are 8x8 chunks */
+	private static final int CELL_SHIFT = 3;
+	/** Regions covering more cells than this are checked for every chunk instead */
+	private static final int MAX_REGION_CELLS = 4096;
+	/** Number of chunks to remember before the memo is cleared */
+	private static final int MAX_CACHED_CHUNKS = 16384;
+	
+	private static final PointRegion[] NO_REGIONS = new PointRegion[0];
+	
+	private final HashMap<Long, PointRegion[]> cells = new HashMap<Long, PointRegion[]>();
+	private final PointRegion[] largeRegions;
+	
+	private final ConcurrentHashMap<Long, ChunkRegions> chunks = new ConcurrentHashMap<Long, ChunkRegions>();
+	
+	RegionIndex(List<PointRegion> regions)
+	{
+		HashMap<Long, ArrayList<PointRegion>> cellLists = new HashMap<Long, ArrayList<PointRegion>>();
+		ArrayList<PointRegion> large = new ArrayList<PointRegion>();
+		
+		for (PointRegion region : regions)
+		{
+			int minCellX = region.getMinChunkX() >> CELL_SHIFT, maxCellX = region.getMaxChunkX() >> CELL_SHIFT;
+			int minCellZ = region.getMinChunkZ() >> CELL_SHIFT, maxCellZ = region.getMaxChunkZ() >> CELL_SHIFT;
+			
+			if ((long) (maxCellX - minCellX + 1) * (maxCellZ - minCellZ + 1) > MAX_REGION_CELLS)
+			{
+				large.add(region);
+				continue;
+			}
+			
+			for (int cellX = minCellX; cellX <= maxCellX; ++cellX)
+			{
+				for (int cellZ = minCellZ; cellZ <= maxCellZ; ++cellZ)
+				{
+					long key = ChunkPopulation.getKey(cellX, cellZ);
+					ArrayList<PointRegion> cell = cellLists.get(key);
+					if (cell == null)
+					{
+						cell = new ArrayList<PointRegion>(2);
+						cellLists.put(key, cell);
+					}
+					cell.add(region);
+				}
+			}
+		}
+		
+		for (Entry<Long, ArrayList<PointRegion>> entry : cellLists.entrySet())
+			cells.put(entry.getKey(), entry.getValue().toArray(NO_REGIONS));
+		
+		largeRegions = large.toArray(NO_REGIONS);
+	}
+	
+	/**
+	 * Fetches all regions which this location is within and adds them to the given list
+	 * 
+	 * @param location The given location
+	 * @param regionList List to add regions to
+	 */
+	void getRegions(Location location, List<Region> regionList)
+	{
+		if (cells.isEmpty() && largeRegions.length == 0)
+			return;
+		
+		int chunkX = location.getBlockX() >> 4, chunkZ = location.getBlockZ() >> 4;
+		long key = ChunkPopulation.getKey(chunkX, chunkZ);
+		
+		ChunkRegions chunk = chunks.get(key);
+		if (chunk == null)
+		{
+			// Stops the memo growing forever when players travel
+			if (chunks.size() >= MAX_CACHED_CHUNKS)
+				chunks.clear();
+			
+			chunk = createChunkRegions(chunkX, chunkZ);
+			chunks.put(key, chunk);
+		}
+		
+		int y = location.getBlockY();
+		
+		for (PointRegion region : chunk.full)
+		{
+			if (region.withinHeight(y))
+				regionList.add(region);
+		}
+		
+		for (PointRegion region : chunk.partial)
+		{
+			if (region.withinRegion(location))
+				regionList.add(region);
+		}
+	}
+	
+	private ChunkRegions createChunkRegions(int chunkX, int chunkZ)
+	{
+		ArrayList<PointRegion> full = new ArrayList<PointRegion>(0);
+		ArrayList<PointRegion> partial = new ArrayList<PointRegion>(0);
+		
+		PointRegion[] cell = cells.get(ChunkPopulation.getKey(chunkX >> CELL_SHIFT, chunkZ >> CELL_SHIFT));
+		if (cell != null)
+			addCoverage(cell, chunkX, chunkZ, full, partial);
+		addCoverage(largeRegions, chunkX, chunkZ, full, partial);
+		
+		return new ChunkRegions(full.toArray(NO_REGIONS), partial.toArray(NO_REGIONS));
+	}
+	
+	private void addCoverage(PointRegion[] regions, int chunkX, int chunkZ, List<PointRegion> full, List<PointRegion> partial)
+	{
+		for (PointRegion region : regions)
+		{
+			ChunkCoverage coverage = region.getChunkCoverage(chunkX, chunkZ);
+			
+			if (coverage == ChunkCoverage.FULL)
+				full.add(region);
+			else if (coverage == ChunkCoverage.PARTIAL)
+				partial.add(region);
+		}
+	}
+	
+	private static class ChunkRegions
+	{
+		final PointRegion[] full;
+		final PointRegion[] partial;
+		
+		ChunkRegions(PointRegion[] full, PointRegion[] partial)
+		{
+			this.full = full;
+			this.partial = partial;
+		}
+	}
+}
@@ -29,11 +29,11 @@
 package ninja.mcknight.bukkit.mobmanager.spawner.config;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 
 import org.bukkit.Material;
@@ -42,6 +42,7 @@ import org.bukkit.block.Biome;
 
 import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
 import ninja.mcknight.bukkit.mobmanager.common.util.MiscUtil;
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
 
 /**
  * Represents a set of requirements which a spawn must meet in order to spawn a mob
@@ -60,6 +61,8 @@ public class SpawnRequirements extends AbstractConfig
 
 	private final Set<Material> blockSet;
 	private final boolean blockWhitelist;
+	/** Materials which can be stood on, by ordinal (RequireOpaqueBlock and the block list) */
+	private final BitSet allowedBelow = new BitSet();
 	
 	private final Set<Biome> biomeSet;
 	private final boolean biomeWhitelist;
@@ -111,6 +114,13 @@ public class SpawnRequirements extends AbstractConfig
 		}
 		blockWhitelist = getAndSet("BlockWhitelist", false);
 		
+		// The block below only depends on the material, so check every material now
+		for (Material m : Material.values())
+		{
+			if ((!requireOpaqueBlock || m.isSolid()) && meetsBlockRequirements(m))
+				allowedBelow.set(m.ordinal());
+		}
+		
 		tmp = MiscUtil.getStringList(getAndSet("BiomeList", new ArrayList<String>()));
 		if (tmp.isEmpty())
 		{
@@ -209,12 +219,11 @@ public class SpawnRequirements extends AbstractConfig
 		if (slimeLikeSpawnSeed == 0)
 			return true;
 		
-		Random rnd = new Random(slimeLikeSpawnSeed +
+		return RandomUtil.nextInt(slimeLikeSpawnSeed +
 				(long) (chunkX * chunkX * 0x4c1906) +
 				(long) (chunkX * 0x5ac0db) +
 				(long) (chunkZ * chunkZ) * 0x4307a7L +
-				(long) (chunkZ * 0x5f24f) ^ 0x3ad8025f);
-		return rnd.nextInt(10) == 0;
+				(long) (chunkZ * 0x5f24f) ^ 0x3ad8025f, 10) == 0;
 	}
 	
 	public boolean meetsEnvironmentRequirements(Environment environment)
@@ -242,28 +251,63 @@ public class SpawnRequirements extends AbstractConfig
 		return minLight <= 0 && maxLight >= 15;
 	}
 	
+	/**
+	 * Fetches the light levels which pass the light requirements
+	 * 
+	 * @return A mask with bit 'n' set if light level 'n' passes
+	 */
+	public int getLightMask()
+	{
+		int mask = 0;
+		for (int light = Math.max(0, minLight); light <= Math.min(15, maxLight); ++light)
+			mask |= 1 << light;
+		return mask;
+	}
+	
 	/**
 	 * Checks if the requirements are met at the given location
 	 * 
 	 * @return True if the requirements are met
 	 */
 	public boolean met(int chunkX, int chunkZ, int y, int time, int lightLevel, Biome biome, Material materialBelow, Environment environment)
+	{
+		if (!meetsHeightRequirements(y))
+			return false;
+		
+		return meetsEnvironmentRequirements(environment) 
+				&& meetsBiomeRequirements(biome)
+				&& dynamicMet(chunkX, chunkZ, time, lightLevel, materialBelow);
+	}
+	
+	/**
+	 * Checks only the requirements which can change between spawns at the same</br>
+	 * height, environment and biome (Light, time, block below and slime chunks)</br>
+	 * The block below is looked up from a precomputed set
+	 * 
+	 * @return True if the requirements are met
+	 */
+	public boolean dynamicMet(int chunkX, int chunkZ, int time, int lightLevel, Material materialBelow)
 	{
 		if (minLight > lightLevel || maxLight < lightLevel)
 				return false;
 		
-		if (!meetsHeightRequirements(y) || !meetsTimeRequirements(time))
-			return false;
-		
-		if (requireOpaqueBlock && !materialBelow.isSolid())
+		if (!meetsTimeRequirements(time))
 			return false;
 		
-		if (!meetsSlimeLikeSpawnRequirements(chunkX, chunkZ))
+		if (!allowedBelow.get(materialBelow.ordinal()))
 			return false;
 		
-		return meetsEnvironmentRequirements(environment) 
-				&& meetsBiomeRequirements(biome)
-				&& meetsBlockRequirements(materialBelow);
+		return meetsSlimeLikeSpawnRequirements(chunkX, chunkZ);
+	}
+	
+	public int getMinY()
+	{
+		return minY;
+	}
+	
+	public int getMaxY()
+	{
+		return maxY;
 	}
 
 	public static void resetConfigFlag()
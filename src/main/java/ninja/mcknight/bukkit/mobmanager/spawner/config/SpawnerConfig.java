@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -41,7 +42,7 @@ import org.bukkit.configuration.file.FileConfiguration;
 
 import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
 import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
-import ninja.mcknight.bukkit.mobmanager.common.util.ThreadCache;
+import ninja.mcknight.bukkit.mobmanager.common.util.Scratch;
 import ninja.mcknight.bukkit.mobmanager.spawner.SpawnerComponent;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Region.RegionType;
 
@@ -56,14 +57,25 @@ public class SpawnerConfig extends AbstractConfig
 	private final HashMap<String, SpawnerWorldConfig> worldConfigs = new HashMap<String, SpawnerWorldConfig>();
 	private final Region globalRegion;
 	
-	private final ThreadCache<ArrayList<?>> regionListCache = new ThreadCache<ArrayList<?>>();
 	
 	public final boolean removePlayersMobOnDisconnect;
 	public final boolean ignoreCreativePlayers;
 	public final int spawnFinderThreads;
+	public final boolean spawnFinderWorkStealing;
 	public final int ticksPerSpawn;
 	public final int spawnGenerationAttempts;
 	public final int mobDistanceForLimitRemoval;
+	public final boolean useChunkSnapshots;
+	public final int chunkSnapshotsPerTick;
+	public final int chunkSnapshotMaxAge;
+	public final long randomSeed;
+	/** Main thread time per tick in nanoseconds */
+	public final long spawnTickBudget;
+	public final int spawnAttemptMaxAge;
+	public final boolean clusterPlayers;
+	public final int failedColumnMaxAge;
+	public final int actionCommandsPerTick;
+	public final double spawnStatsSampleRate;
 	
 	public SpawnerConfig()
 	{
@@ -73,6 +85,7 @@ public class SpawnerConfig extends AbstractConfig
 		super.setCfg(cfg);
 		
 		spawnFinderThreads = getAndSet("SpawnFinderThreads", 1);
+		spawnFinderWorkStealing = getAndSet("SpawnFinderWorkStealing", false);
 		ticksPerSpawn = getAndSet("TicksPerSpawn", 100);
 		
 		spawnGenerationAttempts = getAndSet("SpawnGenerateAttempts", 3);
@@ -81,6 +94,27 @@ public class SpawnerConfig extends AbstractConfig
 		removePlayersMobOnDisconnect = getAndSet("RemovePlayerMobsOnDisconnect", true);
 		ignoreCreativePlayers = getAndSet("IgnoreCreativePlayers", true);
 		
+		useChunkSnapshots = getAndSet("UseChunkSnapshots", false);
+		chunkSnapshotsPerTick = Math.max(1, getAndSet("ChunkSnapshotsPerTick", 8));
+		chunkSnapshotMaxAge = Math.max(20, getAndSet("ChunkSnapshotMaxAge", 600));
+		
+		// getDouble() accepts budgets which YAML reads as integers
+		double budgetMillis = Math.max(0.1, cfg.getDouble("SpawnTickBudget", 2.0));
+		set("SpawnTickBudget", budgetMillis);
+		spawnTickBudget = (long) (budgetMillis * 1000000.0);
+		spawnAttemptMaxAge = Math.max(2, getAndSet("SpawnAttemptMaxAge", 40));
+		clusterPlayers = getAndSet("ClusterPlayers", true);
+		failedColumnMaxAge = Math.max(0, getAndSet("FailedColumnMaxAge", 600));
+		actionCommandsPerTick = Math.max(0, getAndSet("ActionCommandsPerTick", 10));
+		
+		// getDouble() accepts rates which YAML reads as integers
+		spawnStatsSampleRate = Math.min(1.0, Math.max(0.0, cfg.getDouble("SpawnStatsSampleRate", 0.01)));
+		set("SpawnStatsSampleRate", spawnStatsSampleRate);
+		
+		// getLong() accepts seeds which YAML reads as integers
+		randomSeed = cfg.getLong("RandomSeed", 0L);
+		set("RandomSeed", randomSeed);
+		
 		ConfigurationSection regionsCfg = getConfigurationSection("Regions");
 		globalRegion = RegionType.GLOBAL.createRegion(getConfigurationSection(regionsCfg, "GlobalRegion"));
 		
@@ -95,19 +129,13 @@ public class SpawnerConfig extends AbstractConfig
 		saveConfig("", SpawnerComponent.SPAWNER_CONFIG_NAME, cfg);
 	}
 	
-	@SuppressWarnings("unchecked")
+	/**
+	 * Fetches the current threads scratch list, used by {@link #getRegion(Location)}</br>
+	 * and {@link Region#getSpawnableMobs} which never hold it at the same time
+	 */
 	protected <T> ArrayList<T> getCachedList()
 	{
-		ArrayList<?> list = regionListCache.get();
-		if (list == null)
-		{
-			list = new ArrayList<Object>();
-			regionListCache.set(list);
-		}
-		else
-			list.clear();
-		
-		return (ArrayList<T>) list;
+		return Scratch.get().getList();
 	}
 	
 	/**
@@ -190,7 +218,7 @@ public class SpawnerConfig extends AbstractConfig
 			regionList.add(globalRegion);
 		
 		// Select a random region region
-		Region region = pickRegion(regionList);
+		Region region = pickRegion(regionList, RandomUtil.get(location.getWorld()));
 		// Clear the regions, we don't need them anymore :)
 		regionList.clear();
 		return region;
@@ -201,9 +229,10 @@ public class SpawnerConfig extends AbstractConfig
 	 * based on each regions priority
 	 * 
 	 * @param regionList List of regions to pick from
+	 * @param random The random stream to pick with
 	 * @return A single region
 	 */
-	private Region pickRegion(ArrayList<Region> regionList)
+	private Region pickRegion(ArrayList<Region> regionList, Random random)
 	{
 		// Fetch a random value between 0 and the total priority
 		int chance = getTotalRegionPriority(regionList);
@@ -211,7 +240,7 @@ public class SpawnerConfig extends AbstractConfig
 		if (chance == 0)
 			return globalRegion;
 		
-		int val = RandomUtil.i.nextInt(getTotalRegionPriority(regionList));
+		int val = random.nextInt(chance);
 		
 		for (Region region : regionList)
 		{
@@ -35,6 +35,7 @@ import java.util.List;
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.common.config.AbstractConfig;
 import ninja.mcknight.bukkit.mobmanager.spawner.SpawnerComponent;
+import ninja.mcknight.bukkit.mobmanager.spawner.config.regions.PointRegion;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.configuration.ConfigurationSection;
@@ -44,7 +45,9 @@ public class SpawnerWorldConfig extends AbstractConfig
 {
 	public final boolean spawnMobs;
 	
+	/** Regions which can't be indexed by chunk */
 	private final ArrayList<Region> regions;
+	private final RegionIndex regionIndex;
 	
 	protected SpawnerWorldConfig(World world)
 	{
@@ -72,6 +75,7 @@ public class SpawnerWorldConfig extends AbstractConfig
 		
 		ConfigurationSection regionsCfg = getConfigurationSection("Regions");
 		regions = new ArrayList<Region>();
+		ArrayList<PointRegion> pointRegions = new ArrayList<PointRegion>();
 		
 		for (Region.RegionType type : Region.RegionType.values())
 		{
@@ -85,7 +89,10 @@ public class SpawnerWorldConfig extends AbstractConfig
 				try
 				{
 					Region region = type.createRegion(getConfigurationSection(regionCfg, regionName));
-					regions.add(region);
+					if (region instanceof PointRegion)
+						pointRegions.add((PointRegion) region);
+					else
+						regions.add(region);
 				}
 				catch (Exception e)
 				{
@@ -94,6 +101,8 @@ public class SpawnerWorldConfig extends AbstractConfig
 			}
 		}		
 		
+		regionIndex = new RegionIndex(pointRegions);
+		
 		super.clearCfg();
 		
 		copyHeader(cfg, "Spawner_WorldConfigHeader.txt", "Spawner World Config\n");
@@ -108,7 +117,10 @@ public class SpawnerWorldConfig extends AbstractConfig
 	 */
 	public void getRegions(Location location, List<Region> regionList)
 	{
-		// Iterate through every region
+		// Only regions which can cover the locations chunk are checked
+		regionIndex.getRegions(location, regionList);
+		
+		// Iterate through every other region
 		for (Region region : regions)
 		{
 			// Check if the location is within the given region
@@ -33,6 +33,8 @@ import org.bukkit.configuration.ConfigurationSection;
 
 public class PointCircleRegion extends PointRegion
 {
+	private long radiusSquared;
+	
 	public PointCircleRegion(ConfigurationSection cfg)
 	{
 		super(cfg, RegionType.POINT_CIRCLE);
@@ -42,19 +44,41 @@ public class PointCircleRegion extends PointRegion
 	public void initialise()
 	{
 		super.initialise();
-		radius *= radius;
+		radiusSquared = (long) radius * radius;
 	}
 
 	@Override
 	public boolean withinRadius(Location location)
 	{
 		// Check horizontal distance is within range
-		final double first = Math.pow(location.getBlockX() - x, 2);
+		final long dx = location.getBlockX() - x;
+		final long first = dx * dx;
 
 		// If the first one is greater the two combined won't be less...
-		if (first > radius)
+		if (first > radiusSquared)
 			return false;
 
-		return first + Math.pow(location.getBlockZ() - z, 2) <= radius;
+		final long dz = location.getBlockZ() - z;
+		return first + dz * dz <= radiusSquared;
+	}
+	
+	@Override
+	public ChunkCoverage getChunkCoverage(int chunkX, int chunkZ)
+	{
+		final int minX = chunkX << 4, maxX = minX + 15;
+		final int minZ = chunkZ << 4, maxZ = minZ + 15;
+		
+		// Closest block in the chunk to the center
+		final long nearX = x < minX ? minX - x : x > maxX ? x - maxX : 0;
+		final long nearZ = z < minZ ? minZ - z : z > maxZ ? z - maxZ : 0;
+		
+		if (nearX * nearX + nearZ * nearZ > radiusSquared)
+			return ChunkCoverage.OUTSIDE;
+		
+		// Furthest block in the chunk from the center
+		final long farX = Math.max(Math.abs(minX - x), Math.abs(maxX - x));
+		final long farZ = Math.max(Math.abs(minZ - z), Math.abs(maxZ - z));
+		
+		return farX * farX + farZ * farZ <= radiusSquared ? ChunkCoverage.FULL : ChunkCoverage.PARTIAL;
 	}
 }
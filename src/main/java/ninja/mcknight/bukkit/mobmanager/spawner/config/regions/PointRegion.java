@@ -60,10 +60,62 @@ public abstract class PointRegion extends Region
 	@Override
 	public boolean withinRegion(Location loc)
 	{
-		if (loc.getBlockY() >= minY && loc.getBlockY() <= maxY)
+		if (withinHeight(loc.getBlockY()))
 			return withinRadius(loc);
 		return false;
 	}
 	
+	public boolean withinHeight(int y)
+	{
+		return y >= minY && y <= maxY;
+	}
+	
+	/**
+	 * Fetches the smallest chunk X which can be within this region
+	 */
+	public int getMinChunkX()
+	{
+		return (x - radius) >> 4;
+	}
+	
+	/**
+	 * Fetches the largest chunk X which can be within this region
+	 */
+	public int getMaxChunkX()
+	{
+		return (x + radius) >> 4;
+	}
+	
+	/**
+	 * Fetches the smallest chunk Z which can be within this region
+	 */
+	public int getMinChunkZ()
+	{
+		return (z - radius) >> 4;
+	}
+	
+	/**
+	 * Fetches the largest chunk Z which can be within this region
+	 */
+	public int getMaxChunkZ()
+	{
+		return (z + radius) >> 4;
+	}
+	
 	protected abstract boolean withinRadius(Location loc);
+	
+	/**
+	 * Checks how much of the given chunk is covered by this region, ignoring height
+	 */
+	public abstract ChunkCoverage getChunkCoverage(int chunkX, int chunkZ);
+	
+	public enum ChunkCoverage
+	{
+		/** No block in the chunk is within the region */
+		OUTSIDE,
+		/** Some blocks in the chunk are within the region */
+		PARTIAL,
+		/** Every block in the chunk is within the region */
+		FULL;
+	}
 }
@@ -44,4 +44,23 @@ public class PointSquareRegion extends PointRegion
 	{
 		return Math.abs(location.getBlockX() - x) < radius && Math.abs(location.getBlockZ() - z) < radius;
 	}
+	
+	@Override
+	public ChunkCoverage getChunkCoverage(int chunkX, int chunkZ)
+	{
+		final int minX = chunkX << 4, maxX = minX + 15;
+		final int minZ = chunkZ << 4, maxZ = minZ + 15;
+		
+		// Block range covered by the region (inclusive)
+		final int lowX = x - radius + 1, highX = x + radius - 1;
+		final int lowZ = z - radius + 1, highZ = z + radius - 1;
+		
+		if (maxX < lowX || minX > highX || maxZ < lowZ || minZ > highZ)
+			return ChunkCoverage.OUTSIDE;
+		
+		if (minX >= lowX && maxX <= highX && minZ >= lowZ && maxZ <= highZ)
+			return ChunkCoverage.FULL;
+		
+		return ChunkCoverage.PARTIAL;
+	}
 }
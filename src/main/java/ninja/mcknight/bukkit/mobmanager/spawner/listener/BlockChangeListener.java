@@ -0,0 +1,234 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.listener;
+
+import java.util.List;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockGrowEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.SnapshotCacheTask;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.FailedColumnCache;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.WorldSnapshotCache;
+
+/**
+ * Marks cached ChunkSnapshots as dirty when blocks inside of them change</br>
+ * Placed and broken blocks also update the column index straight away</br>
+ * Changed columns are removed from the failed column cache
+ */
+public class BlockChangeListener implements Listener
+{
+	/** Can be null if UseChunkSnapshots is disabled */
+	private final SnapshotCacheTask snapshotCache;
+	/** Can be null if FailedColumnMaxAge is 0 */
+	private final FailedColumnCache failedColumns;
+	
+	public BlockChangeListener(SnapshotCacheTask snapshotCache, FailedColumnCache failedColumns)
+	{
+		this.snapshotCache = snapshotCache;
+		this.failedColumns = failedColumns;
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPlace(BlockPlaceEvent event)
+	{
+		updateBlock(event.getBlock(), event.getBlockPlaced().getType());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBreak(BlockBreakEvent event)
+	{
+		updateBlock(event.getBlock(), Material.AIR);
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBurn(BlockBurnEvent event)
+	{
+		markDirty(event.getBlock());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockFade(BlockFadeEvent event)
+	{
+		markDirty(event.getBlock());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockForm(BlockFormEvent event)
+	{
+		markDirty(event.getBlock());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockGrow(BlockGrowEvent event)
+	{
+		markDirty(event.getBlock());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockFromTo(BlockFromToEvent event)
+	{
+		markDirty(event.getToBlock());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onLeavesDecay(LeavesDecayEvent event)
+	{
+		markDirty(event.getBlock());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onEntityChangeBlock(EntityChangeBlockEvent event)
+	{
+		markDirty(event.getBlock());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockExplode(BlockExplodeEvent event)
+	{
+		markDirty(event.getBlock());
+		markDirty(event.blockList());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onEntityExplode(EntityExplodeEvent event)
+	{
+		markDirty(event.blockList());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPistonExtend(BlockPistonExtendEvent event)
+	{
+		markDirty(event.getBlock());
+		for (Block block : event.getBlocks())
+			markDirty(block.getRelative(event.getDirection()));
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPistonRetract(BlockPistonRetractEvent event)
+	{
+		markDirty(event.getBlock());
+		markDirty(event.getBlocks());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onStructureGrow(StructureGrowEvent event)
+	{
+		if (failedColumns != null)
+		{
+			for (BlockState state : event.getBlocks())
+				failedColumns.invalidate(event.getWorld(), state.getX(), state.getZ());
+		}
+		
+		WorldSnapshotCache cache = getCache(event.getWorld());
+		if (cache == null)
+			return;
+		
+		for (BlockState state : event.getBlocks())
+			cache.markDirty(state.getX() >> 4, state.getZ() >> 4);
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent event)
+	{
+		if (failedColumns != null)
+			failedColumns.removeChunk(event.getWorld(), event.getChunk().getX(), event.getChunk().getZ());
+		
+		WorldSnapshotCache cache = getCache(event.getWorld());
+		if (cache != null)
+			cache.remove(event.getChunk().getX(), event.getChunk().getZ());
+	}
+	
+	private WorldSnapshotCache getCache(World world)
+	{
+		return snapshotCache != null ? snapshotCache.getCache(world) : null;
+	}
+	
+	private void updateBlock(Block block, Material type)
+	{
+		if (failedColumns != null)
+			failedColumns.invalidate(block.getWorld(), block.getX(), block.getZ());
+		
+		WorldSnapshotCache cache = getCache(block.getWorld());
+		if (cache != null)
+			cache.updateBlock(block.getX(), block.getY(), block.getZ(), type);
+	}
+	
+	private void markDirty(Block block)
+	{
+		if (failedColumns != null)
+			failedColumns.invalidate(block.getWorld(), block.getX(), block.getZ());
+		
+		WorldSnapshotCache cache = getCache(block.getWorld());
+		if (cache != null)
+			cache.markDirty(block.getX() >> 4, block.getZ() >> 4);
+	}
+	
+	private void markDirty(List<Block> blocks)
+	{
+		if (blocks.isEmpty())
+			return;
+		
+		World world = blocks.get(0).getWorld();
+		
+		if (failedColumns != null)
+		{
+			for (Block block : blocks)
+				failedColumns.invalidate(world, block.getX(), block.getZ());
+		}
+		
+		WorldSnapshotCache cache = getCache(world);
+		if (cache == null)
+			return;
+		
+		for (Block block : blocks)
+			cache.markDirty(block.getX() >> 4, block.getZ() >> 4);
+	}
+}
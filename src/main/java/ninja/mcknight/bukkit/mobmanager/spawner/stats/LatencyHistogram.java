@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in power of two buckets of nanoseconds</br>
+ * Recording is lock free and never allocates, percentiles are estimated</br>
+ * from the upper bound of the bucket they fall in
+ */
+public class LatencyHistogram
+{
+	private static final int BUCKETS = 40;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	
+	/**
+	 * Records a latency
+	 * 
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0L)
+			nanos = 0L;
+		
+		buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+	}
+	
+	public long getCount()
+	{
+		return count.get();
+	}
+	
+	/**
+	 * @return The mean latency in nanoseconds
+	 */
+	public long getMean()
+	{
+		long count = this.count.get();
+		return count > 0L ? total.get() / count : 0L;
+	}
+	
+	/**
+	 * Estimates a percentile
+	 * 
+	 * @param percentile The percentile, between 0 and 1
+	 * 
+	 * @return The upper bound of the bucket the percentile is in, in nanoseconds
+	 */
+	public long getPercentile(double percentile)
+	{
+		long count = this.count.get();
+		if (count == 0L)
+			return 0L;
+		
+		long target = (long) Math.ceil(count * percentile);
+		long seen = 0L;
+		for (int i = 0; i < BUCKETS; ++i)
+		{
+			seen += buckets.get(i);
+			if (seen >= target)
+				return i == 0 ? 0L : (1L << i) - 1L;
+		}
+		return (1L << (BUCKETS - 1)) - 1L;
+	}
+}
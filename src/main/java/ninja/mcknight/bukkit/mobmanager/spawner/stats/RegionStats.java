@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.SpawnStats.Failure;
+
+/**
+ * The sampled spawner stats of one region in one world</br>
+ * Safe to use from any thread
+ */
+public class RegionStats
+{
+	private final String world;
+	private final String region;
+	
+	private final AtomicLong attempts = new AtomicLong();
+	private final AtomicLong spawned = new AtomicLong();
+	private final AtomicLongArray failures = new AtomicLongArray(Failure.count());
+	private final AtomicLong players = new AtomicLong();
+	private final AtomicLongArray skipped = new AtomicLongArray(Failure.count());
+	
+	/** Time attempts spend waiting between stages */
+	public final LatencyHistogram queueWait = new LatencyHistogram();
+	/** Time attempt stages spend on the main thread */
+	public final LatencyHistogram syncStage = new LatencyHistogram();
+	/** Time spent starting the attempts of each player */
+	public final LatencyHistogram playerLoop = new LatencyHistogram();
+	
+	RegionStats(String world, String region)
+	{
+		this.world = world;
+		this.region = region;
+	}
+	
+	/**
+	 * Records an attempt which spawned a mob
+	 */
+	public void spawned()
+	{
+		attempts.incrementAndGet();
+		spawned.incrementAndGet();
+	}
+	
+	/**
+	 * Records an attempt which failed
+	 * 
+	 * @param reason Why it failed
+	 */
+	public void failed(Failure reason)
+	{
+		attempts.incrementAndGet();
+		failures.incrementAndGet(reason.ordinal());
+	}
+	
+	/**
+	 * Records a player whose attempts were skipped
+	 * 
+	 * @param reason Why they were skipped
+	 */
+	public void skipped(Failure reason)
+	{
+		skipped.incrementAndGet(reason.ordinal());
+	}
+	
+	/**
+	 * Records a player whose attempts were started (Or skipped)
+	 * 
+	 * @param nanos The time taken
+	 */
+	public void player(long nanos)
+	{
+		players.incrementAndGet();
+		playerLoop.record(nanos);
+	}
+	
+	public String getWorld()
+	{
+		return world;
+	}
+	
+	public String getRegion()
+	{
+		return region;
+	}
+	
+	public long getAttempts()
+	{
+		return attempts.get();
+	}
+	
+	public long getSpawned()
+	{
+		return spawned.get();
+	}
+	
+	public long getFailures(Failure reason)
+	{
+		return failures.get(reason.ordinal());
+	}
+	
+	public long getPlayers()
+	{
+		return players.get();
+	}
+	
+	public long getSkipped(Failure reason)
+	{
+		return skipped.get(reason.ordinal());
+	}
+}
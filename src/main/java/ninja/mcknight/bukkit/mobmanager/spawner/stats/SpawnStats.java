@@ -0,0 +1,264 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.stats;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Collects sampled per-stage spawner stats broken down by world and region</br>
+ * Only a fraction of attempts and players are sampled, unsampled ones never touch</br>
+ * the stats so the overhead scales with the sample rate
+ */
+public class SpawnStats
+{
+	/**
+	 * The reasons a spawn attempt can fail
+	 */
+	public static enum Failure
+	{
+		/** No column near the player was searched (Too close to a player, failed recently or not loaded) */
+		NO_LOCATION,
+		/** No safe Y was found, or the mob did not fit */
+		UNSAFE_Y,
+		/** The location was not in a region */
+		NO_REGION,
+		/** The player was outside its spawn limits */
+		PLAYER_LIMIT,
+		/** The region was outside its spawn limits */
+		REGION_LIMIT,
+		/** The mob reached its MaxAlive */
+		MOB_LIMIT,
+		/** The world mob limit was reached */
+		WORLD_LIMIT,
+		/** No mob had its requirements met */
+		REQUIREMENTS,
+		/** The spawn itself failed */
+		SPAWN_FAILED,
+		/** The attempt waited too long and was dropped */
+		EXPIRED,
+		/** The player left or the attempt errored */
+		OTHER;
+		
+		private static final Failure[] values = values();
+		
+		public static int count()
+		{
+			return values.length;
+		}
+		
+		public static Failure get(int ordinal)
+		{
+			return values[ordinal];
+		}
+	}
+	
+	/** Used for attempts and players outside of any region */
+	public static final String NO_REGION = "-";
+	
+	private final double sampleRate;
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, RegionStats>> worlds = new ConcurrentHashMap<String, ConcurrentHashMap<String, RegionStats>>();
+	private volatile long since = System.currentTimeMillis();
+	
+	public SpawnStats(double sampleRate)
+	{
+		this.sampleRate = sampleRate;
+	}
+	
+	public double getSampleRate()
+	{
+		return sampleRate;
+	}
+	
+	/**
+	 * Rolls whether the next attempt or player should be sampled</br>
+	 * Uses its own random so seeded spawn streams are not disturbed
+	 * 
+	 * @return True if it should be sampled
+	 */
+	public boolean sample()
+	{
+		return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+	}
+	
+	/**
+	 * Fetches the stats for a region in a world, creating them if needed
+	 * 
+	 * @param world The world name
+	 * @param region The region name, or null for no region
+	 * 
+	 * @return The stats
+	 */
+	public RegionStats get(String world, String region)
+	{
+		if (region == null)
+			region = NO_REGION;
+		
+		ConcurrentHashMap<String, RegionStats> regions = worlds.get(world);
+		if (regions == null)
+		{
+			ConcurrentHashMap<String, RegionStats> created = new ConcurrentHashMap<String, RegionStats>();
+			regions = worlds.putIfAbsent(world, created);
+			if (regions == null)
+				regions = created;
+		}
+		
+		RegionStats stats = regions.get(region);
+		if (stats == null)
+		{
+			RegionStats created = new RegionStats(world, region);
+			stats = regions.putIfAbsent(region, created);
+			if (stats == null)
+				stats = created;
+		}
+		return stats;
+	}
+	
+	/**
+	 * Clears all collected stats
+	 */
+	public void reset()
+	{
+		worlds.clear();
+		since = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @return When the stats were last reset
+	 */
+	public long getSince()
+	{
+		return since;
+	}
+	
+	/**
+	 * @return The stats of each region sorted by world then region
+	 */
+	public List<RegionStats> getAll()
+	{
+		List<RegionStats> all = new ArrayList<RegionStats>();
+		for (ConcurrentHashMap<String, RegionStats> regions : worlds.values())
+			all.addAll(regions.values());
+		
+		Collections.sort(all, new Comparator<RegionStats>()
+		{
+			@Override
+			public int compare(RegionStats a, RegionStats b)
+			{
+				int c = a.getWorld().compareTo(b.getWorld());
+				return c != 0 ? c : a.getRegion().compareTo(b.getRegion());
+			}
+		});
+		return all;
+	}
+	
+	/**
+	 * Fetches the failure which happened most
+	 * 
+	 * @param stats The stats to check
+	 * 
+	 * @return The most common failure, or null if there were none
+	 */
+	public static Failure getTopFailure(RegionStats stats)
+	{
+		Failure top = null;
+		long topCount = 0L;
+		for (int i = 0; i < Failure.count(); ++i)
+		{
+			long count = stats.getFailures(Failure.get(i));
+			if (count > topCount)
+			{
+				top = Failure.get(i);
+				topCount = count;
+			}
+		}
+		return top;
+	}
+	
+	/**
+	 * Writes a full report of the stats
+	 * 
+	 * @param file The file to write to
+	 * 
+	 * @throws IOException If the file could not be written
+	 */
+	public void writeReport(File file) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try
+		{
+			out.println("# MobManager spawner stats");
+			out.println("# From " + new Date(since) + " to " + new Date());
+			out.println("# Sample rate " + sampleRate + ", counts are sampled counts, latencies are in microseconds");
+			
+			for (RegionStats stats : getAll())
+			{
+				out.println();
+				out.println("[" + stats.getWorld() + "/" + stats.getRegion() + "]");
+				out.println("Players: " + stats.getPlayers());
+				for (int i = 0; i < Failure.count(); ++i)
+				{
+					if (stats.getSkipped(Failure.get(i)) > 0L)
+						out.println("Skipped." + Failure.get(i).name() + ": " + stats.getSkipped(Failure.get(i)));
+				}
+				out.println("Attempts: " + stats.getAttempts());
+				out.println("Spawned: " + stats.getSpawned());
+				for (int i = 0; i < Failure.count(); ++i)
+					out.println("Failed." + Failure.get(i).name() + ": " + stats.getFailures(Failure.get(i)));
+				writeHistogram(out, "QueueWait", stats.queueWait);
+				writeHistogram(out, "SyncStage", stats.syncStage);
+				writeHistogram(out, "PlayerLoop", stats.playerLoop);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		if (out.checkError())
+			throw new IOException("Failed to write " + file.getPath());
+	}
+	
+	private static void writeHistogram(PrintWriter out, String name, LatencyHistogram histogram)
+	{
+		out.println(String.format("%s: count=%d mean=%d p50=%d p90=%d p99=%d", name, histogram.getCount(),
+				histogram.getMean() / 1000L, histogram.getPercentile(0.5) / 1000L,
+				histogram.getPercentile(0.9) / 1000L, histogram.getPercentile(0.99) / 1000L));
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.tasks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import ninja.mcknight.bukkit.mobmanager.MMComponent;
+import ninja.mcknight.bukkit.mobmanager.P;
+import ninja.mcknight.bukkit.mobmanager.spawner.config.Action;
+
+/**
+ * Runs spawn actions outside of the spawn stage</br>
+ * </br>
+ * Each tick the actions queued since the last tick are run, messages to the same</br>
+ * player are sent together (Duplicates only once) and at most 'ActionCommandsPerTick'</br>
+ * commands are dispatched, the rest wait for the next tick.</br>
+ * </br>
+ * <b>Note: Main thread only</b>
+ */
+public class ActionDispatchTask extends BukkitRunnable
+{
+	private final int commandsPerTick;
+	
+	private final ArrayDeque<PendingAction> actions = new ArrayDeque<PendingAction>();
+	private final ArrayDeque<String> commands = new ArrayDeque<String>();
+	private final LinkedHashMap<Player, List<String>> messages = new LinkedHashMap<Player, List<String>>();
+	
+	private final ArrayList<Player> players = new ArrayList<Player>();
+	
+	/**
+	 * @param commandsPerTick The most commands dispatched each tick, 0 for no limit
+	 */
+	public ActionDispatchTask(int commandsPerTick)
+	{
+		this.commandsPerTick = commandsPerTick;
+		
+		runTaskTimer(P.p(), 1L, 1L);
+	}
+	
+	/**
+	 * Queues the action to run at the location next tick
+	 */
+	public void queue(Action action, Location location)
+	{
+		actions.add(new PendingAction(action, location.clone()));
+	}
+	
+	/**
+	 * Queues a message, sent with the players other messages at the end of the tick
+	 */
+	public void message(Player player, String message)
+	{
+		List<String> playerMessages = messages.get(player);
+		if (playerMessages == null)
+			messages.put(player, playerMessages = new ArrayList<String>(2));
+		
+		if (!playerMessages.contains(message))
+			playerMessages.add(message);
+	}
+	
+	/**
+	 * Queues a command to be dispatched by the console
+	 */
+	public void command(String command)
+	{
+		commands.add(command);
+	}
+	
+	/**
+	 * @return The number of commands waiting to be dispatched
+	 */
+	public int getPendingCommands()
+	{
+		return commands.size();
+	}
+	
+	@Override
+	public void run()
+	{
+		PendingAction pending;
+		while ((pending = actions.poll()) != null)
+		{
+			try
+			{
+				pending.action.run(pending.location, this, players);
+			}
+			catch (Exception e)
+			{
+				MMComponent.getSpawner().severe("Error occured when running a spawn action", e);
+			}
+			players.clear();
+		}
+		
+		for (Entry<Player, List<String>> entry : messages.entrySet())
+		{
+			Player player = entry.getKey();
+			if (player.isOnline())
+				player.sendMessage(entry.getValue().toArray(new String[entry.getValue().size()]));
+		}
+		messages.clear();
+		
+		String command;
+		for (int i = 0; (commandsPerTick <= 0 || i < commandsPerTick) && (command = commands.poll()) != null; ++i)
+		{
+			try
+			{
+				Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
+			}
+			catch (Exception e)
+			{
+				MMComponent.getSpawner().severe("Error occured when dispatching the command '%s'", e, command);
+			}
+		}
+	}
+	
+	@Override
+	public synchronized void cancel() throws IllegalStateException
+	{
+		super.cancel();
+		actions.clear();
+		commands.clear();
+		messages.clear();
+	}
+	
+	/**
+	 * An action waiting to be run
+	 */
+	private static class PendingAction
+	{
+		final Action action;
+		final Location location;
+		
+		PendingAction(Action action, Location location)
+		{
+			this.action = action;
+			this.location = location;
+		}
+	}
+}
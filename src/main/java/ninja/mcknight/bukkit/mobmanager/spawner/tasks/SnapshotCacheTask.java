@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.tasks;
+
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import ninja.mcknight.bukkit.mobmanager.MMComponent;
+import ninja.mcknight.bukkit.mobmanager.P;
+import ninja.mcknight.bukkit.mobmanager.limiter.world.ChunkPopulation;
+import ninja.mcknight.bukkit.mobmanager.limiter.world.MMWorld;
+import ninja.mcknight.bukkit.mobmanager.spawner.config.SpawnerConfig;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.WorldSnapshotCache;
+
+/**
+ * Keeps the ChunkSnapshot cache of each world up to date</br>
+ * Runs every tick, taking at most 'ChunkSnapshotsPerTick' snapshots each tick
+ */
+public class SnapshotCacheTask extends BukkitRunnable
+{
+	/** Ticks between checking which chunks are near players */
+	private static final int TICKS_PER_WANTED_UPDATE = 20;
+	
+	private final SpawnerConfig cfg;
+	
+	private final ConcurrentHashMap<String, WorldSnapshotCache> worlds = new ConcurrentHashMap<String, WorldSnapshotCache>();
+	
+	private final Location cacheLoc = new Location(null, 0.0, 0.0, 0.0);
+	
+	private long tick = 0;
+	
+	public SnapshotCacheTask()
+	{
+		cfg = MMComponent.getSpawner().getConfig();
+		
+		for (MMWorld world : MMComponent.getLimiter().getWorlds())
+			worlds.put(world.getWorld().getName(), new WorldSnapshotCache(world.getWorld()));
+		
+		runTaskTimer(P.p(), 1L, 1L);
+	}
+	
+	/**
+	 * Fetches the snapshot cache of the world
+	 * 
+	 * @return The cache, or null if the world is not active
+	 */
+	public WorldSnapshotCache getCache(World world)
+	{
+		return worlds.get(world.getName());
+	}
+	
+	@Override
+	public void run()
+	{
+		boolean updateWanted = tick % TICKS_PER_WANTED_UPDATE == 0;
+		
+		for (WorldSnapshotCache cache : worlds.values())
+		{
+			if (updateWanted)
+				cache.setWantedChunks(findWantedChunks(cache.getWorld()), tick, cfg.chunkSnapshotMaxAge);
+			
+			cache.refresh(tick, cfg.chunkSnapshotsPerTick);
+		}
+		
+		++tick;
+	}
+	
+	/**
+	 * Finds the chunks which mobs could be spawned in around each player
+	 */
+	private HashSet<Long> findWantedChunks(World world)
+	{
+		HashSet<Long> wanted = new HashSet<Long>();
+		
+		MMWorld mmWorld = MMComponent.getLimiter().getWorld(world);
+		if (mmWorld == null)
+			return wanted;
+		
+		// Spawns never go further than the despawn search distance, +1 for wide location checks
+		int range = Math.max(mmWorld.getSearchDistance(), mmWorld.worldConf.undergroundSearchDistance) + 1;
+		
+		for (Player player : world.getPlayers())
+		{
+			if (cfg.ignoreCreativePlayers && player.getGameMode() == GameMode.CREATIVE)
+				continue;
+			
+			player.getLocation(cacheLoc);
+			int minX = cacheLoc.getBlockX() - range >> 4, maxX = cacheLoc.getBlockX() + range >> 4;
+			int minZ = cacheLoc.getBlockZ() - range >> 4, maxZ = cacheLoc.getBlockZ() + range >> 4;
+			
+			for (int x = minX; x <= maxX; ++x)
+			{
+				for (int z = minZ; z <= maxZ; ++z)
+					wanted.add(ChunkPopulation.getKey(x, z));
+			}
+		}
+		
+		return wanted;
+	}
+	
+	@Override
+	public synchronized void cancel() throws IllegalStateException
+	{
+		super.cancel();
+		worlds.clear();
+	}
+}
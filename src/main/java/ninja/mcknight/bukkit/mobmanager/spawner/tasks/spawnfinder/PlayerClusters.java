@@ -0,0 +1,311 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Queue;
+
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import ninja.mcknight.bukkit.mobmanager.spawner.config.Region;
+import ninja.mcknight.bukkit.mobmanager.spawner.config.SpawnerConfig;
+
+/**
+ * Groups players whose spawn areas overlap into clusters</br>
+ * </br>
+ * Each player is given a share of their regions spawn attempts equal to the</br>
+ * fraction of their spawn area which is not covered by players before them</br>
+ * in the same cluster. A cluster of players standing together then samples</br>
+ * the land around it about as often as a single player would.</br>
+ * Players the executor would skip are left out, so they can't take the share</br>
+ * of the players around them.</br>
+ * Spawn areas are measured as squares of chunks.</br>
+ * </br>
+ * Every buffer and {@link QueuedPlayer} is reused between cycles</br>
+ * <b>Note: Main thread only</b>
+ */
+class PlayerClusters
+{
+	/** QueuedPlayers which are no longer queued */
+	private final ArrayDeque<QueuedPlayer> free = new ArrayDeque<QueuedPlayer>();
+	
+	private final Location loc = new Location(null, 0.0, 0.0, 0.0);
+	private final ArrayList<World> worlds = new ArrayList<World>();
+	private final ArrayList<Player> eligible = new ArrayList<Player>();
+	
+	// Indexed by the players position in eligible
+	private int[] world = new int[0], chunkX = new int[0], chunkZ = new int[0], range = new int[0];
+	private int[] parent = new int[0], first = new int[0], last = new int[0], next = new int[0];
+	/** Players of one world by chunk X, each the chunk X in the high bits and the index in the low bits */
+	private long[] sorted = new long[0];
+	/** The chunks of one row of a players area which are covered by earlier players */
+	private boolean[] covered = new boolean[0];
+	
+	/**
+	 * A player waiting for spawn attempts
+	 */
+	static class QueuedPlayer
+	{
+		Player player;
+		/** Fraction of the regions spawn attempts made around this player */
+		double share;
+	}
+	
+	/**
+	 * Fetches a reused QueuedPlayer
+	 */
+	private QueuedPlayer obtain(Player player, double share)
+	{
+		QueuedPlayer queued = free.poll();
+		if (queued == null)
+			queued = new QueuedPlayer();
+		
+		queued.player = player;
+		queued.share = share;
+		return queued;
+	}
+	
+	/**
+	 * Gives back a QueuedPlayer which is no longer queued
+	 */
+	void release(QueuedPlayer queued)
+	{
+		queued.player = null;
+		free.add(queued);
+	}
+	
+	/**
+	 * Adds the players to the queue, each with a full share of spawn attempts
+	 */
+	void queueAll(Collection<? extends Player> players, Queue<QueuedPlayer> queue)
+	{
+		for (Player player : players)
+			queue.add(obtain(player, 1.0));
+	}
+	
+	/**
+	 * Clusters the players and adds them to the queue one cluster at a time
+	 */
+	void queueClustered(Collection<? extends Player> players, Queue<QueuedPlayer> queue, SpawnFinder spawnFinder, SpawnerConfig cfg)
+	{
+		grow(players.size());
+		
+		for (Player player : players)
+		{
+			// Same checks as SpawnAttemptExecutor.startPlayer()
+			if (!player.isValid() || (cfg.ignoreCreativePlayers && player.getGameMode() == GameMode.CREATIVE))
+				continue;
+			
+			player.getLocation(loc);
+			Region region = cfg.getRegion(loc);
+			if (region == null || region.spawnAttempts <= 0)
+				continue;
+			if (spawnFinder.isOutsideSpawnLimits(player, region) && !region.ignoreMobLimits())
+				continue;
+			
+			int i = eligible.size();
+			eligible.add(player);
+			
+			int w = worlds.indexOf(loc.getWorld());
+			if (w == -1)
+			{
+				w = worlds.size();
+				worlds.add(loc.getWorld());
+			}
+			world[i] = w;
+			
+			chunkX[i] = loc.getBlockX() >> 4;
+			chunkZ[i] = loc.getBlockZ() >> 4;
+			// The range the players attempts are really sampled in
+			range[i] = Math.max(1, SpawnAttemptExecutor.getMaxRange(region, loc) >> 4);
+			parent[i] = i;
+		}
+		
+		for (int w = 0; w < worlds.size(); ++w)
+			clusterWorld(w);
+		
+		queueClusters(queue);
+		
+		loc.setWorld(null);
+		worlds.clear();
+		eligible.clear();
+	}
+	
+	/**
+	 * Makes sure every buffer fits the number of players
+	 */
+	private void grow(int count)
+	{
+		if (parent.length >= count)
+			return;
+		
+		world = new int[count];
+		chunkX = new int[count];
+		chunkZ = new int[count];
+		range = new int[count];
+		parent = new int[count];
+		first = new int[count];
+		last = new int[count];
+		next = new int[count];
+		sorted = new long[count];
+	}
+	
+	/**
+	 * Joins the players of the world whose spawn areas overlap
+	 */
+	private void clusterWorld(int w)
+	{
+		int count = 0, maxRange = 0;
+		for (int i = 0; i < eligible.size(); ++i)
+		{
+			if (world[i] != w)
+				continue;
+			
+			sorted[count++] = ((long) chunkX[i] << 32) | i;
+			maxRange = Math.max(maxRange, range[i]);
+		}
+		
+		// Sweep along X, players further than both ranges away along X can't overlap
+		Arrays.sort(sorted, 0, count);
+		for (int a = 0; a < count; ++a)
+		{
+			int i = (int) sorted[a];
+			
+			for (int b = a + 1; b < count; ++b)
+			{
+				int j = (int) sorted[b];
+				if (chunkX[j] - chunkX[i] > range[i] + maxRange)
+					break;
+				
+				int reach = range[i] + range[j];
+				if (chunkX[j] - chunkX[i] <= reach && Math.abs(chunkZ[i] - chunkZ[j]) <= reach)
+					union(parent, i, j);
+			}
+		}
+	}
+	
+	/**
+	 * Gives each player the share of their area which is not yet covered</br>
+	 * and queues them one cluster at a time
+	 */
+	private void queueClusters(Queue<QueuedPlayer> queue)
+	{
+		int count = eligible.size();
+		
+		// Link the players of each cluster in order, the root is always the first player
+		for (int i = 0; i < count; ++i)
+		{
+			int root = find(parent, i);
+			next[i] = -1;
+			if (root == i)
+				first[i] = i;
+			else
+				next[last[root]] = i;
+			last[root] = i;
+		}
+		
+		for (int root = 0; root < count; ++root)
+		{
+			if (parent[root] != root)
+				continue;
+			
+			for (int i = first[root]; i != -1; i = next[i])
+			{
+				int width = range[i] * 2 + 1;
+				int uncovered = countUncovered(first[root], i, width);
+				
+				queue.add(obtain(eligible.get(i), uncovered / (double) (width * width)));
+			}
+		}
+	}
+	
+	/**
+	 * Counts the chunks of the players area which the players before it in the cluster don't cover
+	 * 
+	 * @param from The first player of the cluster
+	 * @param i The player whose area is counted
+	 * @param width The width of the players area in chunks
+	 */
+	private int countUncovered(int from, int i, int width)
+	{
+		if (covered.length < width)
+			covered = new boolean[width];
+		
+		int minZ = chunkZ[i] - range[i], maxZ = chunkZ[i] + range[i];
+		int uncovered = 0;
+		
+		for (int x = chunkX[i] - range[i]; x <= chunkX[i] + range[i]; ++x)
+		{
+			Arrays.fill(covered, 0, width, false);
+			
+			for (int j = from; j != i; j = next[j])
+			{
+				if (Math.abs(x - chunkX[j]) > range[j])
+					continue;
+				
+				int start = Math.max(minZ, chunkZ[j] - range[j]), end = Math.min(maxZ, chunkZ[j] + range[j]);
+				for (int z = start; z <= end; ++z)
+					covered[z - minZ] = true;
+			}
+			
+			for (int z = 0; z < width; ++z)
+			{
+				if (!covered[z])
+					++uncovered;
+			}
+		}
+		
+		return uncovered;
+	}
+	
+	private static int find(int[] parent, int i)
+	{
+		while (parent[i] != i)
+		{
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+	
+	private static void union(int[] parent, int a, int b)
+	{
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a != b)
+			parent[Math.max(a, b)] = Math.min(a, b);
+	}
+}
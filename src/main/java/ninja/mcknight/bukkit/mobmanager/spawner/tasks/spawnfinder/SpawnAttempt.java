@@ -28,6 +28,8 @@
 
 package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
 
+import java.util.Random;
+
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World.Environment;
@@ -37,28 +39,36 @@ import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
+import ninja.mcknight.bukkit.mobmanager.common.util.Scratch;
 import ninja.mcknight.bukkit.mobmanager.common.util.RandomLocationGen;
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomLocationGen.LocationResult;
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
+import ninja.mcknight.bukkit.mobmanager.spawner.config.Mob;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Region;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.RegionStats;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.SpawnStats.Failure;
+import ninja.mcknight.bukkit.mobmanager.spawner.trace.SpawnTrace;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.ChunkColumnIndex;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.FailedColumnCache;
 import ninja.mcknight.bukkit.mobmanager.spawner.util.MobSpawner;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.WorldSnapshotCache;
 
 /**
- * Handles each step of a SpawnAttempt
+ * Handles each step of a SpawnAttempt</br>
+ * Each call to {@link #run()} executes one stage, the {@link SpawnAttemptExecutor}</br>
+ * then passes the attempt on with every other attempt in the same stage</br>
+ * </br>
+ * Attempts are reused through the {@link SpawnAttemptPool}, so an attempt keeps</br>
+ * its own Location and MobSpawner instead of creating new ones
  */
 public class SpawnAttempt implements Runnable
 {
 	public enum AttemptState
 	{
-		/** Starts the attempt */
-		INITIALISE,
-		/** Generates a random location */
-		GENERATE(true),
-		/** Fetches the region of the generated location */
-		GET_REGION,
-		/** Fetches the light at that location */
-		GET_LOCATION_INFO(true),
-		/** Picks a mob and spawns it */
-		PREPARE_MOB,
+		/** Generates a random location and fetches the light, biome, etc. at it */
+		SAMPLE_LOCATION(true),
+		/** Fetches the region of the generated location and picks a mob */
+		SELECT_MOB,
 		/** Spawns the mob */
 		SPAWN(true),
 		/** Done :3 */
@@ -76,11 +86,12 @@ public class SpawnAttempt implements Runnable
 			this.sync = sync;
 		}
 		
+		private static final AttemptState[] values = values();
+		
 		public AttemptState getNext()
 		{
 			int next = ordinal() + 1;
-			AttemptState[] states = values();
-			return next < states.length ? states[next] : FINISH;
+			return next < values.length ? values[next] : FINISH;
 		}
 		
 		public boolean after(AttemptState state)
@@ -90,13 +101,17 @@ public class SpawnAttempt implements Runnable
 	}
 	
 	private final SpawnAttemptExecutor saExecutor;
-	private final Player player;
-	private final int maxRange, minRange, heightRange;
+	/** The partition whose queues and pool this attempt uses */
+	final SpawnPartition partition;
+	private Player player;
+	/** Snapshots of the chunks around the player, null if they are not used */
+	private WorldSnapshotCache snapshots;
+	private int maxRange, minRange, heightRange;
 	private boolean outsideSpawnLimits;
 	
-	private AttemptState currentState = AttemptState.INITIALISE;
+	private AttemptState currentState = AttemptState.FINISH;
 	
-	private Location spawnLocation;
+	private final Location spawnLocation = new Location(null, 0.0, 0.0, 0.0);
 	boolean wideLoc, tallLoc;
 	private Region spawnRegion;
 	private int playerY;
@@ -107,76 +122,204 @@ public class SpawnAttempt implements Runnable
 	private int time;
 	private Environment environment;
 	
+	/** The spawner of the selected mob, null until a mob is selected */
 	private MobSpawner spawner;
+	private final MobSpawner mobSpawner = new MobSpawner();
+	
+	private long created;
+	
+	/** The trace this attempt is recorded in, null if not tracing */
+	private SpawnTrace trace;
+	private int traceId;
 	
-	public SpawnAttempt(SpawnAttemptExecutor saExecutor, Player player, int maxRange, int minRange, int heightRange, boolean outsideSpawnLimits)
+	/** The stats this attempt is sampled into, null if it is not sampled */
+	private RegionStats stats;
+	/** Why the attempt finished early, null if it did not */
+	private Failure failure;
+	/** The System.nanoTime() when the attempt became ready for its current stage */
+	private long readyAt;
+	
+	SpawnAttempt(SpawnAttemptExecutor saExecutor, SpawnPartition partition)
 	{
 		this.saExecutor = saExecutor;
+		this.partition = partition;
+	}
+	
+	/**
+	 * Starts a new attempt from the first stage
+	 */
+	void init(Player player, WorldSnapshotCache snapshots, int maxRange, int minRange, int heightRange, boolean outsideSpawnLimits, RegionStats stats)
+	{
 		this.player = player;
+		this.snapshots = snapshots;
 		
 		this.maxRange = maxRange;
 		this.minRange = minRange;
 		this.heightRange = heightRange;
 		this.outsideSpawnLimits = outsideSpawnLimits;
+		
+		currentState = AttemptState.SAMPLE_LOCATION;
+		created = System.nanoTime();
+		
+		this.stats = stats;
+		failure = null;
+		readyAt = created;
+		
+		trace = saExecutor.getTrace();
+		traceId = trace != null ? trace.nextAttemptId() : 0;
+	}
+	
+	/**
+	 * Releases everything the attempt references so a pooled attempt</br>
+	 * does not keep players, worlds or regions loaded
+	 */
+	void clear()
+	{
+		currentState = AttemptState.FINISH;
+		player = null;
+		snapshots = null;
+		spawnLocation.setWorld(null);
+		spawnRegion = null;
+		biome = null;
+		materialBelow = null;
+		environment = null;
+		spawner = null;
+		mobSpawner.clear();
+		trace = null;
+		stats = null;
+	}
+	
+	/**
+	 * Returns the finished attempt to its partitions pool
+	 */
+	void release()
+	{
+		partition.pool.release(this);
+	}
+	
+	/**
+	 * Copies the location into the attempts own location
+	 */
+	private void setSpawnLocation(Location loc)
+	{
+		spawnLocation.setWorld(loc.getWorld());
+		spawnLocation.setX(loc.getX());
+		spawnLocation.setY(loc.getY());
+		spawnLocation.setZ(loc.getZ());
+		spawnLocation.setYaw(loc.getYaw());
+		spawnLocation.setPitch(loc.getPitch());
 	}
 	
 	@Override
 	public void run()
+	{
+		if (trace == null && stats == null)
+		{
+			runStage();
+			return;
+		}
+		
+		AttemptState state = currentState;
+		boolean sync = mustRunSync();
+		long start = System.nanoTime();
+		
+		runStage();
+		
+		long end = System.nanoTime();
+		if (stats != null)
+			record(sync, start, end);
+		
+		if (trace == null)
+			return;
+		
+		trace.stage(traceId, state.ordinal(), currentState == AttemptState.FINISH, end - start);
+		
+		if (state == AttemptState.SAMPLE_LOCATION && currentState != AttemptState.FINISH)
+		{
+			int flags = (wideLoc ? SpawnTrace.FLAG_WIDE : 0) | (tallLoc ? SpawnTrace.FLAG_TALL : 0) | (outsideSpawnLimits ? SpawnTrace.FLAG_OUTSIDE_LIMITS : 0);
+			trace.location(traceId, spawnLocation.getWorld().getName(), spawnLocation.getBlockX(), spawnLocation.getBlockY(), spawnLocation.getBlockZ(),
+					playerY, heightRange, lightLevel, name(biome), name(materialBelow), time, name(environment), flags);
+		}
+		else if (state == AttemptState.SELECT_MOB)
+		{
+			trace.selection(traceId, spawnRegion != null ? spawnRegion.name : null, spawner != null ? spawner.getMob().getMobType().toString() : null);
+		}
+	}
+	
+	private static String name(Enum<?> value)
+	{
+		return value != null ? value.name() : null;
+	}
+	
+	/**
+	 * Records the stage which just ran into the sampled stats
+	 */
+	private void record(boolean sync, long start, long end)
+	{
+		stats.queueWait.record(start - readyAt);
+		if (sync)
+			stats.syncStage.record(end - start);
+		readyAt = end;
+		
+		if (currentState == AttemptState.FINISH)
+		{
+			if (failure != null)
+				stats.failed(failure);
+			else
+				stats.spawned();
+		}
+	}
+	
+	/**
+	 * Runs the current stage
+	 */
+	private void runStage()
 	{
 		// If the player is invalid there is no need to continue
-		if (!player.isValid())
+		if (finish(player == null || !player.isValid(), Failure.OTHER))
+			return;
+
+		if (currentState == AttemptState.FINISH)
 			return;
 
 		try
 		{
-			// Execute a step depending on the current state
-			switch (currentState)
-			{
-			case INITIALISE:
-				break;
-			case GENERATE:
-				stateMethodGenerate();
-				break;
-			case GET_REGION:
-				stateMethodGetRegion();
-				break;
-			case GET_LOCATION_INFO:
-				stateMethodGetLocationInfo();
-				break;
-			case PREPARE_MOB:
-				stateMethodPrepareMob();
-				break;
-			case SPAWN:
-				stateMethodSpawn();
-				break;
-			case FINISH:
-				return;
-			}
+			runCurrentStage();
 		}
 		catch (Exception e)
 		{
 			MMComponent.getSpawner().severe("Error occured when attempting to spawn a mob", e);
-			finish(true);
+			finish(true, Failure.OTHER);
 			return;
 		}
 		
-		// Fetch the next state
-		AttemptState nextState = currentState.getNext();
-		
-		// Check if we are not finished
-		if (nextState != AttemptState.FINISH)
+		// Move on to the next stage, the executor picks it up from here
+		currentState = currentState.getNext();
+	}
+	
+	/**
+	 * Does the work of the current stage, stages which fail finish the attempt
+	 */
+	void runCurrentStage()
+	{
+		// Execute a stage depending on the current state
+		switch (currentState)
 		{
-			// Check if the next state can be executed now
-//			boolean runNow = nextState.sync == currentState.sync;
-			// Update the current state
-			currentState = nextState;
-			
-			// Execute the task
-			// If the next state can be run in the same thread we execute it right away
-//			if (runNow)
-//				run();
-//			else
-			saExecutor.addTask(this, currentState.sync);
+		case SAMPLE_LOCATION:
+			if (snapshots != null)
+				stateMethodSampleSnapshots();
+			else if (!stateMethodGenerate())
+				stateMethodGetLocationInfo();
+			break;
+		case SELECT_MOB:
+			if (!stateMethodGetRegion())
+				stateMethodPrepareMob();
+			break;
+		case SPAWN:
+			stateMethodSpawn();
+			break;
+		case FINISH:
+			break;
 		}
 	}
 	
@@ -185,60 +328,171 @@ public class SpawnAttempt implements Runnable
 		return currentState;
 	}
 	
+	/**
+	 * @return The System.nanoTime() when the attempt was created
+	 */
+	public long getCreated()
+	{
+		return created;
+	}
+	
+	/**
+	 * Finishes the attempt without running the remaining stages
+	 */
+	public void drop()
+	{
+		currentState = AttemptState.FINISH;
+		if (stats != null)
+			stats.failed(Failure.EXPIRED);
+	}
+	
+	/**
+	 * Checks if the current stage has to be run on the main thread</br>
+	 * Locations can be sampled off the main thread when ChunkSnapshots are used
+	 */
+	public boolean mustRunSync()
+	{
+		return currentState.sync && !(currentState == AttemptState.SAMPLE_LOCATION && snapshots != null);
+	}
+	
 	/**
 	 * Sets the state to finished if the condition is true
 	 * 
 	 * @param condition The condition to check
+	 * @param reason Why the attempt failed if the condition is true
 	 * 
 	 * @return The condition
 	 */
-	private boolean finish(boolean condition)
+	private boolean finish(boolean condition, Failure reason)
 	{
 		if (condition)
+		{
 			currentState = AttemptState.FINISH;
+			failure = reason;
+		}
 		return condition;
 	}
 	
 	/**
 	 * Generates a random location
+	 * 
+	 * @return True if the attempt is finished
 	 */
-	private void stateMethodGenerate()
+	private boolean stateMethodGenerate()
 	{
-		SpawnAttemptCache cache = saExecutor.threadCache.get();
+		Scratch scratch = Scratch.get();
 		
-		player.getLocation(cache.playerLoc);
-		playerY = cache.playerLoc.getBlockY();
+		player.getLocation(scratch.playerLoc);
+		playerY = scratch.playerLoc.getBlockY();
 		
-		Location spawnLoc = RandomLocationGen.getLocation(true, true, saExecutor.cfg.spawnGenerationAttempts, cache.playerLoc, maxRange, minRange, heightRange, cache.cacheLoc);
+		LocationResult result = RandomLocationGen.findLocation(true, true, saExecutor.cfg.spawnGenerationAttempts, scratch.playerLoc, maxRange, minRange, heightRange, scratch.generateLoc, saExecutor.failedColumns);
 
-		// If the location is the players location then we don't want to spawn the mob 
-		if (!finish(spawnLoc == cache.playerLoc))
+		// Columns skipped for nearby players, recent failures or unloaded chunks never reached findSafeY
+		if (finish(result != LocationResult.FOUND, result == LocationResult.NO_SAFE_Y ? Failure.UNSAFE_Y : Failure.NO_LOCATION))
+			return true;
+		
+		Location spawnLoc = scratch.generateLoc;
+		spawnLoc.setWorld(scratch.playerLoc.getWorld());
+		// The attempt keeps its own copy, the scratch location is reused by the next attempt
+		setSpawnLocation(spawnLoc);
+		Block b = spawnLocation.getBlock();
+		wideLoc = RandomLocationGen.isWideLocation(b);
+		tallLoc = RandomLocationGen.isTallLocation(b);
+		return false;
+	}
+	
+	/**
+	 * Generates a random location and fetches information about it</br>
+	 * using only ChunkSnapshots, so it can be run off the main thread
+	 * 
+	 * @return True if the attempt is finished
+	 */
+	private boolean stateMethodSampleSnapshots()
+	{
+		Scratch scratch = Scratch.get();
+		
+		player.getLocation(scratch.playerLoc);
+		playerY = scratch.playerLoc.getBlockY();
+		
+		Location loc = scratch.generateLoc;
+		loc.setWorld(snapshots.getWorld());
+		Random random = RandomUtil.get(snapshots.getWorld());
+		FailedColumnCache failedColumns = saExecutor.failedColumns;
+		boolean unsafe = false;
+		
+		for (int i = 0; i < saExecutor.cfg.spawnGenerationAttempts; ++i)
 		{
-			spawnLoc.setWorld(cache.playerLoc.getWorld());
-			spawnLocation = LocationCache.getCachedLocation(spawnLoc);
-			Block b = spawnLocation.getBlock();
-			wideLoc = RandomLocationGen.isWideLocation(b);
-			tallLoc = RandomLocationGen.isTallLocation(b);
+			RandomLocationGen.getCircularLocation(scratch.playerLoc.getBlockX(), scratch.playerLoc.getBlockZ(), maxRange, minRange, loc, random);
+			
+			int x = loc.getBlockX(), z = loc.getBlockZ();
+			
+			// Chunks which have not been cached yet count as a failed attempt
+			ChunkColumnIndex index = snapshots.getColumnIndex(x >> 4, z >> 4);
+			if (index == null)
+				continue;
+			
+			// Skip columns which recently failed
+			if (failedColumns != null && failedColumns.isFailed(snapshots.getWorld(), x, z, playerY, heightRange))
+				continue;
+			
+			// Same Y range as RandomLocationGen.findSafeY()
+			int y = index.pickStandingY(x & 15, z & 15, playerY - heightRange + 2, playerY + heightRange + 1, random);
+			if (y == -1)
+			{
+				unsafe = true;
+				if (failedColumns != null)
+					failedColumns.addFailure(snapshots.getWorld(), x, z, playerY, heightRange);
+				continue;
+			}
+			loc.setY(y);
+			
+			// Keep away from every player, like RandomLocationGen.getLocation() does
+			if (snapshots.playerNear(loc.getX(), y, loc.getZ(), minRange, heightRange))
+				continue;
+			
+			wideLoc = snapshots.isWideLocation(x, y, z);
+			tallLoc = index.isTall(x & 15, y, z & 15);
+			
+			lightLevel = snapshots.getLightLevel(x, y, z);
+			biome = snapshots.getBiome(x, z);
+			materialBelow = snapshots.getMaterial(x, y - 1, z);
+			
+			time = (int) snapshots.getTime();
+			environment = snapshots.getWorld().getEnvironment();
+			
+			loc.setYaw(random.nextFloat() * 360.0F);
+			loc.setPitch(0.0F);
+			setSpawnLocation(loc);
+			return false;
 		}
+		
+		return finish(true, unsafe ? Failure.UNSAFE_Y : Failure.NO_LOCATION);
 	}
 	
 	/**
 	 * Fetches a region which location is in and ensures one exists
+	 * 
+	 * @return True if the attempt is finished
 	 */
-	private void stateMethodGetRegion()
+	private boolean stateMethodGetRegion()
 	{
 		spawnRegion = MMComponent.getSpawner().getConfig().getRegion(spawnLocation);
 		
 		// Check if we actually got a region
-		if (finish(spawnRegion == null))
-			return;
+		if (finish(spawnRegion == null, Failure.NO_REGION))
+			return true;
+		
+		// From here on the attempt counts towards the region it spawns in
+		if (stats != null)
+			stats = saExecutor.stats.get(spawnLocation.getWorld().getName(), spawnRegion.name);
 
 		// If we are not outside player limits check if we are outside region limits
+		boolean playerLimited = outsideSpawnLimits;
 		if (!outsideSpawnLimits)
 			outsideSpawnLimits = !spawnRegion.withinAliveLimit();
 		
 		// If we are outside spawn limits and can't ignore them we are finished
-		finish(outsideSpawnLimits && !spawnRegion.ignoreMobLimits());
+		return finish(outsideSpawnLimits && !spawnRegion.ignoreMobLimits(), playerLimited ? Failure.PLAYER_LIMIT : Failure.REGION_LIMIT);
 	}
 	
 	/**
@@ -262,10 +516,16 @@ public class SpawnAttempt implements Runnable
 	 */
 	private void stateMethodPrepareMob()
 	{
-		// Fetch the mob spawner
-		spawner = spawnRegion.spawnMob(player, playerY, heightRange, spawnLocation, wideLoc, tallLoc, time, lightLevel, biome, materialBelow, environment, outsideSpawnLimits);
+		// Fetch the mob and set up the spawner
+		Mob mob = spawnRegion.pickMob(player, spawnLocation, wideLoc, tallLoc, time, lightLevel, biome, materialBelow, environment, outsideSpawnLimits);
+		spawner = mob != null ? mobSpawner.set(spawnRegion, player, spawnLocation, mob, playerY, heightRange) : null;
 		// If we didn't get one we are finished
-		finish(spawner == null);
+		if (!finish(spawner == null, Failure.REQUIREMENTS))
+			return;
+		
+		// Sampled attempts find out which check stopped most mobs
+		if (stats != null)
+			failure = spawnRegion.getFailure(player, spawnLocation, wideLoc, tallLoc, time, lightLevel, biome, materialBelow, environment, outsideSpawnLimits);
 	}
 	
 	/**
@@ -273,12 +533,6 @@ public class SpawnAttempt implements Runnable
 	 */
 	private void stateMethodSpawn()
 	{
-		spawner.spawn();
-	}
-	
-	@Override
-	public int hashCode()
-	{
-		return currentState.ordinal();
+		finish(!spawner.spawn(), Failure.SPAWN_FAILED);
 	}
 }
@@ -28,156 +28,814 @@
 
 package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
 
-import java.util.Comparator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
 import ninja.mcknight.bukkit.mobmanager.common.util.MMThreadFactory;
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
+import ninja.mcknight.bukkit.mobmanager.common.util.Scratch;
+import ninja.mcknight.bukkit.mobmanager.common.util.ThreadAllocation;
 import ninja.mcknight.bukkit.mobmanager.limiter.world.MMWorld;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Region;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.SpawnerConfig;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.RegionStats;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.SpawnStats;
+import ninja.mcknight.bukkit.mobmanager.spawner.stats.SpawnStats.Failure;
+import ninja.mcknight.bukkit.mobmanager.spawner.trace.SpawnTrace;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.FailedColumnCache;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.WorldSnapshotCache;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.SnapshotCacheTask;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder.PlayerClusters.QueuedPlayer;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder.SpawnAttempt.AttemptState;
 import org.bukkit.GameMode;
 import org.bukkit.Location;
 import org.bukkit.World.Environment;
 import org.bukkit.entity.Player;
 
-import ninja.mcknight.bukkit.mobmanager.common.util.ThreadCache;
 
 /**
- * Handles initialisation and execution of individual spawn attempts
+ * Handles initialisation and execution of individual spawn attempts</br>
+ * </br>
+ * Attempts are run in batches, one batch per stage:</br>
+ * SAMPLE_LOCATION - Every new attempt on the main thread (Worker threads with ChunkSnapshots)</br>
+ * SELECT_MOB - Split between the worker threads</br>
+ * SPAWN - Every selected attempt on the main thread</br>
+ * </br>
+ * Main thread stages stop once the {@link SpawnScheduler} budget is used up,</br>
+ * the remaining attempts wait for the next run</br>
+ * </br>
+ * Finished attempts go back to the {@link SpawnAttemptPool}, and the bytes allocated</br>
+ * while running attempts are counted so the stats show the garbage made per attempt.</br>
+ * The jobs handed to the worker threads and the tasks they split into are reused too,</br>
+ * a job is taken back at the start of the first run after every one of its tasks is done</br>
+ * </br>
+ * With SpawnFinderWorkStealing the worker threads are a ForkJoinPool and each world</br>
+ * is its own {@link SpawnPartition}. Each partition submits its own batches, which are</br>
+ * split into tasks that idle threads steal, so a busy world is spread over every thread.
  */
-public class SpawnAttemptExecutor implements Runnable
+public class SpawnAttemptExecutor
 {
+	/** Minimum number of attempts given to each worker thread when selecting mobs */
+	private static final int MIN_SELECT_BATCH = 16;
+	/** Minimum number of players given to each task when starting attempts */
+	private static final int MIN_PLAYER_BATCH = 4;
+	/** Tasks which can wait for a worker thread, the main thread runs any more itself */
+	private static final int MAX_QUEUED_TASKS = 1024;
+	/** Name of the partition used when every world shares one */
+	private static final String SHARED_PARTITION = "*";
+	
 	protected final SpawnFinder spawnFinder;
 	protected final SpawnerConfig cfg;
-	private final Queue<Player> playerQueue;
+	private final Queue<QueuedPlayer> playerQueue;
+	/** Where started players are returned to once their job is done */
+	private final PlayerClusters clusters;
+	/** ChunkSnapshot cache, null if UseChunkSnapshots is disabled */
+	private final SnapshotCacheTask snapshotCache;
+	/** The trace new attempts are recorded in, null if not tracing */
+	private volatile SpawnTrace trace;
+	/** Columns where attempts recently failed, null if FailedColumnMaxAge is 0 */
+	protected final FailedColumnCache failedColumns;
+	/** Sampled per-stage stats, null if SpawnStatsSampleRate is 0 */
+	protected final SpawnStats stats;
 	
+	private final int threads;
 	private final MMThreadFactory threadFactory;
-	private ThreadPoolExecutor executor;
-	protected final ThreadCache<SpawnAttemptCache> threadCache;
+	private final ExecutorService executor;
+	/** The executor if it is work stealing, otherwise null */
+	private final ForkJoinPool forkJoinPool;
 	
-	private int currentThreads;
+	/** Partitions by name, only used on the main thread */
+	private final HashMap<String, SpawnPartition> partitions = new HashMap<String, SpawnPartition>();
+	/** The partitions in the order they were created, replaced rather than modified */
+	private volatile List<SpawnPartition> partitionList = Collections.emptyList();
+	/** Attempts drained from the sample queues, only used on the main thread */
+	private final ArrayList<SpawnAttempt> drained = new ArrayList<SpawnAttempt>();
 	
-	private final PriorityBlockingQueue<Runnable> syncWorkerQueue;
+	private final SpawnScheduler scheduler;
+	/** Attempts deferred to the next run, only used on the main thread */
+	private final ArrayDeque<SpawnAttempt> pendingSamples = new ArrayDeque<SpawnAttempt>();
+	private final ArrayDeque<SpawnAttempt> pendingSpawns = new ArrayDeque<SpawnAttempt>();
 	
-	private int ticksLeft;
+	/** Jobs handed to the worker threads and jobs ready for reuse, only used on the main thread */
+	private final ArrayList<Job> running = new ArrayList<Job>();
+	private final ArrayDeque<SelectJob> freeSelectJobs = new ArrayDeque<SelectJob>();
+	private final ArrayDeque<PlayerJob> freePlayerJobs = new ArrayDeque<PlayerJob>();
 
-	public SpawnAttemptExecutor(SpawnFinder spawnFinder, Queue<Player> playerQueue)
+	public SpawnAttemptExecutor(SpawnFinder spawnFinder, Queue<QueuedPlayer> playerQueue, PlayerClusters clusters)
+	{
+		this(spawnFinder, playerQueue, clusters, MMComponent.getSpawner().getConfig());
+	}
+	
+	private SpawnAttemptExecutor(SpawnFinder spawnFinder, Queue<QueuedPlayer> playerQueue, PlayerClusters clusters, SpawnerConfig cfg)
+	{
+		this(spawnFinder, playerQueue, clusters, cfg, cfg.spawnFinderThreads, cfg.spawnFinderWorkStealing,
+				cfg.spawnTickBudget, cfg.spawnAttemptMaxAge * 50000000L);
+	}
+	
+	/**
+	 * @param cfg The spawner config, only read by the attempts and when starting players
+	 * @param threads The number of worker threads
+	 * @param workStealing True if the worker threads are a ForkJoinPool
+	 * @param budgetPerTick The main thread time attempts can use each tick in nanoseconds
+	 * @param maxAge How long attempts can wait for the main thread in nanoseconds
+	 */
+	SpawnAttemptExecutor(SpawnFinder spawnFinder, Queue<QueuedPlayer> playerQueue, PlayerClusters clusters, SpawnerConfig cfg,
+			int threads, boolean workStealing, long budgetPerTick, long maxAge)
 	{
 		this.spawnFinder = spawnFinder;
-		this.cfg = MMComponent.getSpawner().getConfig();
+		this.cfg = cfg;
 		this.playerQueue = playerQueue;
+		this.clusters = clusters;
+		this.snapshotCache = MMComponent.getSpawner().getSnapshotCache();
+		this.failedColumns = MMComponent.getSpawner().getFailedColumns();
+		this.stats = MMComponent.getSpawner().getStats();
 		
 		threadFactory = new MMThreadFactory(MMComponent.Component.SPAWNER, "SpawnFinder");
-		this.threadCache = new ThreadCache<SpawnAttemptCache>(SpawnAttemptCache.class);
+		scheduler = new SpawnScheduler(budgetPerTick, maxAge);
 		
-		int c = cfg.spawnFinderThreads;
-		Comparator<Object> taskComparator = new Comparator<Object>()
+		this.threads = threads;
+		if (workStealing)
 		{
-			@Override
-			public int compare(Object arg0, Object arg1)
-			{
-				return arg0.hashCode() > arg1.hashCode() ? -1 : 1;
-			}
+			// Async mode runs forked tasks in the order they were forked, we never join them
+			forkJoinPool = new ForkJoinPool(threads, threadFactory, null, true);
+			executor = forkJoinPool;
+		}
+		else
+		{
+			// A bounded queue never grows, when it is full the main thread runs the task
+			forkJoinPool = null;
+			executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.NANOSECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_TASKS),
+					threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+	}
+	
+	/**
+	 * Stops the worker threads, attempts which have not finished are dropped
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+		for (SpawnPartition partition : partitionList)
+			partition.clear();
+		pendingSamples.clear();
+		pendingSpawns.clear();
+		running.clear();
+	}
+	
+	public SpawnScheduler getScheduler()
+	{
+		return scheduler;
+	}
+	
+	/**
+	 * @return The partitions spawn attempts are split into
+	 */
+	public List<SpawnPartition> getPartitions()
+	{
+		return partitionList;
+	}
+	
+	SpawnTrace getTrace()
+	{
+		return trace;
+	}
+	
+	/**
+	 * Fetches the partition for the players world, creating it if needed</br>
+	 * <b>Note: Main thread only</b>
+	 */
+	private SpawnPartition getPartition(Player player)
+	{
+		return getPartition(forkJoinPool != null ? player.getWorld().getName() : SHARED_PARTITION);
+	}
+	
+	/**
+	 * Fetches the partition with the given name, creating it if needed</br>
+	 * <b>Note: Main thread only</b>
+	 */
+	SpawnPartition getPartition(String name)
+	{
+		SpawnPartition partition = partitions.get(name);
+		if (partition == null)
+		{
+			partitions.put(name, partition = new SpawnPartition(name, this));
 			
-		};
-		this.syncWorkerQueue =  new PriorityBlockingQueue<Runnable>(20, taskComparator);
-		this.executor = new ThreadPoolExecutor(c, c, 0L, TimeUnit.NANOSECONDS, new PriorityBlockingQueue<Runnable>(20, taskComparator), threadFactory);
+			List<SpawnPartition> list = new ArrayList<SpawnPartition>(partitionList);
+			list.add(partition);
+			partitionList = list;
+		}
+		return partition;
 	}
 	
 	/**
 	 * Starts the SpawnAttemptExecutor
 	 * 
 	 * @param ticksLeft The number of ticks left before the next spawn
+	 * @param ticksSinceLast The number of ticks since the last execute
+	 */
+	public void execute(int ticksLeft, int ticksSinceLast)
+	{
+		long allocated = ThreadAllocation.getAllocatedBytes();
+		scheduler.startRun(ticksSinceLast);
+		
+		// Pick up traces started or stopped since the last run
+		SpawnTrace current = MMComponent.getSpawner().getTrace();
+		trace = current != null && current.isOpen() ? current : null;
+		if (trace != null)
+			trace.cycle(ticksLeft);
+		
+		// Split the players queued this cycle between the partitions
+		QueuedPlayer queued;
+		while ((queued = playerQueue.poll()) != null)
+		{
+			if (queued.player.isValid())
+				getPartition(queued.player).players.add(queued);
+			else
+				clusters.release(queued);
+		}
+		
+		runStages();
+		
+		// Start the attempts for this runs share of each partitions players
+		List<SpawnPartition> partitionList = this.partitionList;
+		long now = System.nanoTime();
+		for (int p = 0; p < partitionList.size(); ++p)
+		{
+			SpawnPartition partition = partitionList.get(p);
+			int size = partition.players.size();
+			int count = ticksLeft != 0 ? size / ticksLeft : size;
+			if (count == 0)
+				count = size;
+			
+			if (count > 0)
+			{
+				PlayerJob job = takePlayerJob(partition, count);
+				for (int i = 0; i < count; ++i)
+					job.players[i] = partition.players.poll();
+				
+				submit(job);
+			}
+			
+			partition.updateRate(now);
+		}
+		
+		if (allocated >= 0L)
+			scheduler.allocated(ThreadAllocation.getAllocatedBytes() - allocated);
+	}
+	
+	/**
+	 * Runs every stage of the attempts which are already started, spawns the mobs</br>
+	 * selected since the last run, samples the new attempts and submits them to select a mob
 	 */
-	public void execute(int ticksLeft)
+	void runStages()
 	{
-		boolean runMain = !playerQueue.isEmpty();
+		reclaimJobs();
+		
+		List<SpawnPartition> partitionList = this.partitionList;
+		
+		// Spawn mobs which were selected since the last run
+		for (int p = 0; p < partitionList.size(); ++p)
+			drain(partitionList.get(p).spawnQueue, pendingSpawns);
+		runPending(pendingSpawns, false);
+		
+		// Sample locations for attempts created since the last run
+		// Attempts using ChunkSnapshots go straight to their partitions select batch
+		for (int p = 0; p < partitionList.size(); ++p)
+		{
+			SpawnPartition partition = partitionList.get(p);
+			drain(partition.sampleQueue, drained);
+			for (int i = 0; i < drained.size(); ++i)
+			{
+				SpawnAttempt attempt = drained.get(i);
+				if (attempt.mustRunSync())
+					pendingSamples.add(attempt);
+				else
+					partition.selectBatch.add(attempt);
+			}
+			drained.clear();
+		}
+		runPending(pendingSamples, true);
 		
-		if (runMain)
+		scheduler.setPending(pendingSpawns.size() + pendingSamples.size());
+		
+		// Select mobs off the main thread, one batch per partition
+		// The job takes the batch and leaves the partition its empty list to fill
+		for (int p = 0; p < partitionList.size(); ++p)
 		{
-			// Set ticks left
-			this.ticksLeft = ticksLeft;
+			SpawnPartition partition = partitionList.get(p);
+			if (partition.selectBatch.isEmpty())
+				continue;
 			
-			// Fetch the max number of threads
-			currentThreads = cfg.spawnFinderThreads;
+			SelectJob job = takeSelectJob(partition);
+			ArrayList<SpawnAttempt> batch = partition.selectBatch;
+			partition.selectBatch = job.attempts;
+			job.attempts = batch;
+			job.size = batch.size();
 			
-			// Find a reasonable number of threads to run the main task in
-			for (; currentThreads > 1 && playerQueue.size() / currentThreads <= 2; --currentThreads);
+			submit(job);
+		}
+	}
+	
+	/**
+	 * Takes back the jobs which every worker thread is done with so they can be reused
+	 */
+	private void reclaimJobs()
+	{
+		for (int i = running.size() - 1; i >= 0; --i)
+		{
+			Job job = running.get(i);
+			if (!job.isDone())
+				continue;
 			
-			// Execute the main tasks
-			for (int i = 0; i < currentThreads; ++i)
-				executor.execute(this);
+			// The order of running jobs does not matter, so the last one fills the gap
+			running.set(i, running.get(running.size() - 1));
+			running.remove(running.size() - 1);
+			job.recycle();
 		}
-		else
-			currentThreads = 0;
+	}
+	
+	private SelectJob takeSelectJob(SpawnPartition partition)
+	{
+		SelectJob job = freeSelectJobs.poll();
+		if (job == null)
+			job = new SelectJob();
+		
+		job.partition = partition;
+		return job;
+	}
+	
+	private PlayerJob takePlayerJob(SpawnPartition partition, int count)
+	{
+		PlayerJob job = freePlayerJobs.poll();
+		if (job == null)
+			job = new PlayerJob();
+		
+		if (job.players.length < count)
+			job.players = new QueuedPlayer[Math.max(count, job.players.length * 2)];
+		
+		job.partition = partition;
+		job.size = count;
+		return job;
+	}
+	
+	/**
+	 * Splits the job between the worker threads
+	 */
+	private void submit(Job job)
+	{
+		running.add(job);
 		
-		// Run any tasks in the worker queue (Probably full)
-		Runnable task;
-		while ((task = syncWorkerQueue.poll()) != null)
+		if (forkJoinPool != null)
 		{
-			task.run();
+			// Tasks are Runnable too, so say which execute is wanted
+			forkJoinPool.execute((ForkJoinTask<?>) job.task(0, job.size));
+			return;
 		}
+		
+		int threads = Math.max(1, Math.min(this.threads, job.size / job.minBatch()));
+		int batchSize = (job.size + threads - 1) / threads;
+		
+		for (int start = 0; start < job.size; start += batchSize)
+			executor.execute(job.task(start, Math.min(start + batchSize, job.size)));
 	}
 	
-	@Override
-	public void run()
+	/**
+	 * Runs every stage of the attempts which does not need the main thread</br>
+	 * Attempts with a mob selected are queued to be spawned
+	 */
+	private void selectMobs(SpawnPartition partition, List<SpawnAttempt> attempts, int from, int to)
 	{
-		int checkPlayers = ticksLeft != 0 ? playerQueue.size() / ticksLeft / currentThreads : playerQueue.size();
-		if (checkPlayers == 0)
-			checkPlayers = playerQueue.size();
+		long allocated = ThreadAllocation.getAllocatedBytes();
+		
+		for (int i = from; i < to; ++i)
+		{
+			SpawnAttempt attempt = attempts.get(i);
+			
+			while (attempt.getState() != AttemptState.FINISH && !attempt.mustRunSync())
+				attempt.run();
+			
+			if (attempt.getState() == AttemptState.SPAWN)
+			{
+				synchronized (partition.spawnQueue)
+				{
+					partition.spawnQueue.add(attempt);
+				}
+			}
+			else
+				attempt.release();
+		}
 		
-		Location playerLoc = LocationCache.getCachedLocation();
+		if (allocated >= 0L)
+			partition.allocated(ThreadAllocation.getAllocatedBytes() - allocated);
+	}
+	
+	/**
+	 * Runs the current stage of the pending attempts on the main thread</br>
+	 * until the schedulers budget is used up</br>
+	 * Attempts which waited too long are dropped, the rest stay pending
+	 * 
+	 * @param pending The attempts to run, oldest first
+	 * @param select True if attempts which reach SELECT_MOB are added to their partitions select batch
+	 */
+	private void runPending(ArrayDeque<SpawnAttempt> pending, boolean select)
+	{
+		long now = System.nanoTime();
 		
-		Player player;
-		while (checkPlayers-- > 0 && (player = playerQueue.poll()) != null)
+		SpawnAttempt attempt;
+		while ((attempt = pending.peek()) != null)
 		{
-			if (!player.isValid())
+			// Dropping is cheap so expired attempts are removed even without budget
+			if (scheduler.isExpired(attempt, now))
+			{
+				pending.poll();
+				attempt.drop();
+				attempt.release();
+				scheduler.dropped();
 				continue;
+			}
 			
-			// Check if the player is in creative mode
-			if (cfg.ignoreCreativePlayers && player.getGameMode() == GameMode.CREATIVE)
-				continue;
+			if (!scheduler.hasTime())
+				break;
 			
-			// Find the region the player is in
-			player.getLocation(playerLoc);
-			Region playerRegion = cfg.getRegion(playerLoc);
+			pending.poll();
+			attempt.run();
 			
-			// Check if we can spawn in this region
-			if (playerRegion == null || playerRegion.spawnAttempts <= 0)
+			if (attempt.getState() == AttemptState.FINISH)
+				attempt.release();
+			else if (select && attempt.getState() == AttemptState.SELECT_MOB)
+				attempt.partition.selectBatch.add(attempt);
+		}
+		
+		scheduler.deferred(pending.size());
+	}
+	
+	/**
+	 * Moves the attempts which are currently in the queue into the collection
+	 */
+	private static void drain(ArrayDeque<SpawnAttempt> queue, Collection<SpawnAttempt> into)
+	{
+		synchronized (queue)
+		{
+			SpawnAttempt attempt;
+			while ((attempt = queue.poll()) != null)
+				into.add(attempt);
+		}
+	}
+	
+	/**
+	 * Starts the spawn attempts of the players in the range</br>
+	 * Runs on several workers at once
+	 * 
+	 * @param task The task starting the players, its batch is reused to take attempts from the pool
+	 */
+	private void startAttempts(SpawnPartition partition, QueuedPlayer[] players, int from, int to, JobTask task)
+	{
+		long allocated = ThreadAllocation.getAllocatedBytes();
+		
+		// Each worker uses its own scratch location
+		Location playerLoc = Scratch.get().taskLoc;
+		
+		for (int p = from; p < to; ++p)
+		{
+			QueuedPlayer queued = players[p];
+			if (!queued.player.isValid())
 				continue;
 			
-			// Check if the player already has too many mobs spawned around them
-			boolean outsideSpawnLimits = playerRegion.maxPlayerMobs > 0 && spawnFinder.getMobCount(player, playerRegion.playerMobCooldown) >= playerRegion.maxPlayerMobs;
-
-			// If we are outside of spawn limits continue
-			// Unless the region has mobs which can ignore the spawn limits
-			if (outsideSpawnLimits && !playerRegion.ignoreMobLimits())
+			// Check if the player is in creative mode
+			if (cfg.ignoreCreativePlayers && queued.player.getGameMode() == GameMode.CREATIVE)
 				continue;
 			
-			// Find the max spawn range for the world
-			MMWorld world = MMComponent.getLimiter().getWorld(playerLoc.getWorld());
-			int yHeight = world.getWorld().getEnvironment() == Environment.NORMAL ? playerLoc.getBlockY() : Short.MAX_VALUE;
+			task.batch = startPlayer(partition, queued, playerLoc, task.batch, stats != null && stats.sample());
+		}
+		
+		if (allocated >= 0L)
+			partition.allocated(ThreadAllocation.getAllocatedBytes() - allocated);
+	}
+	
+	/**
+	 * Starts the spawn attempts of one player
+	 * 
+	 * @param playerLoc Set to the players location
+	 * @param batch Reused to take attempts from the pool
+	 * @param sampled True if the player is sampled into the stats
+	 * 
+	 * @return The batch, or a larger one if it was too small
+	 */
+	private SpawnAttempt[] startPlayer(SpawnPartition partition, QueuedPlayer queued, Location playerLoc, SpawnAttempt[] batch, boolean sampled)
+	{
+		long start = sampled ? System.nanoTime() : 0L;
+		
+		// Find the region the player is in
+		queued.player.getLocation(playerLoc);
+		Region playerRegion = cfg.getRegion(playerLoc);
+		
+		if (!sampled)
+			return startPlayer(partition, queued, playerLoc, playerRegion, batch, null);
+		
+		// Sampled players are recorded against the region they were started in
+		RegionStats playerStats = stats.get(playerLoc.getWorld().getName(), playerRegion != null ? playerRegion.name : null);
+		batch = startPlayer(partition, queued, playerLoc, playerRegion, batch, playerStats);
+		playerStats.player(System.nanoTime() - start);
+		return batch;
+	}
+	
+	/**
+	 * Starts the spawn attempts of one player in the region they are in
+	 * 
+	 * @param playerRegion The region the player is in, can be null
+	 * @param playerStats Where skipped players are recorded, null if not sampled
+	 */
+	private SpawnAttempt[] startPlayer(SpawnPartition partition, QueuedPlayer queued, Location playerLoc, Region playerRegion, SpawnAttempt[] batch, RegionStats playerStats)
+	{
+		Player player = queued.player;
+		
+		// Check if we can spawn in this region
+		if (playerRegion == null || playerRegion.spawnAttempts <= 0)
+		{
+			if (playerStats != null && playerRegion == null)
+				playerStats.skipped(Failure.NO_REGION);
+			return batch;
+		}
+		
+		// Check if the player already has too many mobs spawned around them
+		boolean outsideSpawnLimits = spawnFinder.isOutsideSpawnLimits(player, playerRegion);
+
+		// If we are outside of spawn limits continue
+		// Unless the region has mobs which can ignore the spawn limits
+		if (outsideSpawnLimits && !playerRegion.ignoreMobLimits())
+		{
+			if (playerStats != null)
+				playerStats.skipped(Failure.PLAYER_LIMIT);
+			return batch;
+		}
+		
+		// Find the max spawn range for the world
+		MMWorld world = MMComponent.getLimiter().getWorld(playerLoc.getWorld());
+		int yHeight = getRangeHeight(playerLoc);
+		
+		int maxRange = getMaxRange(world, playerRegion, yHeight);
+		int minRange = Math.min(playerRegion.getMinBlockRange(yHeight), maxRange);
+		int heightRange = world != null ? world.getSearchHeight() : 24;
+		
+		WorldSnapshotCache snapshots = snapshotCache != null ? snapshotCache.getCache(playerLoc.getWorld()) : null;
+		
+		// Attempt the players share of the regions spawns
+		// The fraction left over is attempted at random so the expected total stays the same
+		double share = playerRegion.spawnAttempts * queued.share;
+		int attempts = (int) share;
+		if (RandomUtil.get(player.getWorld()).nextDouble() < share - attempts)
+			++attempts;
+		
+		SpawnTrace trace = this.trace;
+		if (trace != null)
+			trace.player(playerLoc.getWorld().getName(), playerLoc.getBlockX(), playerLoc.getBlockY(), playerLoc.getBlockZ(), playerRegion.name, attempts);
+		
+		if (attempts <= 0)
+			return batch;
+		
+		if (batch.length < attempts)
+			batch = new SpawnAttempt[attempts];
+		
+		// Attempts are sampled on their own so a sampled player does not sample all of them
+		RegionStats regionStats = null;
+		partition.pool.take(batch, attempts);
+		for (int i = 0; i < attempts; ++i)
+		{
+			RegionStats attemptStats = null;
+			if (stats != null && stats.sample())
+			{
+				if (regionStats == null)
+					regionStats = stats.get(playerLoc.getWorld().getName(), playerRegion.name);
+				attemptStats = regionStats;
+			}
 			
-			int maxRange = Math.min(world != null ? world.getSearchDistance((short) yHeight) : Integer.MAX_VALUE, playerRegion.getMaxBlockRange(yHeight));
-			int minRange = Math.min(playerRegion.getMinBlockRange(yHeight), maxRange);
-			int heightRange = world != null ? world.getSearchHeight() : 24;
+			batch[i].init(player, snapshots, maxRange, minRange, heightRange, outsideSpawnLimits, attemptStats);
+		}
+		
+		synchronized (partition.sampleQueue)
+		{
+			for (int i = 0; i < attempts; ++i)
+				partition.sampleQueue.add(batch[i]);
+		}
+		partition.started(attempts);
+		
+		return batch;
+	}
+	
+	/**
+	 * Fetches the height which spawn ranges are worked out for
+	 */
+	private static int getRangeHeight(Location playerLoc)
+	{
+		return playerLoc.getWorld().getEnvironment() == Environment.NORMAL ? playerLoc.getBlockY() : Short.MAX_VALUE;
+	}
+	
+	private static int getMaxRange(MMWorld world, Region playerRegion, int yHeight)
+	{
+		return Math.min(world != null ? world.getSearchDistance((short) yHeight) : Integer.MAX_VALUE, playerRegion.getMaxBlockRange(yHeight));
+	}
+	
+	/**
+	 * Fetches the furthest distance from the player that their spawn attempts are made at
+	 * 
+	 * @param playerRegion The region the player is in
+	 * @param playerLoc The players location
+	 * 
+	 * @return The distance in blocks
+	 */
+	static int getMaxRange(Region playerRegion, Location playerLoc)
+	{
+		return getMaxRange(MMComponent.getLimiter().getWorld(playerLoc.getWorld()), playerRegion, getRangeHeight(playerLoc));
+	}
+	
+	/**
+	 * Work handed to the worker threads, split into {@link JobTask}s</br>
+	 * Only the main thread submits and recycles jobs, the worker threads add tasks as they fork
+	 */
+	private abstract class Job
+	{
+		/** The partition the job runs for */
+		SpawnPartition partition;
+		/** The number of players or attempts in the job */
+		int size;
+		
+		/** Tasks the job has been split into, guarded by the job */
+		private final ArrayList<JobTask> tasks = new ArrayList<JobTask>();
+		private int used = 0;
+		
+		/**
+		 * Fetches a task for part of the job, reusing one of the jobs earlier tasks if it can
+		 */
+		synchronized JobTask task(int from, int to)
+		{
+			JobTask task;
+			if (used < tasks.size())
+				task = tasks.get(used);
+			else
+				tasks.add(task = new JobTask(this));
+			++used;
 			
-			// Attempt 'X' spawns
-			for (int i = 0; i < playerRegion.spawnAttempts; ++i)
-				executor.execute(new SpawnAttempt(this, player, maxRange, minRange, heightRange, outsideSpawnLimits));
+			task.from = from;
+			task.to = to;
+			return task;
+		}
+		
+		/**
+		 * @return True if every task of the job is done
+		 */
+		synchronized boolean isDone()
+		{
+			for (int i = 0; i < used; ++i)
+			{
+				if (!tasks.get(i).isDone())
+					return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Makes the tasks ready to run again, only called once every task is done
+		 */
+		synchronized void resetTasks()
+		{
+			for (int i = 0; i < used; ++i)
+				tasks.get(i).reinitialize();
+			used = 0;
+			size = 0;
+			partition = null;
 		}
+		
+		/**
+		 * @return The fewest players or attempts a task is split down to
+		 */
+		abstract int minBatch();
+		
+		/**
+		 * Runs part of the job
+		 */
+		abstract void run(JobTask task, int from, int to);
+		
+		/**
+		 * Clears the job and returns it to be reused, main thread only
+		 */
+		abstract void recycle();
 	}
 	
-	protected void addTask(Runnable task, boolean sync)
+	/**
+	 * Selects the mobs of a partitions attempts
+	 */
+	private class SelectJob extends Job
 	{
-		if (sync)
-			syncWorkerQueue.add(task);
-		else
-			executor.execute(task);
+		/** Swapped with the partitions select batch when the job is taken */
+		ArrayList<SpawnAttempt> attempts = new ArrayList<SpawnAttempt>();
+		
+		@Override
+		int minBatch()
+		{
+			return MIN_SELECT_BATCH;
+		}
+		
+		@Override
+		void run(JobTask task, int from, int to)
+		{
+			selectMobs(partition, attempts, from, to);
+		}
+		
+		@Override
+		void recycle()
+		{
+			resetTasks();
+			attempts.clear();
+			freeSelectJobs.add(this);
+		}
+	}
+	
+	/**
+	 * Starts the attempts of a partitions players
+	 */
+	private class PlayerJob extends Job
+	{
+		/** The players to start, only the first size are used */
+		QueuedPlayer[] players = new QueuedPlayer[MIN_PLAYER_BATCH];
+		
+		@Override
+		int minBatch()
+		{
+			return MIN_PLAYER_BATCH;
+		}
+		
+		@Override
+		void run(JobTask task, int from, int to)
+		{
+			startAttempts(partition, players, from, to, task);
+		}
+		
+		@Override
+		void recycle()
+		{
+			for (int i = 0; i < size; ++i)
+			{
+				clusters.release(players[i]);
+				players[i] = null;
+			}
+			resetTasks();
+			freePlayerJobs.add(this);
+		}
+	}
+	
+	/**
+	 * Runs a range of a job</br>
+	 * With work stealing the range is split in half until it is small enough</br>
+	 * and the halves which are forked can be stolen by idle workers</br>
+	 * Otherwise the job was split before it was submitted and the task runs its whole range
+	 */
+	private static class JobTask extends RecursiveAction implements Runnable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final Job job;
+		int from, to;
+		/** Reused to take attempts from the pool, only used by the thread running the task */
+		SpawnAttempt[] batch = new SpawnAttempt[16];
+		
+		JobTask(Job job)
+		{
+			this.job = job;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			int start = from, end = to;
+			
+			// Fork the upper halves and keep working on the lower half
+			while (inForkJoinPool() && end - start > job.minBatch())
+			{
+				int mid = (start + end) >>> 1;
+				job.task(mid, end).fork();
+				end = mid;
+			}
+			
+			job.run(this, start, end);
+		}
+		
+		@Override
+		public void run()
+		{
+			invoke();
+		}
 	}
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
+
+import java.util.ArrayDeque;
+
+/**
+ * Reuses finished spawn attempts</br>
+ * </br>
+ * Attempts move between the worker threads and the main thread while they run,</br>
+ * so they can finish on a different thread to the one which created them.</br>
+ * Each worker takes the attempts for a whole player at once, so the lock is taken</br>
+ * once per player rather than once per attempt.
+ */
+class SpawnAttemptPool
+{
+	/** The most attempts kept for reuse, enough for a busy server's cycle */
+	private static final int MAX_POOLED = 4096;
+	
+	private final SpawnAttemptExecutor saExecutor;
+	private final SpawnPartition partition;
+	private final ArrayDeque<SpawnAttempt> free = new ArrayDeque<SpawnAttempt>();
+	
+	SpawnAttemptPool(SpawnAttemptExecutor saExecutor, SpawnPartition partition)
+	{
+		this.saExecutor = saExecutor;
+		this.partition = partition;
+	}
+	
+	/**
+	 * Takes attempts from the pool, creating new ones if it runs out
+	 * 
+	 * @param into The array to fill with attempts
+	 * @param count The number of attempts to take
+	 */
+	void take(SpawnAttempt[] into, int count)
+	{
+		int i = 0;
+		synchronized (free)
+		{
+			for (; i < count && !free.isEmpty(); ++i)
+				into[i] = free.poll();
+		}
+		
+		for (; i < count; ++i)
+			into[i] = new SpawnAttempt(saExecutor, partition);
+	}
+	
+	/**
+	 * Returns a finished attempt to the pool
+	 */
+	void release(SpawnAttempt attempt)
+	{
+		attempt.clear();
+		
+		synchronized (free)
+		{
+			if (free.size() < MAX_POOLED)
+				free.add(attempt);
+		}
+	}
+	
+	/**
+	 * Drops every pooled attempt
+	 */
+	void clear()
+	{
+		synchronized (free)
+		{
+			free.clear();
+		}
+	}
+}
@@ -28,10 +28,9 @@
 
 package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
 
-import java.util.HashMap;
-import java.util.Queue;
+import java.util.ArrayDeque;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
@@ -39,9 +38,12 @@ import org.bukkit.scheduler.BukkitRunnable;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.P;
+import ninja.mcknight.bukkit.mobmanager.common.util.PlayerSlotArray;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Mob;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Region;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.SpawnerConfig;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder.PlayerClusters.QueuedPlayer;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.MobCounter;
 import ninja.mcknight.bukkit.mobmanager.spawner.util.MobReference;
 import ninja.mcknight.bukkit.mobmanager.spawner.util.PlayerMobCounter;
 
@@ -52,48 +54,91 @@ public class SpawnFinder extends BukkitRunnable
 {
 	private final SpawnerConfig cfg;
 	
-	private final Queue<Player> playerQueue = new ConcurrentLinkedQueue<Player>();
+	/** Players queued this cycle, only used on the main thread */
+	private final ArrayDeque<QueuedPlayer> playerQueue = new ArrayDeque<QueuedPlayer>();
+	private final PlayerClusters clusters = new PlayerClusters();
 	private int ticksLeft;
+	private int runsUntilSweep = SWEEP_RUNS;
+	/** Ticks since the executor last ran, runs which only queue players skip it */
+	private int ticksSinceExecute = 0;
 	
-	private final SpawnAttemptExecutor spawnAttemptExecutor = new SpawnAttemptExecutor(this, playerQueue);
+	/** Number of ticks between each run */
+	static final int TICKS_PER_RUN = 2;
+	/** Number of runs (2 ticks each) between sweeps of spawned mobs */
+	private static final int SWEEP_RUNS = 10;
 	
-	private final ConcurrentHashMap<String, PlayerMobCounter> playerMobs; 
-	private final ConcurrentHashMap<String, HashMap<String, PlayerMobCounter>> groupedPlayerMobs;
+	private final SpawnAttemptExecutor spawnAttemptExecutor = new SpawnAttemptExecutor(this, playerQueue, clusters);
+	
+	/** Player mob counters indexed by player slot */
+	private final PlayerSlotArray<PlayerMobCounter> playerMobs = new PlayerSlotArray<PlayerMobCounter>();
+	/** Grouped limits are read by the worker threads, so lookups must not need a lock */
+	private final PlayerSlotArray<ConcurrentHashMap<String, PlayerMobCounter>> groupedPlayerMobs = new PlayerSlotArray<ConcurrentHashMap<String, PlayerMobCounter>>();
 	
 	public SpawnFinder()
 	{
 		// Fetch spawner config
 		cfg = MMComponent.getSpawner().getConfig();
 		
-		playerMobs = new ConcurrentHashMap<String, PlayerMobCounter>(cfg.spawnFinderThreads + 1);
-		groupedPlayerMobs = new ConcurrentHashMap<String, HashMap<String, PlayerMobCounter>>(cfg.spawnFinderThreads + 1);
-		
 		this.ticksLeft = cfg.ticksPerSpawn;
 		
-		runTaskTimer(P.p(), 1L, 2L);
+		runTaskTimer(P.p(), 1L, TICKS_PER_RUN);
 	}
 	
 	@Override
 	public void run()
 	{
+		ticksSinceExecute += TICKS_PER_RUN;
+		
+		// Free mobs which were removed without an event or moved away from their player
+		if (--runsUntilSweep <= 0)
+		{
+			MobReference.sweep();
+			runsUntilSweep = SWEEP_RUNS;
+		}
+		
 		// Initialise the task
 		if (ticksLeft-- == cfg.ticksPerSpawn)
 		{
-			for (Player player : Bukkit.getOnlinePlayers())
-				playerQueue.add(player);
+			if (cfg.clusterPlayers)
+				clusters.queueClustered(Bukkit.getOnlinePlayers(), playerQueue, this, cfg);
+			else
+				clusters.queueAll(Bukkit.getOnlinePlayers(), playerQueue);
 			return;
 		}
 		
-		spawnAttemptExecutor.execute(ticksLeft);
+		spawnAttemptExecutor.execute(ticksLeft, ticksSinceExecute);
+		ticksSinceExecute = 0;
 		
 		// Reset everything
 		if (ticksLeft == 0)
 		{
-			playerQueue.clear();
+			QueuedPlayer queued;
+			while ((queued = playerQueue.poll()) != null)
+				clusters.release(queued);
 			ticksLeft = cfg.ticksPerSpawn;
 		}
 	}
 	
+	public SpawnScheduler getScheduler()
+	{
+		return spawnAttemptExecutor.getScheduler();
+	}
+	
+	/**
+	 * @return The partitions spawn attempts are split into
+	 */
+	public List<SpawnPartition> getPartitions()
+	{
+		return spawnAttemptExecutor.getPartitions();
+	}
+	
+	@Override
+	public synchronized void cancel() throws IllegalStateException
+	{
+		super.cancel();
+		spawnAttemptExecutor.shutdown();
+	}
+	
 	/**
 	 * Fetches the number of mobs which the player has spawned
 	 * 
@@ -104,14 +149,23 @@ public class SpawnFinder extends BukkitRunnable
 	 */
 	public int getMobCount(Player player, int mobLimitTimeout)
 	{
-		PlayerMobCounter limiter = playerMobs.get(player.getName());
+		PlayerMobCounter limiter = playerMobs.get(player);
 		
-		return limiter != null ? limiter.getMobCount() : 0;
+		return limiter != null ? limiter.getMobCount(mobLimitTimeout) : 0;
+	}
+	
+	/**
+	 * Checks if the player already has too many mobs spawned around them for the region
+	 */
+	boolean isOutsideSpawnLimits(Player player, Region region)
+	{
+		return region.maxPlayerMobs > 0 && getMobCount(player, region.playerMobCooldown) >= region.maxPlayerMobs;
 	}
 	
 	public boolean withinGroupedLimit(Player player, Region region, Mob mob)
 	{
-		if (mob.playerLimitGroup.length() <= 0)
+		// Replayed spawn traces have no player
+		if (mob.playerLimitGroup.length() <= 0 || player == null)
 			return true;
 		
 		int limit = region.getPlayerGroupMobLimit(mob.playerLimitGroup);
@@ -119,16 +173,13 @@ public class SpawnFinder extends BukkitRunnable
 		if (limit <= 0)
 			return true;
 		
-		HashMap<String, PlayerMobCounter> playerLimiters = groupedPlayerMobs.get(player.getName());
+		ConcurrentHashMap<String, PlayerMobCounter> playerLimiters = groupedPlayerMobs.get(player);
 		
 		if (playerLimiters == null)
 			return true;
 		
-		synchronized (playerLimiters)
-		{
-			PlayerMobCounter limiter = playerLimiters.get(mob.playerLimitGroup);
-			return limiter != null ? limiter.withinLimit(limit, region.playerMobCooldown) : true;
-		}
+		PlayerMobCounter limiter = playerLimiters.get(mob.playerLimitGroup);
+		return limiter != null ? limiter.withinLimit(limit, region.playerMobCooldown) : true;
 	}
 	
 	/**
@@ -138,57 +189,48 @@ public class SpawnFinder extends BukkitRunnable
 	 */
 	public void removeMobs(Player player)
 	{
-		PlayerMobCounter limiter = playerMobs.remove(player.getName());
+		PlayerMobCounter limiter = playerMobs.remove(player);
 		
 		if (limiter != null && cfg.removePlayersMobOnDisconnect)
 			limiter.killAll();
 		
-		groupedPlayerMobs.remove(player.getName());
+		groupedPlayerMobs.remove(player);
 	}
 
 	/**
-	 * Adds the placeholder to spawn limits to prepare for spawning a mob
+	 * Adds the player counters which the mob counts towards, creating them if needed</br>
+	 * <b>Note: Main thread only</b>
 	 * 
 	 * @param player The player involved
 	 * @param mob The mob config used to create the entity
-	 * @param mobRef The entity to add
-	 * @return True if the mob is allowed to spawn
+	 * @param counters The list the counters are added to
 	 */
-	public boolean addSpawnedMob(Player player, Mob mob, MobReference mobRef)
+	public void collectCounters(Player player, Mob mob, List<MobCounter> counters)
 	{
-		if (!mobRef.isValid())
-			return false;
-		
 		// Fetch the players mob list
-		PlayerMobCounter limiter = playerMobs.get(player.getName());
+		PlayerMobCounter limiter = playerMobs.get(player);
 			
 		// If the limiter doesn't exist create it
 		if (limiter == null)
-			playerMobs.put(player.getName(), limiter = new PlayerMobCounter(player));
+			playerMobs.set(player, limiter = new PlayerMobCounter(player));
 		
-		// Track the entity
-		if (!limiter.add(mobRef))
-			return false;
+		counters.add(limiter);
 		
 		// Check for grouped limiters
 		if (mob.playerLimitGroup.length() > 0)
 		{
-			HashMap<String, PlayerMobCounter> playerLimiters = groupedPlayerMobs.get(player.getName());
+			ConcurrentHashMap<String, PlayerMobCounter> playerLimiters = groupedPlayerMobs.get(player);
 			
 			if (playerLimiters == null)
-				groupedPlayerMobs.put(player.getName(), playerLimiters = new HashMap<String, PlayerMobCounter>());
+				groupedPlayerMobs.set(player, playerLimiters = new ConcurrentHashMap<String, PlayerMobCounter>());
+			
+			// Only the main thread adds limiters
+			PlayerMobCounter groupedLimiter = playerLimiters.get(mob.playerLimitGroup);
+			
+			if (groupedLimiter == null)
+				playerLimiters.put(mob.playerLimitGroup, groupedLimiter = new PlayerMobCounter(player));
 			
-			synchronized (playerLimiters)
-			{
-				PlayerMobCounter groupedLimiter = playerLimiters.get(mob.playerLimitGroup);
-				
-				if (groupedLimiter == null)
-					playerLimiters.put(mob.playerLimitGroup, groupedLimiter = new PlayerMobCounter(player));
-				
-				if (!groupedLimiter.add(mobRef))
-					return false;
-			}
+			counters.add(groupedLimiter);
 		}
-		return true;
 	}
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder.PlayerClusters.QueuedPlayer;
+
+/**
+ * A set of players whose spawn attempts share queues and a pool</br>
+ * </br>
+ * With SpawnFinderWorkStealing each world has its own partition, so threads</br>
+ * working on different worlds never take the same lock or update the same counter.</br>
+ * Otherwise every world shares one partition.
+ */
+public class SpawnPartition
+{
+	/** Weight of a new measurement in the average attempt rate */
+	private static final double RATE_WEIGHT = 0.2;
+	
+	private final String name;
+	
+	/** Players waiting for their attempts to be started, only used on the main thread */
+	final ArrayDeque<QueuedPlayer> players = new ArrayDeque<QueuedPlayer>();
+	/** Attempts waiting for a location to be sampled, guarded by itself */
+	final ArrayDeque<SpawnAttempt> sampleQueue = new ArrayDeque<SpawnAttempt>();
+	/** Attempts waiting for their mob to be spawned, guarded by itself */
+	final ArrayDeque<SpawnAttempt> spawnQueue = new ArrayDeque<SpawnAttempt>();
+	/** Attempts sampled this run which are waiting to be submitted to select a mob, only used on the main thread */
+	ArrayList<SpawnAttempt> selectBatch = new ArrayList<SpawnAttempt>();
+	
+	final SpawnAttemptPool pool;
+	
+	private final AtomicLong started = new AtomicLong();
+	/** Bytes allocated by worker threads for this partition */
+	private final AtomicLong allocatedBytes = new AtomicLong();
+	private long lastStarted;
+	private long lastUpdate;
+	private double rate;
+	
+	SpawnPartition(String name, SpawnAttemptExecutor saExecutor)
+	{
+		this.name = name;
+		this.pool = new SpawnAttemptPool(saExecutor, this);
+	}
+	
+	/**
+	 * Records new spawn attempts, thread safe
+	 */
+	void started(int count)
+	{
+		started.addAndGet(count);
+	}
+	
+	/**
+	 * Records bytes allocated by a worker thread, thread safe
+	 * 
+	 * @param bytes The bytes allocated, ignored if negative (Unsupported JVM)
+	 */
+	void allocated(long bytes)
+	{
+		if (bytes > 0L)
+			allocatedBytes.addAndGet(bytes);
+	}
+	
+	/**
+	 * Updates the average attempt rate, main thread only
+	 */
+	void updateRate(long now)
+	{
+		long current = started.get();
+		
+		if (lastUpdate != 0L && now > lastUpdate)
+			rate += ((current - lastStarted) * 1000000000.0 / (now - lastUpdate) - rate) * RATE_WEIGHT;
+		
+		lastStarted = current;
+		lastUpdate = now;
+	}
+	
+	/**
+	 * Drops everything which is queued
+	 */
+	void clear()
+	{
+		players.clear();
+		selectBatch.clear();
+		synchronized (sampleQueue)
+		{
+			sampleQueue.clear();
+		}
+		synchronized (spawnQueue)
+		{
+			spawnQueue.clear();
+		}
+		pool.clear();
+	}
+	
+	/**
+	 * @return The world name, or * if the partition is shared by every world
+	 */
+	public String getName()
+	{
+		return name;
+	}
+	
+	/**
+	 * @return The number of players and attempts waiting in this partition
+	 */
+	public int getQueueDepth()
+	{
+		int depth = players.size();
+		synchronized (sampleQueue)
+		{
+			depth += sampleQueue.size();
+		}
+		synchronized (spawnQueue)
+		{
+			depth += spawnQueue.size();
+		}
+		return depth;
+	}
+	
+	/**
+	 * @return The total number of attempts started in this partition
+	 */
+	public long getStarted()
+	{
+		return started.get();
+	}
+	
+	/**
+	 * @return The total bytes worker threads allocated for this partition
+	 */
+	public long getAllocatedBytes()
+	{
+		return allocatedBytes.get();
+	}
+	
+	/**
+	 * @return The average number of attempts started each second
+	 */
+	public double getRate()
+	{
+		return rate;
+	}
+}
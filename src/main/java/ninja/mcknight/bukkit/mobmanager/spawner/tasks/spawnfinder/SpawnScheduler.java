@@ -0,0 +1,235 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
+
+/**
+ * Limits the time the spawner spends on the main thread each tick</br>
+ * </br>
+ * Bukkit does not expose how long each tick takes, so ticks are measured from</br>
+ * the interval between spawner runs. A healthy server runs every 50ms, a lagging</br>
+ * server runs late. While ticks keep running late the budget is halved, once they are back</br>
+ * on time it slowly grows back to the configured size.</br>
+ * </br>
+ * Only used from the main thread, worker thread counters are kept by each {@link SpawnPartition}
+ */
+public class SpawnScheduler
+{
+	/** Length of a tick on a server which is not lagging */
+	private static final long TICK_NANOS = 50000000L;
+	/** Average ticks longer than this are treated as lag */
+	private static final long LAG_TICK_NANOS = 55000000L;
+	/** Runs in a row the average has to be lagging before the budget is cut */
+	private static final int LAG_RUNS = 3;
+	/** Weight of a new tick measurement in the average */
+	private static final double TICK_WEIGHT = 0.2;
+	/** The smallest fraction of the configured budget which is used */
+	private static final double MIN_BUDGET_SCALE = 0.1;
+	/** How much of the configured budget is recovered each run without lag */
+	private static final double BUDGET_RECOVERY = 0.05;
+	
+	private final long budgetPerTick;
+	private final long maxAge;
+	
+	private long lastRun = 0L;
+	private double averageTick = TICK_NANOS;
+	private double budgetScale = 1.0;
+	private int lagRuns = 0;
+	private long budget;
+	private long deadline;
+	private boolean exhausted;
+	
+	private long runs;
+	private long exhaustedRuns;
+	private long deferred;
+	private long dropped;
+	private int pending;
+	/** Bytes allocated by the spawner on the main thread */
+	private long allocatedBytes;
+	
+	/**
+	 * @param budgetPerTick Main thread time the spawner may use each tick in nanoseconds
+	 * @param maxAge Age in nanoseconds after which an attempt waiting for the main thread is dropped
+	 */
+	public SpawnScheduler(long budgetPerTick, long maxAge)
+	{
+		this.budgetPerTick = budgetPerTick;
+		this.maxAge = maxAge;
+	}
+	
+	/**
+	 * Starts the budget for a spawner run
+	 * 
+	 * @param ticks The number of ticks which really passed since the last run
+	 */
+	public void startRun(int ticks)
+	{
+		long now = System.nanoTime();
+		
+		if (lastRun != 0L && ticks > 0)
+			averageTick += ((now - lastRun) / (double) ticks - averageTick) * TICK_WEIGHT;
+		lastRun = now;
+		
+		// A single slow tick is noise, only cut the budget while ticks stay slow
+		if (averageTick > LAG_TICK_NANOS)
+			++lagRuns;
+		else
+			lagRuns = 0;
+		
+		if (lagRuns >= LAG_RUNS)
+			budgetScale = Math.max(MIN_BUDGET_SCALE, budgetScale * 0.5);
+		else if (lagRuns == 0)
+			budgetScale = Math.min(1.0, budgetScale + BUDGET_RECOVERY);
+		
+		budget = (long) (budgetPerTick * ticks * budgetScale);
+		deadline = now + budget;
+		exhausted = false;
+		++runs;
+	}
+	
+	/**
+	 * Checks if there is time left in this runs budget
+	 */
+	public boolean hasTime()
+	{
+		if (exhausted)
+			return false;
+		
+		if (System.nanoTime() - deadline < 0L)
+			return true;
+		
+		exhausted = true;
+		++exhaustedRuns;
+		return false;
+	}
+	
+	/**
+	 * Checks if the attempt has waited too long to still be worth running
+	 */
+	public boolean isExpired(SpawnAttempt attempt, long now)
+	{
+		return now - attempt.getCreated() > maxAge;
+	}
+	
+	/**
+	 * Records attempts left over for the next run
+	 */
+	void deferred(int count)
+	{
+		deferred += count;
+	}
+	
+	/**
+	 * Records an attempt which expired before it could run
+	 */
+	void dropped()
+	{
+		++dropped;
+	}
+	
+	/**
+	 * Records the number of attempts waiting for the main thread
+	 */
+	void setPending(int pending)
+	{
+		this.pending = pending;
+	}
+	
+	/**
+	 * Records bytes allocated by the spawner on the main thread
+	 * 
+	 * @param bytes The bytes allocated, ignored if negative (Unsupported JVM)
+	 */
+	void allocated(long bytes)
+	{
+		if (bytes > 0L)
+			allocatedBytes += bytes;
+	}
+	
+	/**
+	 * @return The total bytes allocated by the spawner on the main thread
+	 */
+	public long getAllocatedBytes()
+	{
+		return allocatedBytes;
+	}
+	
+	/**
+	 * @return The budget of the last run in nanoseconds
+	 */
+	public long getBudget()
+	{
+		return budget;
+	}
+	
+	/**
+	 * @return The average measured tick length in nanoseconds
+	 */
+	public long getAverageTick()
+	{
+		return (long) averageTick;
+	}
+	
+	public long getRuns()
+	{
+		return runs;
+	}
+	
+	/**
+	 * @return The number of runs which used their whole budget
+	 */
+	public long getExhaustedRuns()
+	{
+		return exhaustedRuns;
+	}
+	
+	/**
+	 * @return The total number of times an attempt was deferred to the next run
+	 */
+	public long getDeferred()
+	{
+		return deferred;
+	}
+	
+	/**
+	 * @return The total number of attempts dropped for being too old
+	 */
+	public long getDropped()
+	{
+		return dropped;
+	}
+	
+	/**
+	 * @return The number of attempts waiting for the main thread after the last run
+	 */
+	public int getPending()
+	{
+		return pending;
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import ninja.mcknight.bukkit.mobmanager.MMComponent;
+
+/**
+ * Writes a compact binary log of what the spawner does</br>
+ * </br>
+ * The file is gzipped and starts with {@link #MAGIC} and {@link #VERSION}.</br>
+ * Each record starts with its type byte, numbers are written as varints and</br>
+ * strings are written once as a {@link #STRING} record then referenced by id.</br>
+ * See {@link SpawnTraceReader} for the fields of each record.</br>
+ * </br>
+ * Safe to use from any thread, a write error closes the trace
+ */
+public class SpawnTrace
+{
+	public static final int MAGIC = 0x4D4D5452;
+	public static final int VERSION = 1;
+	
+	/** Id, value */
+	static final byte STRING = 0;
+	/** Nanos since start, ticks left in the spawn cycle */
+	static final byte CYCLE = 1;
+	/** World, x, y, z, region, attempts */
+	static final byte PLAYER = 2;
+	/** Attempt, stage, finished, nanos */
+	static final byte STAGE = 3;
+	/** Attempt, world, x, y, z, playerY, heightRange, light, biome, material below, time, environment, flags */
+	static final byte LOCATION = 4;
+	/** Attempt, region, mob */
+	static final byte SELECTION = 5;
+	
+	/** Location flags, set by the attempts which record their locations */
+	public static final int FLAG_WIDE = 1, FLAG_TALL = 2, FLAG_OUTSIDE_LIMITS = 4;
+	
+	private final File file;
+	private final DataOutputStream out;
+	private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+	private final AtomicInteger nextAttemptId = new AtomicInteger(1);
+	private final long start = System.nanoTime();
+	
+	private long records;
+	private volatile boolean open = true;
+	
+	public SpawnTrace(File file) throws IOException
+	{
+		this.file = file;
+		this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+		
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+	
+	public File getFile()
+	{
+		return file;
+	}
+	
+	public boolean isOpen()
+	{
+		return open;
+	}
+	
+	public synchronized long getRecords()
+	{
+		return records;
+	}
+	
+	/**
+	 * Fetches an id for a new spawn attempt
+	 */
+	public int nextAttemptId()
+	{
+		return nextAttemptId.getAndIncrement();
+	}
+	
+	/**
+	 * Records the start of a spawner run
+	 */
+	public synchronized void cycle(int ticksLeft)
+	{
+		if (!open)
+			return;
+		
+		try
+		{
+			out.writeByte(CYCLE);
+			writeVarLong(System.nanoTime() - start);
+			writeVarLong(ticksLeft);
+			++records;
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+	
+	/**
+	 * Records a player being given spawn attempts
+	 * 
+	 * @param region The region the player is in (Can be null)
+	 */
+	public synchronized void player(String world, int x, int y, int z, String region, int attempts)
+	{
+		if (!open)
+			return;
+		
+		try
+		{
+			int worldId = stringId(world), regionId = stringId(region);
+			
+			out.writeByte(PLAYER);
+			writeVarLong(worldId);
+			writeVarLong(x);
+			writeVarLong(y);
+			writeVarLong(z);
+			writeVarLong(regionId);
+			writeVarLong(attempts);
+			++records;
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+	
+	/**
+	 * Records one stage of an attempt being run
+	 * 
+	 * @param stage The ordinal of the stage which was run
+	 * @param finished True if the attempt finished during the stage
+	 */
+	public synchronized void stage(int attempt, int stage, boolean finished, long nanos)
+	{
+		if (!open)
+			return;
+		
+		try
+		{
+			out.writeByte(STAGE);
+			writeVarLong(attempt);
+			out.writeByte(stage);
+			out.writeBoolean(finished);
+			writeVarLong(nanos);
+			++records;
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+	
+	/**
+	 * Records the location an attempt sampled and everything read from the world there
+	 */
+	public synchronized void location(int attempt, String world, int x, int y, int z, int playerY, int heightRange,
+			int light, String biome, String materialBelow, int time, String environment, int flags)
+	{
+		if (!open)
+			return;
+		
+		try
+		{
+			int worldId = stringId(world), biomeId = stringId(biome), materialId = stringId(materialBelow), environmentId = stringId(environment);
+			
+			out.writeByte(LOCATION);
+			writeVarLong(attempt);
+			writeVarLong(worldId);
+			writeVarLong(x);
+			writeVarLong(y);
+			writeVarLong(z);
+			writeVarLong(playerY);
+			writeVarLong(heightRange);
+			out.writeByte(light);
+			writeVarLong(biomeId);
+			writeVarLong(materialId);
+			writeVarLong(time);
+			writeVarLong(environmentId);
+			out.writeByte(flags);
+			++records;
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+	
+	/**
+	 * Records the region and mob an attempt selected
+	 * 
+	 * @param region The region, null if there was none
+	 * @param mob The mob, null if none could spawn
+	 */
+	public synchronized void selection(int attempt, String region, String mob)
+	{
+		if (!open)
+			return;
+		
+		try
+		{
+			int regionId = stringId(region), mobId = stringId(mob);
+			
+			out.writeByte(SELECTION);
+			writeVarLong(attempt);
+			writeVarLong(regionId);
+			writeVarLong(mobId);
+			++records;
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+	
+	/**
+	 * Finishes the file, nothing is recorded after this
+	 */
+	public synchronized void close()
+	{
+		if (!open)
+			return;
+		
+		open = false;
+		try
+		{
+			out.close();
+		}
+		catch (IOException e)
+		{
+			MMComponent.getSpawner().severe("Failed to close spawn trace " + file.getName(), e);
+		}
+	}
+	
+	private void fail(IOException e)
+	{
+		MMComponent.getSpawner().severe("Failed to write spawn trace " + file.getName() + ", tracing stopped", e);
+		close();
+	}
+	
+	/**
+	 * Fetches the id of the string, writing it first if it is new</br>
+	 * Id 0 is null
+	 */
+	private int stringId(String value) throws IOException
+	{
+		if (value == null)
+			return 0;
+		
+		Integer id = strings.get(value);
+		if (id != null)
+			return id;
+		
+		id = strings.size() + 1;
+		strings.put(value, id);
+		
+		out.writeByte(STRING);
+		writeVarLong(id);
+		out.writeUTF(value);
+		return id;
+	}
+	
+	/**
+	 * Writes a zigzag encoded varint, small negative numbers stay small
+	 */
+	private void writeVarLong(long value) throws IOException
+	{
+		value = (value << 1) ^ (value >> 63);
+		
+		while ((value & ~0x7FL) != 0L)
+		{
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.trace;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a trace written by {@link SpawnTrace} and passes each record to a {@link Handler}
+ */
+public class SpawnTraceReader implements Closeable
+{
+	/**
+	 * Receives the records of a trace, strings are already resolved
+	 */
+	public interface Handler
+	{
+		void cycle(long nanos, int ticksLeft);
+		
+		void player(String world, int x, int y, int z, String region, int attempts);
+		
+		void stage(int attempt, int stage, boolean finished, long nanos);
+		
+		void location(int attempt, String world, int x, int y, int z, int playerY, int heightRange,
+				int light, String biome, String materialBelow, int time, String environment, int flags);
+		
+		void selection(int attempt, String region, String mob);
+	}
+	
+	private final DataInputStream in;
+	private final ArrayList<String> strings = new ArrayList<String>();
+	
+	public SpawnTraceReader(File file) throws IOException
+	{
+		in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+		
+		if (in.readInt() != SpawnTrace.MAGIC)
+		{
+			in.close();
+			throw new IOException("Not a spawn trace: " + file.getName());
+		}
+		
+		int version = in.readInt();
+		if (version != SpawnTrace.VERSION)
+		{
+			in.close();
+			throw new IOException("Unsupported spawn trace version " + version + ": " + file.getName());
+		}
+		
+		// Id 0 is null
+		strings.add(null);
+	}
+	
+	/**
+	 * Reads every remaining record
+	 */
+	public void readAll(Handler handler) throws IOException
+	{
+		while (true)
+		{
+			int type;
+			try
+			{
+				type = in.readByte();
+			}
+			catch (EOFException e)
+			{
+				return;
+			}
+			
+			switch (type)
+			{
+			case SpawnTrace.STRING:
+				int id = (int) readVarLong();
+				if (id != strings.size())
+					throw new IOException("Spawn trace string " + id + " is out of order");
+				strings.add(in.readUTF());
+				break;
+			case SpawnTrace.CYCLE:
+				handler.cycle(readVarLong(), (int) readVarLong());
+				break;
+			case SpawnTrace.PLAYER:
+				handler.player(readString(), (int) readVarLong(), (int) readVarLong(), (int) readVarLong(), readString(), (int) readVarLong());
+				break;
+			case SpawnTrace.STAGE:
+				handler.stage((int) readVarLong(), in.readByte(), in.readBoolean(), readVarLong());
+				break;
+			case SpawnTrace.LOCATION:
+				handler.location((int) readVarLong(), readString(), (int) readVarLong(), (int) readVarLong(), (int) readVarLong(),
+						(int) readVarLong(), (int) readVarLong(), in.readByte(), readString(), readString(),
+						(int) readVarLong(), readString(), in.readByte());
+				break;
+			case SpawnTrace.SELECTION:
+				handler.selection((int) readVarLong(), readString(), readString());
+				break;
+			default:
+				throw new IOException("Unknown spawn trace record " + type);
+			}
+		}
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+	
+	private String readString() throws IOException
+	{
+		int id = (int) readVarLong();
+		if (id < 0 || id >= strings.size())
+			throw new IOException("Unknown spawn trace string " + id);
+		return strings.get(id);
+	}
+	
+	private long readVarLong() throws IOException
+	{
+		long value = 0L;
+		int shift = 0;
+		
+		byte b;
+		do
+		{
+			if (shift > 63)
+				throw new IOException("Spawn trace varint is too long");
+			
+			b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+		
+		return (value >>> 1) ^ -(value & 1L);
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.World.Environment;
+import org.bukkit.block.Biome;
+
+import ninja.mcknight.bukkit.mobmanager.spawner.config.Region;
+import ninja.mcknight.bukkit.mobmanager.spawner.config.SpawnerConfig;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder.SpawnAttempt.AttemptState;
+import ninja.mcknight.bukkit.mobmanager.spawner.util.MobSpawner;
+
+/**
+ * Feeds the locations in a trace back through region and mob selection</br>
+ * </br>
+ * Everything read from the world when the trace was recorded (Light, biome, block below, time)</br>
+ * comes from the trace, so only the world name is needed to replay it. The current config is</br>
+ * used, so changes to regions and requirements can be compared against recorded load.</br>
+ * Replayed attempts have no player, player group limits are ignored. Nothing is spawned.
+ */
+public class SpawnTraceReplay implements SpawnTraceReader.Handler
+{
+	private final String worldOverride;
+	
+	private final LinkedHashMap<Integer, TracedAttempt> attempts = new LinkedHashMap<Integer, TracedAttempt>();
+	private final long[] stageCount = new long[AttemptState.values().length];
+	private final long[] stageFinished = new long[AttemptState.values().length];
+	private final long[] stageNanos = new long[AttemptState.values().length];
+	private int cycles, players;
+	
+	/**
+	 * @param worldOverride The world to replay every attempt in, null to use the recorded worlds
+	 */
+	public SpawnTraceReplay(String worldOverride)
+	{
+		this.worldOverride = worldOverride;
+	}
+	
+	/**
+	 * Reads the trace and replays it
+	 * 
+	 * @return Lines describing the results
+	 */
+	public List<String> replay(File file, SpawnerConfig cfg) throws IOException
+	{
+		SpawnTraceReader reader = new SpawnTraceReader(file);
+		try
+		{
+			reader.readAll(this);
+		}
+		finally
+		{
+			reader.close();
+		}
+		
+		List<String> lines = new ArrayList<String>();
+		lines.add(String.format("Trace: %s, Cycles: %d, Players: %d, Attempts: %d", file.getName(), cycles, players, attempts.size()));
+		
+		AttemptState[] states = AttemptState.values();
+		for (int i = 0; i < states.length; ++i)
+		{
+			if (stageCount[i] == 0)
+				continue;
+			lines.add(String.format("Recorded %s: %d runs, %d finished, %.1fus average", states[i], stageCount[i], stageFinished[i], stageNanos[i] / 1000.0 / stageCount[i]));
+		}
+		
+		TreeMap<String, Integer> recordedMobs = new TreeMap<String, Integer>();
+		TreeMap<String, Integer> replayedMobs = new TreeMap<String, Integer>();
+		int replayed = 0, skipped = 0, regionMatches = 0, mobMatches = 0;
+		long nanos = 0L;
+		
+		for (TracedAttempt attempt : attempts.values())
+		{
+			World world = attempt.world != null ? Bukkit.getWorld(worldOverride != null ? worldOverride : attempt.world) : null;
+			Biome biome = valueOf(Biome.class, attempt.biome);
+			Material materialBelow = valueOf(Material.class, attempt.materialBelow);
+			Environment environment = valueOf(Environment.class, attempt.environment);
+			
+			// Attempts which never reached mob selection, or can't be rebuilt here
+			if (!attempt.selected || world == null || biome == null || materialBelow == null || environment == null)
+			{
+				++skipped;
+				continue;
+			}
+			
+			Location loc = new Location(world, attempt.x + 0.5, attempt.y, attempt.z + 0.5);
+			
+			long start = System.nanoTime();
+			Region region = cfg.getRegion(loc);
+			MobSpawner spawner = region == null ? null : region.spawnMob(null, attempt.playerY, attempt.heightRange, loc,
+					(attempt.flags & SpawnTrace.FLAG_WIDE) != 0, (attempt.flags & SpawnTrace.FLAG_TALL) != 0,
+					attempt.time, attempt.light, biome, materialBelow, environment, (attempt.flags & SpawnTrace.FLAG_OUTSIDE_LIMITS) != 0);
+			nanos += System.nanoTime() - start;
+			
+			String regionName = region != null ? region.name : null;
+			String mobName = spawner != null ? spawner.getMob().getMobType().toString() : null;
+			
+			++replayed;
+			if (equal(regionName, attempt.region))
+				++regionMatches;
+			if (equal(mobName, attempt.mob))
+				++mobMatches;
+			
+			increment(recordedMobs, attempt.mob);
+			increment(replayedMobs, mobName);
+		}
+		
+		lines.add(String.format("Replayed: %d, Skipped: %d, Same region: %d, Same mob: %d, Selection: %.1fus average",
+				replayed, skipped, regionMatches, mobMatches, replayed > 0 ? nanos / 1000.0 / replayed : 0.0));
+		
+		TreeMap<String, Integer> allMobs = new TreeMap<String, Integer>(recordedMobs);
+		allMobs.putAll(replayedMobs);
+		for (String mob : allMobs.keySet())
+			lines.add(String.format("- %s: Recorded %d, Replayed %d", mob, get(recordedMobs, mob), get(replayedMobs, mob)));
+		
+		return lines;
+	}
+	
+	@Override
+	public void cycle(long nanos, int ticksLeft)
+	{
+		++cycles;
+	}
+	
+	@Override
+	public void player(String world, int x, int y, int z, String region, int attempts)
+	{
+		++players;
+	}
+	
+	@Override
+	public void stage(int attempt, int stage, boolean finished, long nanos)
+	{
+		if (stage < 0 || stage >= stageCount.length)
+			return;
+		
+		++stageCount[stage];
+		if (finished)
+			++stageFinished[stage];
+		stageNanos[stage] += nanos;
+	}
+	
+	@Override
+	public void location(int attempt, String world, int x, int y, int z, int playerY, int heightRange,
+			int light, String biome, String materialBelow, int time, String environment, int flags)
+	{
+		TracedAttempt traced = getAttempt(attempt);
+		traced.world = world;
+		traced.x = x;
+		traced.y = y;
+		traced.z = z;
+		traced.playerY = playerY;
+		traced.heightRange = heightRange;
+		traced.light = light;
+		traced.biome = biome;
+		traced.materialBelow = materialBelow;
+		traced.time = time;
+		traced.environment = environment;
+		traced.flags = flags;
+	}
+	
+	@Override
+	public void selection(int attempt, String region, String mob)
+	{
+		TracedAttempt traced = getAttempt(attempt);
+		traced.selected = true;
+		traced.region = region;
+		traced.mob = mob;
+	}
+	
+	private TracedAttempt getAttempt(int id)
+	{
+		TracedAttempt attempt = attempts.get(id);
+		if (attempt == null)
+			attempts.put(id, attempt = new TracedAttempt());
+		return attempt;
+	}
+	
+	private static <T extends Enum<T>> T valueOf(Class<T> clazz, String name)
+	{
+		if (name == null)
+			return null;
+		
+		try
+		{
+			return Enum.valueOf(clazz, name);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+	
+	private static boolean equal(String a, String b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+	
+	private static void increment(Map<String, Integer> counts, String key)
+	{
+		key = key != null ? key : "(None)";
+		counts.put(key, get(counts, key) + 1);
+	}
+	
+	private static int get(Map<String, Integer> counts, String key)
+	{
+		Integer count = counts.get(key);
+		return count != null ? count : 0;
+	}
+	
+	/**
+	 * An attempt rebuilt from its trace records
+	 */
+	private static class TracedAttempt
+	{
+		String world;
+		int x, y, z, playerY, heightRange, light, time, flags;
+		String biome, materialBelow, environment;
+		
+		boolean selected;
+		String region, mob;
+	}
+}
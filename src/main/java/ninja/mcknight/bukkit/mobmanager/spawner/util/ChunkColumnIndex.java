@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.util;
+
+import java.util.Random;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomLocationGen;
+
+/**
+ * Index of which blocks in a chunk are safe for mobs to be inside of</br>
+ * Each column is stored as a 256 bit bitset (4 longs, bit 'y' set if safe)</br>
+ * </br>
+ * Standing positions (Two safe blocks above a solid block) and tall/wide checks</br>
+ * are worked out from the bitsets a whole word at a time, so finding a safe Y</br>
+ * never needs to look at individual blocks</br>
+ * </br>
+ * Built from a ChunkSnapshot, can be read from any thread
+ */
+public class ChunkColumnIndex
+{
+	private static final boolean[] safeIds = new boolean[4096];
+	
+	static
+	{
+		for (Material mat : Material.values())
+		{
+			@SuppressWarnings("deprecation")
+			int id = mat.getId();
+			if (mat.isBlock() && id >= 0 && id < safeIds.length)
+				safeIds[id] = RandomLocationGen.isSafeMaterial(mat);
+		}
+	}
+	
+	/** Words per column */
+	private static final int WORDS = 4;
+	
+	/** Index is ((z << 4 | x) << 2) | (y >> 6) */
+	private final long[] safe = new long[256 * WORDS];
+	
+	@SuppressWarnings("deprecation")
+	public ChunkColumnIndex(ChunkSnapshot chunk)
+	{
+		for (int z = 0; z < 16; ++z)
+		{
+			for (int x = 0; x < 16; ++x)
+			{
+				int column = getColumn(x, z);
+				
+				for (int y = 0; y < 256; ++y)
+				{
+					int id = chunk.getBlockTypeId(x, y, z);
+					if (id >= 0 && id < safeIds.length && safeIds[id])
+						safe[column | (y >> 6)] |= 1L << (y & 63);
+				}
+			}
+		}
+	}
+	
+	private static int getColumn(int x, int z)
+	{
+		return ((z << 4) | x) << 2;
+	}
+	
+	/**
+	 * Checks if the block is safe for a mob to be inside of</br>
+	 * Blocks above the world are always safe, below the world never
+	 * 
+	 * @param x The X coordinate inside the chunk (0-15)
+	 * @param z The Z coordinate inside the chunk (0-15)
+	 */
+	public boolean isSafe(int x, int y, int z)
+	{
+		if (y < 0 || y > 255)
+			return y > 255;
+		
+		return (safe[getColumn(x, z) | (y >> 6)] & (1L << (y & 63))) != 0;
+	}
+	
+	/**
+	 * Updates a single block after it was placed or broken</br>
+	 * <b>Note: Main thread only</b>
+	 */
+	public void setSafe(int x, int y, int z, boolean isSafe)
+	{
+		if (y < 0 || y > 255)
+			return;
+		
+		int i = getColumn(x, z) | (y >> 6);
+		if (isSafe)
+			safe[i] |= 1L << (y & 63);
+		else
+			safe[i] &= ~(1L << (y & 63));
+	}
+	
+	/**
+	 * Checks if a mob which is two blocks tall would fit with one extra block of space
+	 */
+	public boolean isTall(int x, int y, int z)
+	{
+		return isSafe(x, y + 2, z);
+	}
+	
+	/**
+	 * Fetches the standing positions in one word of a column</br>
+	 * Bit 'y & 63' is set when the block at y-1 is solid and y, y+1 are safe
+	 */
+	private long getStandingWord(int column, int word)
+	{
+		long s = safe[column | word];
+		
+		// Shift in the neighbouring bits from the words above and below
+		// Above the world counts as unsafe, below the world counts as safe
+		long above = (s >>> 1) | (word < WORDS - 1 ? safe[column | (word + 1)] << 63 : 0L);
+		long below = (s << 1) | (word > 0 ? safe[column | (word - 1)] >>> 63 : 1L);
+		
+		return s & above & ~below;
+	}
+	
+	/**
+	 * Same as {@link #getStandingWord(int, int)} with the positions outside of</br>
+	 * the Y range masked off
+	 */
+	private long getStandingWord(int column, int word, int minY, int maxY)
+	{
+		long bits = getStandingWord(column, word);
+		
+		if (word == minY >> 6)
+			bits &= -1L << (minY & 63);
+		if (word == maxY >> 6 && (maxY & 63) != 63)
+			bits &= (1L << ((maxY & 63) + 1)) - 1L;
+		
+		return bits;
+	}
+	
+	/**
+	 * Picks a random standing position within the given Y range
+	 * 
+	 * @param x The X coordinate inside the chunk (0-15)
+	 * @param z The Z coordinate inside the chunk (0-15)
+	 * @param minY The lowest Y to pick (inclusive)
+	 * @param maxY The highest Y to pick (inclusive)
+	 * 
+	 * @return The Y of the position, or -1 if there is none in the range
+	 */
+	public int pickStandingY(int x, int z, int minY, int maxY, Random random)
+	{
+		if (minY < 0)
+			minY = 0;
+		if (maxY > 255)
+			maxY = 255;
+		if (minY > maxY)
+			return -1;
+		
+		int column = getColumn(x, z);
+		int firstWord = minY >> 6, lastWord = maxY >> 6;
+		
+		// Count first, then work the words out again to find the picked bit
+		// Rebuilding a word is a few shifts, which is cheaper than allocating somewhere to keep them
+		int count = 0;
+		for (int word = firstWord; word <= lastWord; ++word)
+			count += Long.bitCount(getStandingWord(column, word, minY, maxY));
+		
+		if (count == 0)
+			return -1;
+		
+		int n = random.nextInt(count);
+		for (int word = firstWord; word <= lastWord; ++word)
+		{
+			long bits = getStandingWord(column, word, minY, maxY);
+			int bitCount = Long.bitCount(bits);
+			
+			if (n >= bitCount)
+			{
+				n -= bitCount;
+				continue;
+			}
+			
+			// Drop the lowest set bit 'n' times
+			for (; n > 0; --n)
+				bits &= bits - 1L;
+			
+			return (word << 6) | Long.numberOfTrailingZeros(bits);
+		}
+		
+		return -1;
+	}
+}
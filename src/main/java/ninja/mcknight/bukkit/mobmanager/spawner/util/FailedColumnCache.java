@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.World;
+
+import ninja.mcknight.bukkit.mobmanager.limiter.world.ChunkPopulation;
+
+/**
+ * Remembers columns where no safe Y was found so they can be skipped</br>
+ * </br>
+ * Each chunk keeps a bitmap of its 256 columns. Only whole column failures are</br>
+ * stored, and those depend on the Y range searched, so a chunk only remembers</br>
+ * failures for one exact center Y and height range at a time. Entries expire after</br>
+ * a while and block changes clear their column.</br>
+ * </br>
+ * Safe to use from any thread
+ */
+public class FailedColumnCache
+{
+	/** Number of chunks kept per world before the cache is cleared */
+	private static final int MAX_CHUNKS = 16384;
+	
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Long, ChunkFailures>> worlds = new ConcurrentHashMap<String, ConcurrentHashMap<Long, ChunkFailures>>();
+	private final long maxAge;
+	
+	/**
+	 * @param maxAge The number of nanoseconds failures are remembered for
+	 */
+	public FailedColumnCache(long maxAge)
+	{
+		this.maxAge = maxAge;
+	}
+	
+	/**
+	 * Checks if the column recently had no safe Y in the searched range
+	 * 
+	 * @param centerY The height the search was centered on
+	 * @param heightRange The distance searched above and below centerY
+	 */
+	public boolean isFailed(World world, int x, int z, int centerY, int heightRange)
+	{
+		ConcurrentHashMap<Long, ChunkFailures> chunks = worlds.get(world.getName());
+		if (chunks == null)
+			return false;
+		
+		ChunkFailures failures = chunks.get(ChunkPopulation.getKey(x >> 4, z >> 4));
+		return failures != null && failures.isFailed(x & 15, z & 15, centerY, heightRange, System.nanoTime() - maxAge);
+	}
+	
+	/**
+	 * Records that no safe Y exists anywhere in the searched range of the column</br>
+	 * Results for a single Y must not be added, they do not hold for the whole range
+	 */
+	public void addFailure(World world, int x, int z, int centerY, int heightRange)
+	{
+		ConcurrentHashMap<Long, ChunkFailures> chunks = getChunks(world);
+		
+		if (chunks.size() >= MAX_CHUNKS)
+			chunks.clear();
+		
+		long key = ChunkPopulation.getKey(x >> 4, z >> 4);
+		long now = System.nanoTime();
+		
+		ChunkFailures failures = chunks.get(key);
+		
+		// Start again if the chunk is for another range or too old
+		if (failures == null || !failures.isCurrent(centerY, heightRange, now - maxAge))
+		{
+			failures = new ChunkFailures(centerY, heightRange, now);
+			chunks.put(key, failures);
+		}
+		
+		failures.add(x & 15, z & 15);
+	}
+	
+	/**
+	 * Forgets failures in the column, called when a block in it changes
+	 */
+	public void invalidate(World world, int x, int z)
+	{
+		ConcurrentHashMap<Long, ChunkFailures> chunks = worlds.get(world.getName());
+		if (chunks == null)
+			return;
+		
+		ChunkFailures failures = chunks.get(ChunkPopulation.getKey(x >> 4, z >> 4));
+		if (failures != null)
+			failures.clear(x & 15, z & 15);
+	}
+	
+	/**
+	 * Forgets failures in the chunk
+	 */
+	public void removeChunk(World world, int chunkX, int chunkZ)
+	{
+		ConcurrentHashMap<Long, ChunkFailures> chunks = worlds.get(world.getName());
+		if (chunks != null)
+			chunks.remove(ChunkPopulation.getKey(chunkX, chunkZ));
+	}
+	
+	private ConcurrentHashMap<Long, ChunkFailures> getChunks(World world)
+	{
+		ConcurrentHashMap<Long, ChunkFailures> chunks = worlds.get(world.getName());
+		if (chunks == null)
+		{
+			chunks = new ConcurrentHashMap<Long, ChunkFailures>();
+			ConcurrentHashMap<Long, ChunkFailures> existing = worlds.putIfAbsent(world.getName(), chunks);
+			if (existing != null)
+				chunks = existing;
+		}
+		return chunks;
+	}
+	
+	/**
+	 * The failed columns of a single chunk
+	 */
+	private static class ChunkFailures
+	{
+		private final int centerY;
+		private final int heightRange;
+		private final long created;
+		
+		private final long[] columns = new long[4];
+		
+		ChunkFailures(int centerY, int heightRange, long created)
+		{
+			this.centerY = centerY;
+			this.heightRange = heightRange;
+			this.created = created;
+		}
+		
+		boolean isCurrent(int centerY, int heightRange, long oldest)
+		{
+			return this.centerY == centerY && this.heightRange == heightRange && created - oldest > 0L;
+		}
+		
+		synchronized boolean isFailed(int x, int z, int centerY, int heightRange, long oldest)
+		{
+			if (!isCurrent(centerY, heightRange, oldest))
+				return false;
+			
+			int column = (z << 4) | x;
+			return (columns[column >> 6] & (1L << column)) != 0L;
+		}
+		
+		synchronized void add(int x, int z)
+		{
+			int column = (z << 4) | x;
+			columns[column >> 6] |= 1L << column;
+		}
+		
+		synchronized void clear(int x, int z)
+		{
+			int column = (z << 4) | x;
+			columns[column >> 6] &= ~(1L << column);
+		}
+	}
+}
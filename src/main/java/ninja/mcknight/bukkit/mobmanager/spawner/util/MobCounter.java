@@ -28,17 +28,34 @@
 
 package ninja.mcknight.bukkit.mobmanager.spawner.util;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.bukkit.entity.LivingEntity;
 
+/**
+ * Counts the number of mobs alive towards a limit</br>
+ * </br>
+ * The count is kept in an atomic integer which is decremented when a mob</br>
+ * dies or is removed (See {@link MobReference#entityRemoved()}) and when</br>
+ * mob cooldowns expire, so checking the limit never scans the mobs
+ */
 public class MobCounter
 {
-	private ArrayList<MobReference> aliveMobs;
+	private final AtomicInteger count = new AtomicInteger();
+	/** Mobs which currently count towards the limit */
+	private final Set<MobReference> aliveMobs = Collections.newSetFromMap(new ConcurrentHashMap<MobReference, Boolean>());
+	/** Mobs in order of spawn time, so the oldest cooldown is always first */
+	private final Queue<MobReference> cooldowns = new ConcurrentLinkedQueue<MobReference>();
+	private final ReentrantLock cooldownLock = new ReentrantLock();
 	
-	protected  int maxAliveMobs;
-	protected int mobCooldown;
+	protected volatile int maxAliveMobs;
+	protected volatile int mobCooldown;
 	private final boolean enforceAllRemovalConditions;
 	
 	public MobCounter(int maxAliveMobs, int mobCooldown, boolean enforceAllRemovalConditions)
@@ -57,48 +74,67 @@ public class MobCounter
 		return getMobCount() < maxAliveMobs;
 	}
 	
-	public synchronized int getMobCount()
+	public int getMobCount()
 	{
-		// If there are no alive mobs
-		if (aliveMobs == null)
-			return 0;
+		expireCooldowns();
+		return count.get();
+	}
+	
+	/**
+	 * Frees mobs whose cooldown has expired</br>
+	 * If another thread is already doing this we don't wait for it
+	 */
+	private void expireCooldowns()
+	{
+		if (cooldowns.isEmpty() || !cooldownLock.tryLock())
+			return;
 		
-		// Iterate through each one and remove old mobs
-		Iterator<MobReference> it = aliveMobs.iterator();
-		while (it.hasNext())
+		try
 		{
-			MobReference r = it.next();
-			
-			// Wait a little while for the reference to the mob to be set
-			if (!r.isSet())
-				continue;
-			
-			// If the reference is invalid ignore it
-			if (!r.isValid())
+			MobReference r;
+			while ((r = cooldowns.peek()) != null && (!aliveMobs.contains(r) || r.cooldownExpired(mobCooldown)))
 			{
-				it.remove();
-				continue;
+				cooldowns.poll();
+				
+				// If we need both conditions the mob must also be dead
+				if (!enforceAllRemovalConditions || r.isRemoved())
+					release(r);
 			}
-			
-			LivingEntity entity = r.getEntity();
-			
-			// Check if the mob is dead
-			if (entity == null)
-			{
-				// Check if we need to wait for the cooldown as well
-				if (enforceAllRemovalConditions && !r.cooldownExpired(mobCooldown))
-					continue;
-				// Remove this mob from the limit
-				it.remove();
-			}
-			// If we don't need both conditions and the cooldown has expired remove the mob from the limit
-			else if (!enforceAllRemovalConditions && r.cooldownExpired(mobCooldown))
-				it.remove();
-			else if (remove(entity))
-				it.remove();
 		}
+		finally
+		{
+			cooldownLock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the mob from this counter
+	 */
+	void release(MobReference mobRef)
+	{
+		if (aliveMobs.remove(mobRef))
+			count.decrementAndGet();
+	}
+	
+	/**
+	 * Called when the mob has died or been removed from the world
+	 */
+	void entityRemoved(MobReference mobRef)
+	{
+		// Check if we need to wait for the cooldown as well
+		if (enforceAllRemovalConditions && mobCooldown > 0 && !mobRef.cooldownExpired(mobCooldown))
+			return;
 		
-		return aliveMobs.size();
+		release(mobRef);
+	}
+	
+	/**
+	 * Called for each living mob by {@link MobReference#sweep()}
+	 */
+	void check(MobReference mobRef, LivingEntity entity)
+	{
+		if (remove(entity))
+			release(mobRef);
 	}
 	
 	protected boolean remove(LivingEntity entity)
@@ -111,40 +147,89 @@ public class MobCounter
 	 * 
 	 * @param e The entity to add
 	 */
-	public synchronized boolean add(MobReference mobRef)
+	public boolean add(MobReference mobRef)
 	{
-		// If maxAlive is disabled do nothing
-		if (maxAliveMobs <= 0)
-			return true;
+		if (!mobRef.isValid())
+			return false;
 		
 		// If we are outside of our limit return false
-		if (!withinLimit())
+		if (reserve(1) == 0)
 		{
 			mobRef.invalidate();
 			return false;
 		}
 		
-		// If the aliveMobs list doesn't exist, then create it
-		if (aliveMobs == null)
-			aliveMobs = new ArrayList<MobReference>();
+		return addReserved(mobRef);
+	}
+	
+	/**
+	 * Reserves places in the limit for up to the given number of mobs at once</br>
+	 * Each place must be filled with {@link #addReserved(MobReference)} or freed</br>
+	 * with {@link #unreserve(int)}
+	 * 
+	 * @param wanted The number of places wanted
+	 * 
+	 * @return The number of places reserved, less than wanted if the limit is close
+	 */
+	public int reserve(int wanted)
+	{
+		expireCooldowns();
 		
-		// Add the mob to the list
+		int max = maxAliveMobs;
+		for (;;)
+		{
+			int current = count.get();
+			int granted = max > 0 ? Math.min(wanted, max - current) : wanted;
+			
+			if (granted <= 0)
+				return 0;
+			
+			if (count.compareAndSet(current, current + granted))
+				return granted;
+		}
+	}
+	
+	/**
+	 * Frees places reserved by {@link #reserve(int)} which were not used
+	 */
+	public void unreserve(int places)
+	{
+		if (places > 0)
+			count.addAndGet(-places);
+	}
+	
+	/**
+	 * Adds the mob to a place reserved by {@link #reserve(int)}
+	 * 
+	 * @return False if the reference was invalidated, the place is freed
+	 */
+	public boolean addReserved(MobReference mobRef)
+	{
 		aliveMobs.add(mobRef);
+		
+		// If the reference was invalidated while we were adding it free it again
+		if (!mobRef.addCounter(this))
+		{
+			release(mobRef);
+			return false;
+		}
+		
+		if (mobCooldown > 0)
+			cooldowns.add(mobRef);
 		return true;
 	}
 	
-	public synchronized void killAll()
+	public void killAll()
 	{
-		if (aliveMobs == null)
-			return;
-		
 		for (MobReference r : aliveMobs)
 		{
 			LivingEntity entity = r.getEntity();
 			
 			if (entity != null && entity.getRemoveWhenFarAway())
 				entity.remove();
+			
+			release(r);
 		}
-		aliveMobs.clear();
+		cooldowns.clear();
 	}
 }
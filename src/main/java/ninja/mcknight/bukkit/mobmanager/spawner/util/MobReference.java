@@ -1,19 +1,35 @@
 package ninja.mcknight.bukkit.mobmanager.spawner.util;
 
-import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.LivingEntity;
 
 /**
- * Keeps a reference to the a mob and its spawn time.
+ * Keeps a reference to the a mob and its spawn time.</br>
+ * </br>
+ * References are tracked by entity UUID so MobCounters can be decremented</br>
+ * straight away when the mob dies or is unloaded. The entity itself is looked</br>
+ * up by its UUID when needed, so no reference to it is held.
  */
 public class MobReference
 {
-	private boolean refSet;
-	private boolean valid;
-	private WeakReference<LivingEntity> e;
+	private static final ConcurrentHashMap<UUID, MobReference> references = new ConcurrentHashMap<UUID, MobReference>();
+	private static final MobCounter[] NO_COUNTERS = new MobCounter[0];
+	
+	private volatile boolean refSet;
+	private volatile boolean valid;
+	private volatile boolean removed;
+	private volatile UUID uuid;
 	private final long spawnTime;
 	
+	/** Counters which this mob has been added to, replaced rather than modified */
+	private volatile MobCounter[] counters = NO_COUNTERS;
+	
 	public MobReference()
 	{
 		refSet = false;
@@ -21,6 +37,42 @@ public class MobReference
 		spawnTime = System.currentTimeMillis();
 	}
 	
+	/**
+	 * Fetches the reference for the given entity
+	 * 
+	 * @return The reference, or null if the entity was not spawned by the spawner
+	 */
+	public static MobReference getReference(UUID uuid)
+	{
+		return references.get(uuid);
+	}
+	
+	/**
+	 * Checks every tracked mob and removes it from its counters if it is gone</br>
+	 * or if a counter no longer wants it (e.g. The player walked away)</br>
+	 * Catches removals which don't fire an event (despawns, /kill)</br>
+	 * <b>Note: Main thread only</b>
+	 */
+	public static void sweep()
+	{
+		Iterator<MobReference> it = references.values().iterator();
+		while (it.hasNext())
+		{
+			MobReference ref = it.next();
+			LivingEntity entity = ref.getEntity();
+			
+			if (entity == null)
+			{
+				it.remove();
+				ref.entityRemoved();
+				continue;
+			}
+			
+			for (MobCounter counter : ref.getCounters())
+				counter.check(ref, entity);
+		}
+	}
+	
 	/**
 	 * Fetches the entity if it is still valid
 	 * 
@@ -28,23 +80,18 @@ public class MobReference
 	 */
 	public LivingEntity getEntity()
 	{
-		// If the weak reference is null the entity is invalid
-		if (e == null)
+		// If the UUID is null the entity was never spawned
+		UUID uuid = this.uuid;
+		if (uuid == null || removed)
 			return null;
 		
-		// Fetch the entity
-		LivingEntity entity = e.get();
-		// If the entity is null it has been removed by GB
+		// If the entity can't be found it has been unloaded or removed
 		// If the entity is invalid it is gone
-		if (entity == null || !entity.isValid())
-		{
-			// Remove the weak reference and return null
-			e = null;
+		Entity entity = Bukkit.getEntity(uuid);
+		if (!(entity instanceof LivingEntity) || !entity.isValid())
 			return null;
-		}
 		
-		// Fetch the entity and return
-		return e.get();
+		return (LivingEntity) entity;
 	}
 	
 	/**
@@ -60,10 +107,16 @@ public class MobReference
 	public void setReference(LivingEntity entity)
 	{
 		if (entity != null)
-			e = new WeakReference<LivingEntity>(entity);
+		{
+			uuid = entity.getUniqueId();
+			references.put(uuid, this);
+			refSet = true;
+		}
 		else
-			valid = false;
-		refSet = true;
+		{
+			refSet = true;
+			invalidate();
+		}
 	}
 	
 	public boolean isValid()
@@ -78,15 +131,74 @@ public class MobReference
 		
 		if (System.currentTimeMillis() - spawnTime > 50)
 		{
-			valid = false;
+			invalidate();
 			return true;
 		}
 		
 		return false;
 	}
 	
+	/**
+	 * Checks if the mob has died or been removed from the world
+	 */
+	public boolean isRemoved()
+	{
+		return removed;
+	}
+	
+	/**
+	 * Marks the reference as invalid and frees it from every counter
+	 */
 	public void invalidate()
 	{
 		valid = false;
+		
+		for (MobCounter counter : removeCounters())
+			counter.release(this);
+	}
+	
+	/**
+	 * Called when the mob dies or is removed from the world</br>
+	 * Each counter decides whether to free the mob now or after its cooldown
+	 */
+	public void entityRemoved()
+	{
+		removed = true;
+		if (uuid != null)
+			references.remove(uuid, this);
+		
+		for (MobCounter counter : getCounters())
+			counter.entityRemoved(this);
+	}
+	
+	/**
+	 * Records that this mob was added to the counter
+	 * 
+	 * @return False if the reference is no longer valid
+	 */
+	synchronized boolean addCounter(MobCounter counter)
+	{
+		if (!valid)
+			return false;
+		
+		MobCounter[] added = Arrays.copyOf(counters, counters.length + 1);
+		added[counters.length] = counter;
+		counters = added;
+		return true;
+	}
+	
+	/**
+	 * The returned array is never modified, so it can be iterated without copying
+	 */
+	private MobCounter[] getCounters()
+	{
+		return counters;
+	}
+	
+	private synchronized MobCounter[] removeCounters()
+	{
+		MobCounter[] removed = counters;
+		counters = NO_COUNTERS;
+		return removed;
 	}
 }
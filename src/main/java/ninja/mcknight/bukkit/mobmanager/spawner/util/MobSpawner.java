@@ -28,10 +28,16 @@
 
 package ninja.mcknight.bukkit.mobmanager.spawner.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
 import ninja.mcknight.bukkit.mobmanager.P;
 import ninja.mcknight.bukkit.mobmanager.abilities.config.AbilityConfig;
 import ninja.mcknight.bukkit.mobmanager.abilities.config.MobAbilityConfig;
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomUtil;
+import ninja.mcknight.bukkit.mobmanager.limiter.world.MMWorld;
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Mob;
 import org.bukkit.Location;
 import org.bukkit.entity.LivingEntity;
@@ -41,19 +47,39 @@ import ninja.mcknight.bukkit.mobmanager.abilities.listeners.AbilitiesMobListener
 import ninja.mcknight.bukkit.mobmanager.spawner.config.Region;
 
 /**
- * Handles spawning of mobs
+ * Handles spawning of mobs</br>
+ * Spawn attempts keep one each and {@link #set} it for every mob they spawn
  */
 public class MobSpawner
 {
-	private final Region region;
-	private final Player player;
-	private final Location location;
-	private final Mob mob;
+	private Region region;
+	private Player player;
+	private Location location;
+	private Mob mob;
+	
+	private int playerY;
+	private int heightRange;
 	
-	private final int playerY;
-	private final int heightRange;
+	/** Places for the mobs of a pack, grown when a bigger pack spawns */
+	private Location[] pack = new Location[0];
+	/** The limits the mob counts towards, refilled for every mob */
+	private final ArrayList<MobCounter> counters = new ArrayList<MobCounter>(5);
+	
+	public MobSpawner()
+	{
+	}
 	
 	public MobSpawner(Region region, Player player, Location location, Mob mob, int playerY, int heightRange)
+	{
+		set(region, player, location, mob, playerY, heightRange);
+	}
+	
+	/**
+	 * Sets the mob to spawn and where to spawn it
+	 * 
+	 * @return This spawner
+	 */
+	public MobSpawner set(Region region, Player player, Location location, Mob mob, int playerY, int heightRange)
 	{
 		this.region = region;
 		this.player = player;
@@ -62,43 +88,162 @@ public class MobSpawner
 		
 		this.playerY = playerY;
 		this.heightRange = heightRange;
+		return this;
 	}
 	
-	public boolean spawn()
+	/**
+	 * Releases the references held by the spawner
+	 */
+	public void clear()
 	{
-		// Don't let the limiter or abilities component mess with us
-		P.p().ignoreNextSpawn(true);
+		set(null, null, null, null, 0, 0);
+		counters.clear();
 		
+		for (Location place : pack)
+			place.setWorld(null);
+	}
+	
+	public Mob getMob()
+	{
+		return mob;
+	}
+	
+	/**
+	 * Spawns the mob, or a pack of them around the location if the mob spawns in packs</br>
+	 * The whole pack reserves its places in every mob limit at once, including the</br>
+	 * limiters world limits which the pack members skip with ignoreNextSpawn
+	 * 
+	 * @return True if at least one mob spawned
+	 */
+	public boolean spawn()
+	{
 		// Add the height offset to the mobs spawn location
 		if (!mob.addHeightOffset(location, playerY, heightRange))
 			return false;
 		
-		// Add mob to limits
-		MobReference mobRef = new MobReference();
+		// Find places for the rest of the pack around the first mob
+		Random random = RandomUtil.get(location.getWorld());
+		int size = mob.getPackSize(random);
+		if (size > 1)
+		{
+			growPack(size);
+			size = mob.findPackLocations(location, region, pack, size, random);
+		}
+		
+		// Cut the pack to the room left in the limiters world, layer and local limits
+		MMWorld world = mob.bypassMobManagerLimit ? null : MMComponent.getLimiter().getWorld(location.getWorld());
+		if (world != null)
+		{
+			size = world.getMobCapacity(mob.getMobType(), location, size);
+			if (size < mob.packMin)
+				return false;
+		}
+		
+		// Fetch the limits the mobs count towards
+		counters.clear();
 		if (!mob.bypassMobManagerLimit)
 		{
-			MMComponent.getSpawner().getSpawnFinder().addSpawnedMob(player, mob, mobRef);
-			region.addSpawnedMob(mob, mobRef);
+			MMComponent.getSpawner().getSpawnFinder().collectCounters(player, mob, counters);
+			region.collectCounters(mob, counters);
 		}
-		mob.addSpawnedMob(mobRef);
+		mob.collectCounters(counters);
 		
-		// Check if the reference is still valid
-		if (!mobRef.isValid())
-			return false;
+		// Reserve places for the whole pack
+		size = reserve(counters, size, mob.packMin);
 		
-		// Spawn the new mob
-		LivingEntity entity = mob.getMobType().spawnMob(location);
+		boolean spawned = false;
+		for (int i = 0; i < size; ++i)
+		{
+			Location place = size > 1 ? pack[i] : location;
+			
+			// Pack members may be in another layer or chunk than the first mob
+			if (world != null && i > 0 && !world.withinMobLimit(mob.getMobType(), place))
+			{
+				for (int c = 0; c < counters.size(); ++c)
+					counters.get(c).unreserve(1);
+				continue;
+			}
+			
+			// Fill the reserved places
+			MobReference mobRef = new MobReference();
+			for (int c = 0; c < counters.size(); ++c)
+				counters.get(c).addReserved(mobRef);
+			
+			// Don't let the limiter or abilities component mess with us
+			P.p().ignoreNextSpawn(true);
+			
+			// Spawn the new mob
+			LivingEntity entity = mob.getMobType().spawnMob(place);
+			
+			// Set the reference to the entity, frees its places if it failed to spawn
+			mobRef.setReference(entity);
+			
+			if (entity != null)
+			{
+				applyAbilities(entity);
+				spawned = true;
+			}
+		}
 		
-		// Set the reference to the entity
-		mobRef.setReference(entity);
+		// Execute the action for this mob, once per pack
+		if (spawned)
+			mob.executeAction(location);
 		
-		// If the entity failed to spawn return :(
-		if (entity == null)
-			return false;
+		return spawned;
+	}
+	
+	/**
+	 * Makes sure the pack has at least size reusable locations
+	 */
+	private void growPack(int size)
+	{
+		if (pack.length >= size)
+			return;
+		
+		Location[] grown = new Location[size];
+		System.arraycopy(pack, 0, grown, 0, pack.length);
+		for (int i = pack.length; i < size; ++i)
+			grown[i] = new Location(null, 0.0, 0.0, 0.0);
+		pack = grown;
+	}
+	
+	/**
+	 * Reserves places in each counter for as much of the pack as every counter allows
+	 * 
+	 * @param min The smallest pack worth spawning
+	 * 
+	 * @return The number of places reserved in every counter, 0 if less than min
+	 */
+	private static int reserve(List<MobCounter> counters, int size, int min)
+	{
+		for (int i = 0; i < counters.size() && size > 0; ++i)
+		{
+			int granted = counters.get(i).reserve(size);
+			
+			// Give back what the earlier counters reserved over this counters limit
+			if (granted < size)
+			{
+				for (int j = 0; j < i; ++j)
+					counters.get(j).unreserve(size - granted);
+				size = granted;
+			}
+		}
 		
-		// Execute the action for this mob
-		mob.executeAction(location);
+		if (size < min)
+		{
+			for (int i = 0; i < counters.size(); ++i)
+				counters.get(i).unreserve(size);
+			return 0;
+		}
 		
+		return size;
+	}
+	
+	/**
+	 * Applies the mobs abilities to the entity
+	 */
+	private void applyAbilities(LivingEntity entity)
+	{
 		// Apply abilities to the mob
 		if (MMComponent.getAbilities().isEnabled())
 		{
@@ -128,7 +273,7 @@ public class MobSpawner
 				
 				// If there is no config for this mob we are done
 				if (mobCfg == null)
-					return true;
+					return;
 			}
 			
 			// Apply rates
@@ -143,6 +288,5 @@ public class MobSpawner
 				mob.getAbilitySet().addAbility(entity);
 		}
 		
-		return true;
 	}
 }
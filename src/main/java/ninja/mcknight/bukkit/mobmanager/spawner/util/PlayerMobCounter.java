@@ -8,7 +8,7 @@ import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 
 import ninja.mcknight.bukkit.mobmanager.MMComponent;
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
+import ninja.mcknight.bukkit.mobmanager.common.util.Scratch;
 
 public class PlayerMobCounter extends MobCounter
 {
@@ -29,6 +29,16 @@ public class PlayerMobCounter extends MobCounter
 		return super.withinLimit();
 	}
 	
+	public int getMobCount(int mobCooldown)
+	{
+		super.mobCooldown = mobCooldown;
+		
+		return super.getMobCount();
+	}
+	
+	/**
+	 * Called from {@link MobReference#sweep()} on the main thread
+	 */
 	@Override
 	public boolean remove(LivingEntity entity)
 	{
@@ -59,8 +69,9 @@ public class PlayerMobCounter extends MobCounter
 			return true;
 		
 		// Fetch player and mob locations
-		Location playerLoc = LocationCache.getCachedLocation(player);
-		Location mobLoc = LocationCache.getCachedLocation(entity);
+		Scratch scratch = Scratch.get();
+		Location playerLoc = player.getLocation(scratch.playerLoc);
+		Location mobLoc = entity.getLocation(scratch.entityLoc);
 		
 		// Check if the locations are out of range
 		return !PlayerFinder.FinderMode.CYLINDER.withinRange(playerLoc, mobLoc, MMComponent.getSpawner().getConfig().mobDistanceForLimitRemoval, 32);
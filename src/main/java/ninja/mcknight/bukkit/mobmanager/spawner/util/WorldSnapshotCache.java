@@ -0,0 +1,423 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.World.Environment;
+import org.bukkit.block.Biome;
+import org.bukkit.entity.Player;
+
+import ninja.mcknight.bukkit.mobmanager.common.util.PlayerFinder;
+import ninja.mcknight.bukkit.mobmanager.common.util.RandomLocationGen;
+import ninja.mcknight.bukkit.mobmanager.common.util.Scratch;
+import ninja.mcknight.bukkit.mobmanager.limiter.config.LimiterConfig;
+import ninja.mcknight.bukkit.mobmanager.limiter.world.ChunkPopulation;
+
+/**
+ * Keeps ChunkSnapshots of the chunks around players so spawn locations</br>
+ * can be sampled without touching the live world</br>
+ * Each snapshot has a {@link ChunkColumnIndex} which is built the first time it is needed</br>
+ * </br>
+ * Snapshots can be read from any thread, everything else is main thread only
+ */
+public class WorldSnapshotCache
+{
+	private final World world;
+	
+	private final ConcurrentHashMap<Long, CachedChunk> snapshots = new ConcurrentHashMap<Long, CachedChunk>();
+	/** The tick each snapshot was taken */
+	private final HashMap<Long, Long> snapshotTicks = new HashMap<Long, Long>();
+	
+	/** Chunks which have had blocks change since their snapshot was taken */
+	private final LinkedHashSet<Long> dirtyChunks = new LinkedHashSet<Long>();
+	/** Chunks which are missing or too old */
+	private final ArrayDeque<Long> refreshQueue = new ArrayDeque<Long>();
+	/** Chunks which are close enough to a player to be kept */
+	private HashSet<Long> wantedChunks = new HashSet<Long>();
+	
+	private volatile int skyDarken;
+	private volatile long time;
+	/** X, block Y, Z of each player counted by PlayerFinder at the last update, replaced rather than modified */
+	private volatile double[] playerPositions = new double[0];
+	
+	public WorldSnapshotCache(World world)
+	{
+		this.world = world;
+	}
+	
+	public World getWorld()
+	{
+		return world;
+	}
+	
+	/**
+	 * Fetches the snapshot of a chunk
+	 * 
+	 * @return The snapshot, or null if the chunk has not been cached
+	 */
+	public ChunkSnapshot getSnapshot(int chunkX, int chunkZ)
+	{
+		CachedChunk chunk = snapshots.get(ChunkPopulation.getKey(chunkX, chunkZ));
+		return chunk != null ? chunk.snapshot : null;
+	}
+	
+	/**
+	 * Fetches the column index of a chunk, building it from the snapshot if needed
+	 * 
+	 * @return The index, or null if the chunk has not been cached
+	 */
+	public ChunkColumnIndex getColumnIndex(int chunkX, int chunkZ)
+	{
+		CachedChunk chunk = snapshots.get(ChunkPopulation.getKey(chunkX, chunkZ));
+		if (chunk == null)
+			return null;
+		
+		// Two threads may build the same index, both results are identical
+		ChunkColumnIndex index = chunk.index;
+		if (index == null)
+			chunk.index = index = new ChunkColumnIndex(chunk.snapshot);
+		
+		return index;
+	}
+	
+	/**
+	 * Fetches the material of a block
+	 * 
+	 * @return The material, or null if the chunk has not been cached
+	 */
+	@SuppressWarnings("deprecation")
+	public Material getMaterial(int x, int y, int z)
+	{
+		if (y < 0 || y > 255)
+			return Material.AIR;
+		
+		ChunkSnapshot chunk = getSnapshot(x >> 4, z >> 4);
+		return chunk != null ? Material.getMaterial(chunk.getBlockTypeId(x & 15, y, z & 15)) : null;
+	}
+	
+	/**
+	 * Checks if the block is cached and safe for spawning inside of
+	 */
+	public boolean isSafeBlock(int x, int y, int z)
+	{
+		ChunkColumnIndex index = getColumnIndex(x >> 4, z >> 4);
+		return index != null && index.isSafe(x & 15, y, z & 15);
+	}
+	
+	/**
+	 * Same as {@link RandomLocationGen#isTallLocation(org.bukkit.block.Block)}
+	 */
+	public boolean isTallLocation(int x, int y, int z)
+	{
+		return isSafeBlock(x, y + 2, z);
+	}
+	
+	/**
+	 * Same as {@link RandomLocationGen#isWideLocation(org.bukkit.block.Block)}
+	 */
+	public boolean isWideLocation(int x, int y, int z)
+	{
+		return isSafeBlock(x, y, z - 1)
+				&& isSafeBlock(x + 1, y, z - 1)
+				&& isSafeBlock(x + 1, y, z)
+				&& isSafeBlock(x + 1, y, z + 1)
+				&& isSafeBlock(x, y, z + 1)
+				&& isSafeBlock(x - 1, y, z + 1)
+				&& isSafeBlock(x - 1, y, z)
+				&& isSafeBlock(x - 1, y, z - 1);
+	}
+	
+	/**
+	 * Fetches the light level of a block the same way as Block.getLightLevel()
+	 * 
+	 * @return The light level, or -1 if the chunk has not been cached
+	 */
+	public int getLightLevel(int x, int y, int z)
+	{
+		if (y < 0 || y > 255)
+			return y < 0 ? 0 : 15 - skyDarken;
+		
+		ChunkSnapshot chunk = getSnapshot(x >> 4, z >> 4);
+		if (chunk == null)
+			return -1;
+		
+		int sky = world.getEnvironment() == Environment.NORMAL ? chunk.getBlockSkyLight(x & 15, y, z & 15) - skyDarken : 0;
+		int emitted = chunk.getBlockEmittedLight(x & 15, y, z & 15);
+		
+		return sky > emitted ? sky : emitted;
+	}
+	
+	/**
+	 * Fetches the biome at the given column
+	 * 
+	 * @return The biome, or null if the chunk has not been cached
+	 */
+	public Biome getBiome(int x, int z)
+	{
+		ChunkSnapshot chunk = getSnapshot(x >> 4, z >> 4);
+		return chunk != null ? chunk.getBiome(x & 15, z & 15) : null;
+	}
+	
+	/**
+	 * Fetches the world time at the last update
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+	
+	/**
+	 * Marks the chunk to be refreshed as soon as possible</br>
+	 * <b>Note: Main thread only</b>
+	 */
+	public void markDirty(int chunkX, int chunkZ)
+	{
+		long key = ChunkPopulation.getKey(chunkX, chunkZ);
+		if (snapshots.containsKey(key))
+			dirtyChunks.add(key);
+	}
+	
+	/**
+	 * Updates the column index of a chunk straight away after a block</br>
+	 * was placed or broken, the chunk is also marked dirty</br>
+	 * <b>Note: Main thread only</b>
+	 */
+	public void updateBlock(int x, int y, int z, Material type)
+	{
+		long key = ChunkPopulation.getKey(x >> 4, z >> 4);
+		CachedChunk chunk = snapshots.get(key);
+		if (chunk == null)
+			return;
+		
+		ChunkColumnIndex index = chunk.index;
+		if (index != null)
+			index.setSafe(x & 15, y, z & 15, RandomLocationGen.isSafeMaterial(type));
+		
+		dirtyChunks.add(key);
+	}
+	
+	/**
+	 * Drops the snapshot of a chunk which is being unloaded</br>
+	 * <b>Note: Main thread only</b>
+	 */
+	public void remove(int chunkX, int chunkZ)
+	{
+		long key = ChunkPopulation.getKey(chunkX, chunkZ);
+		snapshots.remove(key);
+		snapshotTicks.remove(key);
+		dirtyChunks.remove(key);
+	}
+	
+	/**
+	 * Updates which chunks should be cached</br>
+	 * Snapshots which are no longer wanted are dropped, missing or old ones are queued</br>
+	 * <b>Note: Main thread only</b>
+	 * 
+	 * @param wanted The chunks which are within spawning range of players
+	 * @param tick The current tick
+	 * @param maxAge The number of ticks before a snapshot is taken again
+	 */
+	public void setWantedChunks(HashSet<Long> wanted, long tick, int maxAge)
+	{
+		wantedChunks = wanted;
+		refreshQueue.clear();
+		
+		Iterator<Entry<Long, Long>> it = snapshotTicks.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Entry<Long, Long> entry = it.next();
+			
+			if (!wanted.contains(entry.getKey()))
+			{
+				snapshots.remove(entry.getKey());
+				dirtyChunks.remove(entry.getKey());
+				it.remove();
+			}
+			else if (tick - entry.getValue() >= maxAge)
+				refreshQueue.add(entry.getKey());
+		}
+		
+		// Missing chunks go first
+		for (long key : wanted)
+		{
+			if (!snapshotTicks.containsKey(key))
+				refreshQueue.addFirst(key);
+		}
+	}
+	
+	/**
+	 * Takes up to 'budget' snapshots, dirty chunks go first</br>
+	 * <b>Note: Main thread only</b>
+	 * 
+	 * @param tick The current tick
+	 * @param budget The maximum number of snapshots to take
+	 */
+	public void refresh(long tick, int budget)
+	{
+		time = world.getTime();
+		skyDarken = calculateSkyDarken();
+		updatePlayerPositions();
+		
+		while (budget > 0)
+		{
+			Long key;
+			
+			if (!dirtyChunks.isEmpty())
+			{
+				Iterator<Long> it = dirtyChunks.iterator();
+				key = it.next();
+				it.remove();
+			}
+			else if ((key = refreshQueue.poll()) == null)
+				return;
+			
+			if (!wantedChunks.contains(key))
+				continue;
+			
+			int chunkX = ChunkPopulation.getChunkX(key), chunkZ = ChunkPopulation.getChunkZ(key);
+			
+			// Never load chunks just to take a snapshot of them
+			if (!world.isChunkLoaded(chunkX, chunkZ))
+				continue;
+			
+			snapshots.put(key, new CachedChunk(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, true, false)));
+			snapshotTicks.put(key, tick);
+			--budget;
+		}
+	}
+	
+	/**
+	 * Copies the players positions so they can be checked off the main thread
+	 */
+	private void updatePlayerPositions()
+	{
+		List<Player> players = world.getPlayers();
+		double[] positions = new double[players.size() * 3];
+		Location loc = Scratch.get().searchLoc;
+		
+		int n = 0;
+		for (Player player : players)
+		{
+			// Same players as PlayerFinder.playerNear()
+			if (LimiterConfig.ignoreCreativePlayers && player.getGameMode() == GameMode.CREATIVE)
+				continue;
+			
+			player.getLocation(loc);
+			positions[n++] = loc.getX();
+			positions[n++] = loc.getBlockY();
+			positions[n++] = loc.getZ();
+		}
+		
+		playerPositions = n == positions.length ? positions : Arrays.copyOf(positions, n);
+	}
+	
+	/**
+	 * Same as {@link PlayerFinder#playerNear(Location, int, int)} using the</br>
+	 * player positions from the last update, so it can be used off the main thread
+	 * 
+	 * @param searchDist Compared against the squared horizontal distance
+	 * @param searchY The vertical distance in blocks
+	 */
+	public boolean playerNear(double x, int y, double z, int searchDist, int searchY)
+	{
+		double[] positions = playerPositions;
+		for (int i = 0; i < positions.length; i += 3)
+		{
+			if (Math.abs(y - (int) positions[i + 1]) > searchY)
+				continue;
+			
+			double dx = x - positions[i], dz = z - positions[i + 2];
+			if (dx * dx + dz * dz <= searchDist)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Fetches the number of cached chunks
+	 */
+	public int size()
+	{
+		return snapshots.size();
+	}
+	
+	/**
+	 * Calculates how much sky light is reduced by the time of day and weather</br>
+	 * Follows the same calculation as vanilla
+	 */
+	private int calculateSkyDarken()
+	{
+		if (world.getEnvironment() != Environment.NORMAL)
+			return 0;
+		
+		// Celestial angle
+		float angle = (time % 24000L) / 24000.0F - 0.25F;
+		if (angle < 0.0F)
+			++angle;
+		if (angle > 1.0F)
+			--angle;
+		angle += (1.0F - (float) ((Math.cos(angle * Math.PI) + 1.0) / 2.0) - angle) / 3.0F;
+		
+		float brightness = 1.0F - ((float) Math.cos(angle * Math.PI * 2.0) * 2.0F + 0.5F);
+		brightness = 1.0F - Math.max(0.0F, Math.min(1.0F, brightness));
+		
+		if (world.hasStorm())
+			brightness *= 1.0F - 5.0F / 16.0F;
+		if (world.isThundering())
+			brightness *= 1.0F - 5.0F / 16.0F;
+		
+		return (int) ((1.0F - brightness) * 11.0F);
+	}
+	
+	private static class CachedChunk
+	{
+		final ChunkSnapshot snapshot;
+		volatile ChunkColumnIndex index;
+		
+		CachedChunk(ChunkSnapshot snapshot)
+		{
+			this.snapshot = snapshot;
+		}
+	}
+}
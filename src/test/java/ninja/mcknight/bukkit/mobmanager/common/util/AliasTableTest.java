@@ -26,86 +26,53 @@
  * either expressed or implied, of anybody else.
  */
 
+
 package ninja.mcknight.bukkit.mobmanager.common.util;
 
-import java.util.WeakHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
 
-public class ThreadCache<T>
+public class AliasTableTest extends AllocationTest
 {
-	private final WeakHashMap<Thread, T> map;
-	private final ReentrantReadWriteLock rwLock;
-	private Class<T> clazz;
-	
-	public ThreadCache()
+	@Test
+	public void picksByWeight()
 	{
-		this(null);
+		AliasTable table = new AliasTable(new int[] {1, 0, 3});
+		Random random = new Random(42L);
+		
+		int[] picks = new int[3];
+		for (int i = 0; i < 100000; ++i)
+			++picks[table.pick(random)];
+		
+		assertEquals(0, picks[1]);
+		assertTrue("Index 0 picked " + picks[0] + " times", Math.abs(picks[0] - 25000) < 1000);
+		assertTrue("Index 2 picked " + picks[2] + " times", Math.abs(picks[2] - 75000) < 1000);
 	}
 	
-	public ThreadCache(Class<T> clazz)
+	@Test
+	public void emptyTablePicksNothing()
 	{
-		this.map = new WeakHashMap<Thread, T>();
-		rwLock = new ReentrantReadWriteLock();
-		this.clazz = clazz;
+		assertEquals(-1, new AliasTable(new int[0]).pick(new Random(42L)));
 	}
 	
-	public T get()
+	@Test
+	public void pickDoesNotAllocate()
 	{
-		ReadLock lock = rwLock.readLock();
-		lock.lock();
+		final AliasTable table = new AliasTable(new int[] {5, 1, 7, 2, 9});
+		final Random random = new Random(42L);
 		
-		T t = null;
-		try
+		assertNoGarbage("AliasTable.pick", new Runnable()
 		{
-			t = map.get(Thread.currentThread());
-		}
-		finally
-		{
-			lock.unlock();
-		}
-		
-		if (t == null && clazz != null)
-		{
-			try
-			{
-				t = clazz.getConstructor().newInstance();
-				set(t);
-			}
-			catch (Exception e)
+			@Override
+			public void run()
 			{
-				clazz = null;
+				for (int i = 0; i < 100000; ++i)
+					table.pick(random);
 			}
-		}
-		return t;
-	}
-	
-	public void set(T t)
-	{
-		WriteLock lock = rwLock.writeLock();
-		lock.lock();
-		try
-		{
-			map.put(Thread.currentThread(), t);
-		}
-		finally
-		{
-			lock.unlock();
-		}
-	}
-	
-	public void clear()
-	{
-		WriteLock lock = rwLock.writeLock();
-		lock.lock();
-		try
-		{
-			map.clear();
-		}
-		finally
-		{
-			lock.unlock();
-		}
+		});
 	}
 }
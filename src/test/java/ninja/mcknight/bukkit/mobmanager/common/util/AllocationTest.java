@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package ninja.mcknight.bukkit.mobmanager.common.util;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * Base for tests which hold the spawners hot paths to an allocation budget</br>
+ * Measures what code allocates on the current thread, tests are skipped</br>
+ * if the JVM can't measure allocations
+ */
+public abstract class AllocationTest
+{
+	/** Allowance for the measuring itself and anything the JIT still does */
+	public static final long SLACK_BYTES = 1024L;
+	
+	@BeforeClass
+	public static void enableAllocations()
+	{
+		ThreadAllocation.enable();
+		assumeTrue(ThreadAllocation.isEnabled());
+	}
+	
+	@AfterClass
+	public static void disableAllocations()
+	{
+		ThreadAllocation.disable();
+	}
+	
+	/**
+	 * Runs the code once to warm it up, then again while measuring
+	 * 
+	 * @return The bytes allocated by the measured run
+	 */
+	protected static long measure(Runnable code)
+	{
+		code.run();
+		
+		long start = ThreadAllocation.getAllocatedBytes();
+		code.run();
+		return ThreadAllocation.getAllocatedBytes() - start;
+	}
+	
+	/**
+	 * Checks the code does not allocate once it is warmed up
+	 * 
+	 * @param what Describes the code in the failure message
+	 */
+	protected static void assertNoGarbage(String what, Runnable code)
+	{
+		assertWithinBudget(what, measure(code), 0L);
+	}
+	
+	/**
+	 * Checks the bytes allocated stay within the budget plus {@link #SLACK_BYTES}
+	 * 
+	 * @param what Describes the code in the failure message
+	 */
+	protected static void assertWithinBudget(String what, long bytes, long budget)
+	{
+		assertTrue(what + " allocated " + bytes + " bytes, the budget is " + budget, bytes <= budget + SLACK_BYTES);
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+
+import ninja.mcknight.bukkit.mobmanager.common.util.AllocationTest;
+import ninja.mcknight.bukkit.mobmanager.common.util.ThreadAllocation;
+import ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder.PlayerClusters.QueuedPlayer;
+import org.bukkit.entity.Player;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs whole attempts through the executor with their stages stubbed out,</br>
+ * so the sampling, selecting and spawning around the stages is held to a budget
+ */
+public class SpawnAttemptExecutorTest extends AllocationTest
+{
+	/** Attempts started each cycle */
+	private static final int ATTEMPTS = 256;
+	private static final int WARMUP_CYCLES = 200;
+	private static final int MEASURED_CYCLES = 50;
+	/** Bytes each attempt may allocate over every stage and thread */
+	private static final long BYTES_PER_ATTEMPT = 16L;
+	
+	private SpawnAttemptExecutor executor;
+	/** Attempts which reached their spawn stage this cycle, only used on the main thread */
+	private int spawned;
+	
+	@After
+	public void shutdown()
+	{
+		if (executor != null)
+			executor.shutdown();
+	}
+	
+	/**
+	 * An attempt whose stages do nothing, counting the attempts which get to spawn
+	 */
+	private class StubAttempt extends SpawnAttempt
+	{
+		StubAttempt(SpawnAttemptExecutor saExecutor, SpawnPartition partition)
+		{
+			super(saExecutor, partition);
+		}
+		
+		@Override
+		void runCurrentStage()
+		{
+			if (getState() == AttemptState.SPAWN)
+				++spawned;
+		}
+	}
+	
+	/**
+	 * Creates a player which is always online
+	 */
+	private static Player validPlayer()
+	{
+		return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] {Player.class}, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				if (method.getName().equals("isValid"))
+					return true;
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+	/**
+	 * Starts a cycle of attempts and runs the executor until every one has spawned
+	 */
+	private void runCycle(SpawnPartition partition, Player player, SpawnAttempt[] batch)
+	{
+		spawned = 0;
+		
+		partition.pool.take(batch, batch.length);
+		for (int i = 0; i < batch.length; ++i)
+			batch[i].init(player, null, 0, 0, 0, false, null);
+		
+		synchronized (partition.sampleQueue)
+		{
+			for (int i = 0; i < batch.length; ++i)
+				partition.sampleQueue.add(batch[i]);
+		}
+		
+		while (spawned < batch.length)
+		{
+			executor.getScheduler().startRun(1);
+			executor.runStages();
+			Thread.yield();
+		}
+	}
+	
+	private void assertAttemptsWithinBudget(boolean workStealing)
+	{
+		executor = new SpawnAttemptExecutor(null, new ArrayDeque<QueuedPlayer>(), new PlayerClusters(), null,
+				2, workStealing, 1000000000L, Long.MAX_VALUE);
+		SpawnPartition partition = executor.getPartition("world");
+		
+		// Fill the pool with stubs so it never creates real attempts
+		for (int i = 0; i < ATTEMPTS; ++i)
+			partition.pool.release(new StubAttempt(executor, partition));
+		
+		Player player = validPlayer();
+		SpawnAttempt[] batch = new SpawnAttempt[ATTEMPTS];
+		
+		for (int i = 0; i < WARMUP_CYCLES; ++i)
+			runCycle(partition, player, batch);
+		
+		long workers = partition.getAllocatedBytes();
+		long main = ThreadAllocation.getAllocatedBytes();
+		
+		for (int i = 0; i < MEASURED_CYCLES; ++i)
+			runCycle(partition, player, batch);
+		
+		long bytes = ThreadAllocation.getAllocatedBytes() - main + partition.getAllocatedBytes() - workers;
+		assertWithinBudget((workStealing ? "Work stealing" : "Thread pool") + " attempts", bytes, MEASURED_CYCLES * ATTEMPTS * BYTES_PER_ATTEMPT);
+	}
+	
+	@Test
+	public void workStealingAttemptsStayWithinBudget()
+	{
+		assertAttemptsWithinBudget(true);
+	}
+	
+	@Test
+	public void threadPoolAttemptsStayWithinBudget()
+	{
+		assertAttemptsWithinBudget(false);
+	}
+}
@@ -26,34 +26,51 @@
  * either expressed or implied, of anybody else.
  */
 
-package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
 
-import java.util.ArrayList;
-import java.util.List;
+package ninja.mcknight.bukkit.mobmanager.spawner.tasks.spawnfinder;
 
-import org.bukkit.Location;
+import static org.junit.Assert.assertSame;
 
-import ninja.mcknight.bukkit.mobmanager.common.util.LocationCache;
+import ninja.mcknight.bukkit.mobmanager.common.util.AllocationTest;
+import org.junit.Test;
 
-/**
- * Contains a set of items which are required to complete a full spawn attempt
- * 
- * TODO: Test performance increase due to the cache
- */
-public class SpawnAttemptCache
+public class SpawnAttemptPoolTest extends AllocationTest
 {
-	public final Location playerLoc, cacheLoc;
-	public final List<Integer> cacheList;
+	private static final int BATCH = 64;
 	
-	public SpawnAttemptCache()
+	@Test
+	public void reusesReleasedAttempts()
 	{
-		this(LocationCache.getCachedLocation(), LocationCache.getCachedLocation(), new ArrayList<Integer>());
+		SpawnAttemptPool pool = new SpawnAttemptPool(null, null);
+		SpawnAttempt[] batch = new SpawnAttempt[1];
+		
+		pool.take(batch, 1);
+		SpawnAttempt attempt = batch[0];
+		pool.release(attempt);
+		
+		batch[0] = null;
+		pool.take(batch, 1);
+		assertSame(attempt, batch[0]);
 	}
 	
-	public SpawnAttemptCache(Location playerLoc, Location cacheLoc, List<Integer> cacheList)
+	@Test
+	public void takeAndReleaseDoNotAllocate()
 	{
-		this.playerLoc = playerLoc;
-		this.cacheLoc = cacheLoc;
-		this.cacheList = cacheList;
+		final SpawnAttemptPool pool = new SpawnAttemptPool(null, null);
+		final SpawnAttempt[] batch = new SpawnAttempt[BATCH];
+		
+		assertNoGarbage("SpawnAttemptPool take/release", new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (int i = 0; i < 1000; ++i)
+				{
+					pool.take(batch, BATCH);
+					for (SpawnAttempt attempt : batch)
+						pool.release(attempt);
+				}
+			}
+		});
 	}
 }
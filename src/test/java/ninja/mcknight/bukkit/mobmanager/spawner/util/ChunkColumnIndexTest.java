@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 Michael McKnight. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+
+package ninja.mcknight.bukkit.mobmanager.spawner.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+
+import ninja.mcknight.bukkit.mobmanager.common.util.AllocationTest;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.junit.Test;
+
+public class ChunkColumnIndexTest extends AllocationTest
+{
+	/** Every chunk in these tests is stone below this Y and air from it up */
+	private static final int GROUND = 64;
+	
+	/**
+	 * Creates a snapshot which only answers block type lookups
+	 */
+	@SuppressWarnings("deprecation")
+	private static ChunkSnapshot flatChunk()
+	{
+		final int stone = Material.STONE.getId(), air = Material.AIR.getId();
+		
+		return (ChunkSnapshot) Proxy.newProxyInstance(ChunkSnapshot.class.getClassLoader(), new Class<?>[] {ChunkSnapshot.class}, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				if (method.getName().equals("getBlockTypeId"))
+					return (Integer) args[1] < GROUND ? stone : air;
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+	@Test
+	public void indexesSafeBlocks()
+	{
+		ChunkColumnIndex index = new ChunkColumnIndex(flatChunk());
+		
+		assertFalse(index.isSafe(3, GROUND - 1, 7));
+		assertTrue(index.isSafe(3, GROUND, 7));
+		assertTrue(index.isTall(3, GROUND, 7));
+		assertFalse(index.isSafe(3, -1, 7));
+		assertTrue(index.isSafe(3, 256, 7));
+	}
+	
+	@Test
+	public void picksTheOnlyStandingY()
+	{
+		ChunkColumnIndex index = new ChunkColumnIndex(flatChunk());
+		Random random = new Random(42L);
+		
+		assertEquals(GROUND, index.pickStandingY(5, 5, 0, 255, random));
+		assertEquals(GROUND, index.pickStandingY(5, 5, GROUND, GROUND, random));
+		assertEquals(-1, index.pickStandingY(5, 5, GROUND + 1, 255, random));
+		assertEquals(-1, index.pickStandingY(5, 5, 0, GROUND - 1, random));
+	}
+	
+	@Test
+	public void picksStandingYAcrossWords()
+	{
+		ChunkColumnIndex index = new ChunkColumnIndex(flatChunk());
+		Random random = new Random(42L);
+		
+		// A floor in the second word, making a second standing position above it
+		index.setSafe(5, 130, 5, false);
+		
+		boolean ground = false, floor = false;
+		for (int i = 0; i < 200; ++i)
+		{
+			int y = index.pickStandingY(5, 5, 0, 255, random);
+			assertTrue("Picked " + y, y == GROUND || y == 131);
+			ground |= y == GROUND;
+			floor |= y == 131;
+		}
+		assertTrue(ground && floor);
+	}
+	
+	@Test
+	public void lookupsDoNotAllocate()
+	{
+		final ChunkColumnIndex index = new ChunkColumnIndex(flatChunk());
+		final Random random = new Random(42L);
+		
+		assertNoGarbage("ChunkColumnIndex lookups", new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (int i = 0; i < 100000; ++i)
+				{
+					int x = i & 15, z = (i >> 4) & 15;
+					index.pickStandingY(x, z, 40, 120, random);
+					index.isSafe(x, i & 255, z);
+					index.isTall(x, GROUND, z);
+				}
+			}
+		});
+	}
+}